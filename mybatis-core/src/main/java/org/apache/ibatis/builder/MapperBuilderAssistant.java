@@ -153,16 +153,37 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, null, null, null, null, size, readWrite, blocking, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Long expireAfterWrite,
+      Long expireAfterAccess,
+      Double expirationJitter,
+      Long staleWhileRevalidate,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Properties props) {
     Cache cache = new CacheBuilder(currentNamespace)
         .implementation(valueOrDefault(typeClass, PerpetualCache.class))
         .addDecorator(valueOrDefault(evictionClass, LruCache.class))
         .clearInterval(flushInterval)
+        .expireAfterWrite(expireAfterWrite)
+        .expireAfterAccess(expireAfterAccess)
+        .expirationJitter(expirationJitter)
+        .staleWhileRevalidate(staleWhileRevalidate)
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
         .properties(props)
         .build();
     configuration.addCache(cache);
+    if (readWrite) {
+      configuration.addReadWriteCache(cache.getId());
+    }
     currentCache = cache;
     return cache;
   }
@@ -324,6 +345,33 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String databaseId,//数据库id
       LanguageDriver lang,//语言驱动
       String resultSets) {//多个结果集的名字列表
+    return addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap,
+        parameterType, resultMap, resultType, resultSetType, flushCache, useCache, resultOrdered, keyGenerator,
+        keyProperty, keyColumn, databaseId, lang, resultSets, null);
+  }
+
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String cacheTags) {//查询语句读取的表或者更新语句修改的表，用于细粒度的缓存失效
 
       /**
        * 需要引用cache对象
@@ -354,7 +402,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .resultSetType(resultSetType)
         .flushCacheRequired(valueOrDefault(flushCache, !isSelect))
         .useCache(valueOrDefault(useCache, isSelect))
-        .cache(currentCache);
+        .cache(currentCache)
+        .cacheTags(cacheTags);
 
     ParameterMap statementParameterMap = getStatementParameterMap(parameterMap, parameterType, id);
     if (statementParameterMap != null) {
@@ -362,6 +411,9 @@ public class MapperBuilderAssistant extends BaseBuilder {
     }
 
     MappedStatement statement = statementBuilder.build();
+    if (currentCache != null && statement.getCacheTags() != null) {
+      configuration.addCacheTagIndex(currentCache.getId());
+    }
     /**
      * 缓存到Configuration对象中
      */
@@ -451,6 +503,28 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String resultSet,//复合属性对应的结果集名字（存储过程可以返回多个结果集）
       String foreignColumn,//外键(求多个数据集时用来传递参数的)
       boolean lazy) {
+    return buildResultMapping(
+      resultType, property, column, javaType, jdbcType, nestedSelect,
+      nestedResultMap, notNullColumn, columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, null, null);
+  }
+
+  public ResultMapping buildResultMapping(
+      Class<?> resultType,
+      String property,
+      String column,
+      Class<?> javaType,
+      JdbcType jdbcType,
+      String nestedSelect,
+      String nestedResultMap,
+      String notNullColumn,
+      String columnPrefix,
+      Class<? extends TypeHandler<?>> typeHandler,
+      List<ResultFlag> flags,
+      String resultSet,
+      String foreignColumn,
+      boolean lazy,
+      String nestedBatchSelect,//一次查询所有父对象的子对象的<select>标签
+      String batchKey) {//子对象中与column的值对应的属性
     /**
      * 属性类型
      */
@@ -479,6 +553,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .jdbcType(jdbcType)
         .nestedQueryId(applyCurrentNamespace(nestedSelect, true))
         .nestedResultMapId(applyCurrentNamespace(nestedResultMap, true))
+        .nestedBatchQueryId(applyCurrentNamespace(nestedBatchSelect, true))
+        .batchKey(batchKey)
         .resultSet(resultSet)
         .typeHandler(typeHandlerInstance)
         .flags(flags == null ? new ArrayList<>() : flags)
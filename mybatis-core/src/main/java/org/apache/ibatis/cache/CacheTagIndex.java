@@ -0,0 +1,150 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the tags (usually table names) the entries of a cache were read from, so a statement writing to a
+ * table only invalidates the entries tagged with it instead of clearing the cache.
+ * <p>
+ * Entries of statements without tags may depend on any table, so every invalidation removes them. The index is not
+ * told when the cache evicts an entry, so it keeps at most a given number of keys: beyond it, the index drops all
+ * of them and cannot vouch for any entry until the cache is cleared, which the next invalidation then does.
+ */
+public class CacheTagIndex {
+
+  public static final int DEFAULT_MAX_KEYS = 65536;
+
+  private static final String[] NO_TAGS = new String[0];
+
+  private final int maxKeys;
+  private final Map<Object, String[]> tagsByKey = new HashMap<>();
+  private final Map<String, Set<Object>> keysByTag = new HashMap<>();
+  private final Set<Object> untaggedKeys = new HashSet<>();
+  /**
+   * 超过最大key数丢弃了索引，在缓存清空之前不知道哪些key受影响
+   */
+  private boolean incomplete;
+
+  public CacheTagIndex() {
+    this(DEFAULT_MAX_KEYS);
+  }
+
+  /**
+   * @param maxKeys the maximum number of keys indexed between two clears of the cache
+   */
+  public CacheTagIndex(int maxKeys) {
+    this.maxKeys = maxKeys;
+  }
+
+  /**
+   * Records the tags of an entry put in the cache.
+   */
+  public synchronized void register(Object key, String[] tags) {
+    if (incomplete) {
+      return;
+    }
+    if (tagsByKey.size() >= maxKeys && !tagsByKey.containsKey(key)) {
+      clear();
+      incomplete = true;
+      return;
+    }
+    String[] previous = tagsByKey.put(key, tags == null ? NO_TAGS : tags);
+    if (previous != null) {
+      unlink(key, previous);
+    }
+    if (tags == null || tags.length == 0) {
+      untaggedKeys.add(key);
+    } else {
+      for (String tag : tags) {
+        keysByTag.computeIfAbsent(tag, k -> new HashSet<>()).add(key);
+      }
+    }
+  }
+
+  /**
+   * Whether an invalidation of the given tags affects the entry. Unknown entries are considered affected.
+   */
+  public synchronized boolean isAffected(Object key, Collection<String> tags) {
+    String[] entryTags = tagsByKey.get(key);
+    if (entryTags == null || entryTags.length == 0) {
+      return true;
+    }
+    for (String tag : entryTags) {
+      if (tags.contains(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the entries affected by the given tags from the index.
+   *
+   * @return the keys to remove from the cache, or null if the index dropped keys and the whole cache must be
+   *     cleared, along with this index
+   */
+  public synchronized List<Object> invalidate(Collection<String> tags) {
+    if (incomplete) {
+      return null;
+    }
+    List<Object> keys = new ArrayList<>(untaggedKeys);
+    untaggedKeys.clear();
+    for (String tag : tags) {
+      Set<Object> tagged = keysByTag.remove(tag);
+      if (tagged != null) {
+        keys.addAll(tagged);
+      }
+    }
+    for (Object key : keys) {
+      String[] entryTags = tagsByKey.remove(key);
+      if (entryTags != null) {
+        unlink(key, entryTags);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Forgets all the keys, to be called before the cache is cleared.
+   */
+  public synchronized void clear() {
+    tagsByKey.clear();
+    keysByTag.clear();
+    untaggedKeys.clear();
+    incomplete = false;
+  }
+
+  private void unlink(Object key, String[] tags) {
+    if (tags.length == 0) {
+      untaggedKeys.remove(key);
+    }
+    for (String tag : tags) {
+      Set<Object> tagged = keysByTag.get(tag);
+      if (tagged != null) {
+        tagged.remove(key);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Marker for cache decorators that are safe for concurrent use as long as their delegate is.
+ * <p>
+ * When every decorator of a cache implements this interface, down to an eviction decorator keeping the entries
+ * itself, {@link org.apache.ibatis.mapping.CacheBuilder} does not wrap the cache into a
+ * {@link org.apache.ibatis.cache.decorators.SynchronizedCache}, so cache hits do not take a global lock.
+ */
+public interface ConcurrentCache extends Cache {
+
+}
@@ -35,10 +35,31 @@ public class TransactionalCacheManager {
     return getTransactionalCache(cache).getObject(key);
   }
 
+  /**
+   * Whether the cache was cleared in this transaction, so its content must not be used until commit.
+   */
+  public boolean isCleared(Cache cache) {
+    return getTransactionalCache(cache).isCleared();
+  }
+
   public void putObject(Cache cache, CacheKey key, Object value) {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  /**
+   * Puts a query result, recording the tables (tags) it was read from in the index of the cache.
+   */
+  public void putObject(Cache cache, CacheKey key, Object value, CacheTagIndex tagIndex, String[] tags) {
+    getTransactionalCache(cache).putObject(key, value, tagIndex, tags);
+  }
+
+  /**
+   * Invalidates on commit the entries depending on the given tables (tags), instead of clearing the cache.
+   */
+  public void invalidate(Cache cache, CacheTagIndex tagIndex, String[] tags) {
+    getTransactionalCache(cache).invalidate(tagIndex, tags);
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
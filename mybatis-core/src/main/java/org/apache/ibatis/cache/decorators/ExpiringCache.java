@@ -0,0 +1,222 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ConcurrentCache;
+
+/**
+ * Per-entry expiration cache decorator.
+ * <p>
+ * Unlike {@link ScheduledCache}, which clears the whole cache at once, each entry expires on its own: a given
+ * time after it was written, after it was last read, or both. An optional jitter shortens each time to live
+ * by a random fraction, so entries written together do not all expire together.
+ * <p>
+ * Expired entries are removed when they are read, and by a sweep that runs at most every half time to live
+ * on writes. With stale-while-revalidate, an expired entry is kept a while longer: the first reader misses and
+ * reloads it, the other readers get the stale value meanwhile instead of all querying the database. If the
+ * reload never makes it into the cache, the entry is dropped at the end of that time.
+ * <p>
+ * This decorator is thread-safe. The value and the expiry of a key are written and removed together, so a read
+ * that removes an expired entry cannot remove the value a concurrent write has just put.
+ */
+public class ExpiringCache implements ConcurrentCache {
+
+  private final Cache delegate;
+  private final Map<Object, Expiry> expiries = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep = new AtomicLong();
+  private volatile long expireAfterWrite;
+  private volatile long expireAfterAccess;
+  private volatile double jitter;
+  private volatile long staleWhileRevalidate;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Sets the time to live of an entry after it was written, in milliseconds. 0 (the default) means never.
+   */
+  public void setExpireAfterWrite(long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  /**
+   * Sets the time to live of an entry after it was last read or written, in milliseconds. 0 (the default)
+   * means never.
+   */
+  public void setExpireAfterAccess(long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+  }
+
+  /**
+   * Sets the maximum fraction, between 0 and 1, by which the time to live of each entry is randomly shortened.
+   */
+  public void setJitter(double jitter) {
+    this.jitter = Math.min(1, Math.max(0, jitter));
+  }
+
+  /**
+   * Sets how long an expired entry may still be served while it is reloaded, in milliseconds. 0 (the default)
+   * means expired entries are never served.
+   */
+  public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+    this.staleWhileRevalidate = staleWhileRevalidate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long now = System.currentTimeMillis();
+    sweepIfDue(now);
+    Expiry expiry = new Expiry(deadline(now, expireAfterWrite), deadline(now, expireAfterAccess));
+    expiries.compute(key, (k, previous) -> {
+      delegate.putObject(k, value);
+      return expiry;
+    });
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Expiry expiry = expiries.get(key);
+    if (expiry != null) {
+      long now = System.currentTimeMillis();
+      if (expiry.isExpired(now)) {
+        if (!expiry.isServableWhenStale(now, staleWhileRevalidate)) {
+          removeExpired(key, expiry);
+          return null;
+        }
+        // one caller reloads the entry, the others keep getting the stale value
+        return expiry.claimRefresh() ? null : delegate.getObject(key);
+      }
+      if (expiry.accessDeadline != Long.MAX_VALUE) {
+        expiry.accessDeadline = deadline(now, expireAfterAccess);
+      }
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object[] removed = new Object[1];
+    expiries.compute(key, (k, expiry) -> {
+      removed[0] = delegate.removeObject(k);
+      return null;
+    });
+    return removed[0];
+  }
+
+  @Override
+  public void clear() {
+    expiries.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private long deadline(long now, long timeToLive) {
+    if (timeToLive <= 0) {
+      return Long.MAX_VALUE;
+    }
+    double fraction = jitter;
+    long shortened = fraction > 0 ? (long) (timeToLive * fraction * ThreadLocalRandom.current().nextDouble()) : 0;
+    return now + timeToLive - shortened;
+  }
+
+  /**
+   * Removes the expired entries, including the ones the delegate already evicted. Only one thread sweeps at a time.
+   */
+  private void sweepIfDue(long now) {
+    long due = nextSweep.get();
+    if (now < due) {
+      return;
+    }
+    long timeToLive = Math.min(expireAfterWrite > 0 ? expireAfterWrite : Long.MAX_VALUE,
+        expireAfterAccess > 0 ? expireAfterAccess : Long.MAX_VALUE);
+    if (timeToLive == Long.MAX_VALUE || !nextSweep.compareAndSet(due, now + Math.max(1, timeToLive / 2))) {
+      return;
+    }
+    for (Map.Entry<Object, Expiry> entry : expiries.entrySet()) {
+      Expiry expiry = entry.getValue();
+      if (expiry.isExpired(now) && !expiry.isServableWhenStale(now, staleWhileRevalidate)) {
+        removeExpired(entry.getKey(), expiry);
+      }
+    }
+  }
+
+  /**
+   * Removes the entry unless it has been written again since its expiry was read.
+   */
+  private void removeExpired(Object key, Expiry expiry) {
+    expiries.computeIfPresent(key, (k, current) -> {
+      if (current != expiry) {
+        return current;
+      }
+      delegate.removeObject(k);
+      return null;
+    });
+  }
+
+  private static final class Expiry {
+    private static final AtomicIntegerFieldUpdater<Expiry> REFRESHING_UPDATER
+        = AtomicIntegerFieldUpdater.newUpdater(Expiry.class, "refreshing");
+
+    private final long writeDeadline;
+    private volatile long accessDeadline;
+    private volatile int refreshing;
+
+    Expiry(long writeDeadline, long accessDeadline) {
+      this.writeDeadline = writeDeadline;
+      this.accessDeadline = accessDeadline;
+    }
+
+    boolean isExpired(long now) {
+      return now >= writeDeadline || now >= accessDeadline;
+    }
+
+    boolean isServableWhenStale(long now, long staleWhileRevalidate) {
+      return staleWhileRevalidate > 0 && now < Math.min(writeDeadline, accessDeadline) + staleWhileRevalidate;
+    }
+
+    boolean claimRefresh() {
+      return REFRESHING_UPDATER.compareAndSet(this, 0, 1);
+    }
+  }
+
+}
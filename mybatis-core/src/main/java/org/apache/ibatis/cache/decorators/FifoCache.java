@@ -16,12 +16,16 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.weigher.Weigher;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * FIFO (first in, first out) cache decorator.
+ * <p>
+ * Bounded by entry count, or by total weight when a {@link Weigher} is set.
  *
  * @author Clinton Begin
  *
@@ -32,14 +36,16 @@ public class FifoCache implements Cache {
 
   private final Cache delegate;
   /**
-   * 缓存key，并且控制key的个数
+   * 缓存key及其权重，按插入顺序排列，并且控制key的总权重
    */
-  private final Deque<Object> keyList;
+  private final Map<Object, Integer> keyList;
+  private Weigher weigher;
   private int size;
+  private long totalWeight;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
-    this.keyList = new LinkedList<>();
+    this.keyList = new LinkedHashMap<>();
     this.size = 1024;
   }
 
@@ -53,14 +59,26 @@ public class FifoCache implements Cache {
     return delegate.getSize();
   }
 
+  /**
+   * Sets the maximum number of entries, or the maximum total weight if a {@link Weigher} is set.
+   */
   public void setSize(int size) {
     this.size = size;
+    evictOverweight();
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight;
   }
 
   @Override
   public void putObject(Object key, Object value) {
-    cycleKeyList(key);
     delegate.putObject(key, value);
+    cycleKeyList(key, weigher == null ? 1 : weigher.weigh(key, value));
   }
 
   @Override
@@ -70,6 +88,10 @@ public class FifoCache implements Cache {
 
   @Override
   public Object removeObject(Object key) {
+    Integer weight = keyList.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
     return delegate.removeObject(key);
   }
 
@@ -77,13 +99,22 @@ public class FifoCache implements Cache {
   public void clear() {
     delegate.clear();
     keyList.clear();
+    totalWeight = 0;
+  }
+
+  private void cycleKeyList(Object key, int weight) {
+    Integer previous = keyList.put(key, weight);
+    totalWeight += previous == null ? weight : weight - previous;
+    evictOverweight();
   }
 
-  private void cycleKeyList(Object key) {
-    keyList.addLast(key);
-    if (keyList.size() > size) {
-      Object oldestKey = keyList.removeFirst();
-      delegate.removeObject(oldestKey);
+  private void evictOverweight() {
+    Iterator<Map.Entry<Object, Integer>> oldest = keyList.entrySet().iterator();
+    while (totalWeight > size && oldest.hasNext()) {
+      Map.Entry<Object, Integer> entry = oldest.next();
+      oldest.remove();
+      totalWeight -= entry.getValue();
+      delegate.removeObject(entry.getKey());
     }
   }
 
@@ -16,23 +16,33 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.weigher.Weigher;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Lru (least recently used) cache decorator.
+ * <p>
+ * Bounded by entry count, or by total weight when a {@link Weigher} is set.
  *
  * @author Clinton Begin
  */
 public class LruCache implements Cache {
 
   private final Cache delegate;
-  private Map<Object, Object> keyMap;
-  private Object eldestKey;
+  /**
+   * 缓存key及其权重，按访问顺序排列
+   */
+  private final Map<Object, Integer> keyMap;
+  private Weigher weigher;
+  private int size;
+  private long totalWeight;
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
+    this.keyMap = new LinkedHashMap<>(16, .75F, true);
     setSize(1024);
   }
 
@@ -46,28 +56,26 @@ public class LruCache implements Cache {
     return delegate.getSize();
   }
 
+  /**
+   * Sets the maximum number of entries, or the maximum total weight if a {@link Weigher} is set.
+   */
   public void setSize(final int size) {
-    keyMap = new LinkedHashMap<Object, Object>(size, .75F, true) {
-      private static final long serialVersionUID = 4267176411845948333L;
-
-      @Override
-      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
-        boolean tooBig = size() > size;
-        if (tooBig) {
-          /**
-           * 缓存最老的key，被代理cache用来删除缓存
-           */
-          eldestKey = eldest.getKey();
-        }
-        return tooBig;
-      }
-    };
+    this.size = size;
+    evictOverweight();
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight;
   }
 
   @Override
   public void putObject(Object key, Object value) {
     delegate.putObject(key, value);
-    cycleKeyList(key);
+    cycleKeyList(key, weigher == null ? 1 : weigher.weigh(key, value));
   }
 
   @Override
@@ -81,6 +89,10 @@ public class LruCache implements Cache {
 
   @Override
   public Object removeObject(Object key) {
+    Integer weight = keyMap.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
     return delegate.removeObject(key);
   }
 
@@ -88,13 +100,25 @@ public class LruCache implements Cache {
   public void clear() {
     delegate.clear();
     keyMap.clear();
+    totalWeight = 0;
+  }
+
+  private void cycleKeyList(Object key, int weight) {
+    Integer previous = keyMap.put(key, weight);
+    totalWeight += previous == null ? weight : weight - previous;
+    evictOverweight();
   }
 
-  private void cycleKeyList(Object key) {
-    keyMap.put(key, key);
-    if (eldestKey != null) {
-      delegate.removeObject(eldestKey);
-      eldestKey = null;
+  /**
+   * 删除最老的key，直到总权重不超过上限
+   */
+  private void evictOverweight() {
+    Iterator<Map.Entry<Object, Integer>> eldest = keyMap.entrySet().iterator();
+    while (totalWeight > size && eldest.hasNext()) {
+      Map.Entry<Object, Integer> entry = eldest.next();
+      eldest.remove();
+      totalWeight -= entry.getValue();
+      delegate.removeObject(entry.getKey());
     }
   }
 
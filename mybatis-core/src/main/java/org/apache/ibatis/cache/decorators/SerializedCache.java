@@ -17,6 +17,7 @@ package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ConcurrentCache;
 import org.apache.ibatis.io.Resources;
 
 import java.io.*;
@@ -24,7 +25,7 @@ import java.io.*;
 /**
  * @author Clinton Begin
  */
-public class SerializedCache implements Cache {
+public class SerializedCache implements ConcurrentCache {
 
   private final Cache delegate;
 
@@ -0,0 +1,429 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.weigher.Weigher;
+
+/**
+ * W-TinyLFU cache decorator, safe for concurrent use without {@link SynchronizedCache}.
+ * <p>
+ * Entries live in a {@link ConcurrentHashMap} owned by this decorator, the delegate only provides the id.
+ * New entries go to a small LRU window (1% of the size), then compete for room in a segmented LRU
+ * (probation and protected) against its least recently used entry: whichever was used less often
+ * according to a {@link FrequencySketch} is evicted. Hits are recorded into lossy striped buffers and
+ * replayed on the policy in batches, so reads never wait for the eviction lock.
+ * <p>
+ * Bounded by entry count, or by total weight when a {@link Weigher} is set: the window and the protected
+ * segment then get their share of the total weight instead of the entry count.
+ */
+public class TinyLfuCache implements ConcurrentCache {
+
+  private static final int READ_BUFFER_SIZE = 16;
+  private static final int READ_BUFFER_STRIPES = Math.max(4, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+  private final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+
+  // guarded by evictionLock
+  private final AccessOrderDeque window = new AccessOrderDeque();
+  private final AccessOrderDeque probation = new AccessOrderDeque();
+  private final AccessOrderDeque protectedSegment = new AccessOrderDeque();
+  private final FrequencySketch sketch;
+  private long maximumSize;
+  private long windowMaximum;
+  private long protectedMaximum;
+  /**
+   * 按总权重限制时缓存项数目未知，频率统计的容量随缓存项数目增长
+   */
+  private int sketchCapacity;
+
+  private volatile Weigher weigher;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    this.sketch = new FrequencySketch(1024);
+    setSize(1024);
+  }
+
+  /**
+   * Sets the maximum number of entries, or the maximum total weight if a {@link Weigher} is set.
+   */
+  public void setSize(final int size) {
+    evictionLock.lock();
+    try {
+      maximumSize = Math.max(1, size);
+      windowMaximum = Math.max(1, maximumSize / 100);
+      protectedMaximum = (long) ((maximumSize - windowMaximum) * 0.8);
+      sketchCapacity = (int) (weigher == null ? maximumSize : Math.min(maximumSize, 1024));
+      sketch.ensureCapacity(sketchCapacity);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  /**
+   * 所有缓存项的总权重（没有设置权重计算器时就是缓存项数目）
+   */
+  public long getTotalWeight() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      return window.weight + probation.weight + protectedSegment.weight;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    final Weigher weigher = this.weigher;
+    final int weight = weigher == null ? 1 : weigher.weigh(key, value);
+    Node node = data.get(key);
+    if (node == null) {
+      Node added = new Node(key, value, weight);
+      node = data.putIfAbsent(key, added);
+      if (node == null) {
+        writeBuffer.add(() -> onAdd(added));
+        drainBuffers();
+        return;
+      }
+    }
+    node.value = value;
+    if (weigher == null) {
+      afterRead(node);
+    } else {
+      /**
+       * 权重可能变了，和新增一样要立即生效
+       */
+      final Node updated = node;
+      writeBuffer.add(() -> onUpdate(updated, weight));
+      drainBuffers();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    afterRead(node);
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    writeBuffer.add(() -> onRemove(node));
+    drainBuffers();
+    return node.value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      writeBuffer.clear();
+      data.clear();
+      window.clear();
+      probation.clear();
+      protectedSegment.clear();
+      delegate.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void afterRead(Node node) {
+    long threadId = Thread.currentThread().getId();
+    ReadBuffer buffer = readBuffers[(int) (threadId ^ (threadId >>> 16)) & (READ_BUFFER_STRIPES - 1)];
+    if (!buffer.offer(node) && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Writes must be applied promptly to keep the size bounded, so unlike reads they wait for the lock.
+   */
+  private void drainBuffers() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      Runnable task;
+      while ((task = writeBuffer.poll()) != null) {
+        task.run();
+      }
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void drainReadBuffers() {
+    for (ReadBuffer buffer : readBuffers) {
+      buffer.drainTo(this);
+    }
+  }
+
+  private void onAccess(Node node) {
+    if (node.queue == null) {
+      // removed, evicted or not added yet
+      return;
+    }
+    sketch.increment(node.key);
+    if (node.queue == window) {
+      window.moveToBack(node);
+    } else if (node.queue == probation) {
+      probation.remove(node);
+      protectedSegment.add(node);
+      while (protectedSegment.weight > protectedMaximum) {
+        Node demoted = protectedSegment.first();
+        protectedSegment.remove(demoted);
+        probation.add(demoted);
+      }
+    } else {
+      protectedSegment.moveToBack(node);
+    }
+  }
+
+  private void onAdd(Node node) {
+    if (data.get(node.key) != node) {
+      // removed before the add was applied
+      return;
+    }
+    if (node.weight > maximumSize) {
+      // would evict everything else and then itself
+      data.remove(node.key, node);
+      return;
+    }
+    if (data.size() > sketchCapacity && sketchCapacity < maximumSize) {
+      sketchCapacity = (int) Math.min(maximumSize, (long) sketchCapacity * 2);
+      sketch.ensureCapacity(sketchCapacity);
+    }
+    sketch.increment(node.key);
+    window.add(node);
+  }
+
+  private void onUpdate(Node node, int weight) {
+    if (node.queue != null) {
+      node.queue.weight += weight - node.weight;
+    }
+    node.weight = weight;
+    if (weight > maximumSize) {
+      onRemove(node);
+      data.remove(node.key, node);
+      return;
+    }
+    onAccess(node);
+  }
+
+  private void onRemove(Node node) {
+    if (node.queue != null) {
+      node.queue.remove(node);
+    }
+  }
+
+  private void evict() {
+    while (window.weight > windowMaximum) {
+      Node candidate = window.first();
+      window.remove(candidate);
+      probation.add(candidate);
+    }
+    while (window.weight + probation.weight + protectedSegment.weight > maximumSize) {
+      Node victim = probation.first();
+      Node candidate = probation.last();
+      if (victim == null) {
+        victim = protectedSegment.first() != null ? protectedSegment.first() : window.first();
+        candidate = victim;
+      }
+      Node evicted = victim == candidate || sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim : candidate;
+      evicted.queue.remove(evicted);
+      data.remove(evicted.key, evicted);
+    }
+  }
+
+  private static final class Node {
+    private final Object key;
+    private volatile Object value;
+    // guarded by evictionLock
+    private int weight;
+    private AccessOrderDeque queue;
+    private Node previous;
+    private Node next;
+
+    Node(Object key, Object value, int weight) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Doubly linked list in access order, least recently used first.
+   */
+  private static final class AccessOrderDeque {
+    private Node head;
+    private Node tail;
+    private long weight;
+
+    Node first() {
+      return head;
+    }
+
+    Node last() {
+      return tail;
+    }
+
+    void add(Node node) {
+      node.queue = this;
+      node.previous = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      weight += node.weight;
+    }
+
+    void remove(Node node) {
+      if (node.previous == null) {
+        head = node.next;
+      } else {
+        node.previous.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.previous;
+      } else {
+        node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+      node.queue = null;
+      weight -= node.weight;
+    }
+
+    void moveToBack(Node node) {
+      if (node != tail) {
+        remove(node);
+        add(node);
+      }
+    }
+
+    void clear() {
+      for (Node node = head; node != null; ) {
+        Node next = node.next;
+        node.previous = null;
+        node.next = null;
+        node.queue = null;
+        node = next;
+      }
+      head = null;
+      tail = null;
+      weight = 0;
+    }
+  }
+
+  /**
+   * Lossy ring buffer of hits, written by many threads and drained under the eviction lock.
+   * A hit is dropped when the buffer is full, which only makes the policy slightly less accurate.
+   */
+  private static final class ReadBuffer {
+    private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter;
+
+    /**
+     * @return False if the buffer is full and should be drained
+     */
+    boolean offer(Node node) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      if (tail - head >= READ_BUFFER_SIZE) {
+        return false;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        buffer.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+      }
+      return true;
+    }
+
+    void drainTo(TinyLfuCache cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) (head & (READ_BUFFER_SIZE - 1));
+        Node node = buffer.get(index);
+        if (node == null) {
+          // slot claimed but not published yet
+          break;
+        }
+        buffer.lazySet(index, null);
+        cache.onAccess(node);
+      }
+      readCounter = head;
+    }
+  }
+
+}
@@ -16,11 +16,15 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheTagIndex;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,6 +35,9 @@ import java.util.Set;
  * Entries are sent to the cache when commit is called or discarded if the Session is rolled back.
  * Blocking cache support has been added. Therefore any get() that returns a cache miss
  * will be followed by a put() so any lock associated with the key can be released.
+ * <p>
+ * When the cache has a {@link CacheTagIndex}, a write can invalidate only the entries tagged with the tables it
+ * affects, instead of clearing the cache on commit.
  *
  * @author Clinton Begin
  * @author Eduardo Macarron
@@ -43,12 +50,17 @@ public class TransactionalCache implements Cache {
   private boolean clearOnCommit;
   private final Map<Object, Object> entriesToAddOnCommit;
   private final Set<Object> entriesMissedInCache;
+  private CacheTagIndex tagIndex;
+  private final Map<Object, String[]> tagsOfEntriesToAdd;
+  private final Set<String> tagsToInvalidateOnCommit;
 
   public TransactionalCache(Cache delegate) {
     this.delegate = delegate;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<>();
     this.entriesMissedInCache = new HashSet<>();
+    this.tagsOfEntriesToAdd = new HashMap<>();
+    this.tagsToInvalidateOnCommit = new HashSet<>();
   }
 
   @Override
@@ -71,6 +83,8 @@ public class TransactionalCache implements Cache {
     // issue #146
     if (clearOnCommit) {
       return null;
+    } else if (object != null && !tagsToInvalidateOnCommit.isEmpty() && tagIndex.isAffected(key, tagsToInvalidateOnCommit)) {
+      return null;
     } else {
       return object;
     }
@@ -84,6 +98,15 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.put(key, object);
   }
 
+  /**
+   * 保存本transaction的缓存，并记录其依赖的表（标签）
+   */
+  public void putObject(Object key, Object object, CacheTagIndex tagIndex, String[] tags) {
+    this.tagIndex = tagIndex;
+    entriesToAddOnCommit.put(key, object);
+    tagsOfEntriesToAdd.put(key, tags);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return null;
@@ -96,6 +119,25 @@ public class TransactionalCache implements Cache {
      */
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
+    tagsOfEntriesToAdd.clear();
+  }
+
+  /**
+   * 标示需要在提交时删除依赖这些表（标签）的缓存，以及没有标签的缓存
+   */
+  public void invalidate(CacheTagIndex tagIndex, String[] tags) {
+    this.tagIndex = tagIndex;
+    tagsToInvalidateOnCommit.addAll(Arrays.asList(tags));
+    for (Iterator<Object> keys = entriesToAddOnCommit.keySet().iterator(); keys.hasNext(); ) {
+      String[] entryTags = tagsOfEntriesToAdd.get(keys.next());
+      if (entryTags == null || entryTags.length == 0 || containsAny(tags, entryTags)) {
+        keys.remove();
+      }
+    }
+  }
+
+  public boolean isCleared() {
+    return clearOnCommit;
   }
 
   public void commit() {
@@ -103,7 +145,19 @@ public class TransactionalCache implements Cache {
      * 是否需要清空缓存
      */
     if (clearOnCommit) {
-      delegate.clear();
+      clearDelegate();
+    } else if (!tagsToInvalidateOnCommit.isEmpty()) {
+      final List<Object> keys = tagIndex.invalidate(tagsToInvalidateOnCommit);
+      if (keys == null) {
+        /**
+         * 索引不完整，不知道哪些缓存受影响，全部清空
+         */
+        clearDelegate();
+      } else {
+        for (Object key : keys) {
+          delegate.removeObject(key);
+        }
+      }
     }
     /**
      * 提交本事务产生的缓存
@@ -112,6 +166,17 @@ public class TransactionalCache implements Cache {
     reset();
   }
 
+  /**
+   * The index is cleared first: an entry another session puts meanwhile is either cleared with the cache, or
+   * registered again.
+   */
+  private void clearDelegate() {
+    if (tagIndex != null) {
+      tagIndex.clear();
+    }
+    delegate.clear();
+  }
+
   /**
    * 丢弃本transaction的缓存
    */
@@ -124,11 +189,16 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tagsOfEntriesToAdd.clear();
+    tagsToInvalidateOnCommit.clear();
   }
 
   private void flushPendingEntries() {
     for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
       delegate.putObject(entry.getKey(), entry.getValue());
+      if (tagIndex != null) {
+        tagIndex.register(entry.getKey(), tagsOfEntriesToAdd.get(entry.getKey()));
+      }
     }
     for (Object entry : entriesMissedInCache) {
       if (!entriesToAddOnCommit.containsKey(entry)) {
@@ -137,6 +207,17 @@ public class TransactionalCache implements Cache {
     }
   }
 
+  private static boolean containsAny(String[] tags, String[] entryTags) {
+    for (String tag : tags) {
+      for (String entryTag : entryTags) {
+        if (tag.equals(entryTag)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   private void unlockMissedEntries() {
     for (Object entry : entriesMissedInCache) {
       try {
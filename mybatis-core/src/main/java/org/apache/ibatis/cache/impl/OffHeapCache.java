@@ -0,0 +1,312 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.serializer.CacheSerializer;
+import org.apache.ibatis.cache.serializer.CompactCacheSerializer;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Cache that keeps serialized values outside of the Java heap, so large caches do not add to GC pauses.
+ * <p>
+ * Values are appended to direct memory slabs, only keys and offsets stay on the heap. When the memory
+ * budget is exhausted, the oldest slab is recycled together with every entry it holds. Space taken by
+ * replaced or removed values is reclaimed the same way. Each read returns a new copy of the value,
+ * like a read/write cache. Values larger than a slab are not cached.
+ * <p>
+ * {@link #clear()} drops the slabs, their direct memory is released once the garbage collector collects them.
+ * It is not released explicitly because a concurrent read may still be copying from a slab, which keeps it
+ * reachable until the copy is done.
+ * <p>
+ * This cache is thread-safe: reads do not lock, writes are serialized.
+ */
+public class OffHeapCache implements Cache, InitializingObject {
+
+  private final String id;
+  private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  private long maxMemory = 64L * 1024 * 1024;
+  private int slabSize = 4 * 1024 * 1024;
+  private volatile CacheSerializer serializer = new CompactCacheSerializer();
+
+  // guarded by writeLock
+  private Slab[] slabs;
+  private int currentSlab;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  /**
+   * Sets the total size of the slabs in bytes. Defaults to 64MB.
+   */
+  public void setMaxMemory(long maxMemory) {
+    this.maxMemory = maxMemory;
+  }
+
+  /**
+   * Sets the size of a slab in bytes, that is the amount of memory recycled at once. Defaults to 4MB, and is
+   * lowered to half of the max memory if needed, as there are at least two slabs.
+   */
+  public void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
+  /**
+   * Sets the {@link CacheSerializer} implementation. Defaults to {@link CompactCacheSerializer}.
+   */
+  public void setSerializer(String serializerClassName) {
+    try {
+      this.serializer = (CacheSerializer) Resources.classForName(serializerClassName).getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating cache serializer '" + serializerClassName + "'.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public void initialize() {
+    if (slabSize <= 0 || maxMemory <= 0) {
+      throw new CacheException("Cache '" + id + "' requires a positive maxMemory and slabSize.");
+    }
+    /**
+     * 至少两个slab，也不能超出内存预算
+     */
+    if (slabSize > maxMemory / 2) {
+      if (maxMemory < 2) {
+        throw new CacheException("Cache '" + id + "' requires a maxMemory of at least two bytes.");
+      }
+      slabSize = (int) (maxMemory / 2);
+    }
+    writeLock.lock();
+    try {
+      clearSlabs();
+      slabs = new Slab[(int) Math.min(Integer.MAX_VALUE, maxMemory / slabSize)];
+      currentSlab = 0;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return entries.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    byte[] bytes = serializer.serialize(value);
+    writeLock.lock();
+    try {
+      if (bytes.length > slabSize) {
+        entries.remove(key);
+        return;
+      }
+      Slab slab = slabFor(bytes.length);
+      Entry entry = new Entry(key, slab, slab.generation, slab.position, bytes.length);
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(slab.position);
+      buffer.put(bytes);
+      slab.position += bytes.length;
+      slab.entries.add(entry);
+      entries.put(key, entry);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    byte[] bytes = entry.read();
+    if (bytes == null) {
+      // the slab was recycled meanwhile
+      entries.remove(key, entry);
+      return null;
+    }
+    return serializer.deserialize(bytes);
+  }
+
+  /**
+   * Removes the entry without reading it back, so this always returns null. The space it took is reclaimed
+   * when its slab is recycled.
+   */
+  @Override
+  public Object removeObject(Object key) {
+    entries.remove(key);
+    return null;
+  }
+
+  @Override
+  public void clear() {
+    writeLock.lock();
+    try {
+      entries.clear();
+      clearSlabs();
+      /**
+       * 不再引用这些slab，堆外内存随着回收ByteBuffer释放
+       */
+      if (slabs != null) {
+        slabs = new Slab[slabs.length];
+      }
+      currentSlab = 0;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  /**
+   * Finds room for a value, recycling the oldest slab if needed.
+   */
+  private Slab slabFor(int length) {
+    if (slabs == null) {
+      initialize();
+    }
+    Slab slab = slabs[currentSlab];
+    if (slab != null && slab.position + length <= slabSize) {
+      return slab;
+    }
+    if (slab != null) {
+      currentSlab = (currentSlab + 1) % slabs.length;
+      slab = slabs[currentSlab];
+    }
+    if (slab == null) {
+      slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+      slabs[currentSlab] = slab;
+    } else {
+      recycle(slab);
+    }
+    return slab;
+  }
+
+  private void recycle(Slab slab) {
+    for (Entry entry : slab.entries) {
+      entries.remove(entry.key, entry);
+    }
+    slab.reset();
+  }
+
+  private void clearSlabs() {
+    if (slabs != null) {
+      for (Slab slab : slabs) {
+        if (slab != null) {
+          slab.reset();
+        }
+      }
+    }
+  }
+
+  private static final class Slab {
+    private final ByteBuffer buffer;
+    /**
+     * Optimistic readers validate their copy against this lock, recycling takes it exclusively.
+     */
+    private final StampedLock lock = new StampedLock();
+    private volatile long generation;
+    // guarded by the cache write lock
+    private int position;
+    private List<Entry> entries = new ArrayList<>();
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void reset() {
+      long stamp = lock.writeLock();
+      try {
+        generation++;
+        position = 0;
+        entries = new ArrayList<>();
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final Object key;
+    private final Slab slab;
+    private final long generation;
+    private final int offset;
+    private final int length;
+
+    Entry(Object key, Slab slab, long generation, int offset, int length) {
+      this.key = key;
+      this.slab = slab;
+      this.generation = generation;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * @return a copy of the value bytes, or null if the slab has been recycled
+     */
+    byte[] read() {
+      long stamp = slab.lock.tryOptimisticRead();
+      if (stamp == 0 || slab.generation != generation) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(offset);
+      buffer.get(bytes);
+      return slab.lock.validate(stamp) ? bytes : null;
+    }
+  }
+
+}
@@ -0,0 +1,37 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+/**
+ * Converts cached values to bytes and back, for caches that store copies of the values.
+ * <p>
+ * Implementations must be thread-safe and have a public no-arg constructor.
+ */
+public interface CacheSerializer {
+
+  /**
+   * @param value The value to serialize, may be null
+   * @return the bytes
+   */
+  byte[] serialize(Object value);
+
+  /**
+   * @param bytes The bytes produced by {@link #serialize(Object)}
+   * @return a copy of the value
+   */
+  Object deserialize(byte[] bytes);
+
+}
@@ -0,0 +1,555 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * Compact binary serializer for the values usually found in a cache: JDBC values, lists, maps and
+ * serializable beans.
+ * <p>
+ * Values are written with a one byte tag and variable-length numbers. Beans are written field by field,
+ * like Java serialization, but without class descriptors, and shared or circular references are kept.
+ * As with Java serialization, only the fields declared by serializable classes are written: the fields of
+ * a non-serializable superclass get the values its constructor gives them. Unlike Java serialization, the
+ * no-arg constructor of the bean class itself is called, so it must not change the state of such a superclass.
+ * Values it cannot handle (classes with custom serialization methods, without a no-arg constructor,
+ * arrays, proxies...) fall back to {@link JavaCacheSerializer}.
+ * <p>
+ * The format depends on the field layout of the classes as seen by this JVM, so the bytes must not
+ * outlive it.
+ */
+public class CompactCacheSerializer implements CacheSerializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte SHORT = 5;
+  private static final byte BYTE = 6;
+  private static final byte TRUE = 7;
+  private static final byte FALSE = 8;
+  private static final byte DOUBLE = 9;
+  private static final byte FLOAT = 10;
+  private static final byte CHARACTER = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BIG_INTEGER = 13;
+  private static final byte DATE = 14;
+  private static final byte SQL_DATE = 15;
+  private static final byte SQL_TIME = 16;
+  private static final byte SQL_TIMESTAMP = 17;
+  private static final byte BYTES = 18;
+  private static final byte ENUM = 19;
+  private static final byte ARRAY_LIST = 20;
+  private static final byte LINKED_LIST = 21;
+  private static final byte HASH_MAP = 22;
+  private static final byte LINKED_HASH_MAP = 23;
+  private static final byte HASH_SET = 24;
+  private static final byte LINKED_HASH_SET = 25;
+  private static final byte BEAN = 26;
+  private static final byte JAVA = 27;
+
+  private static final Set<String> CUSTOM_SERIALIZATION_METHODS = new HashSet<>(
+      Arrays.asList("writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+  private static final BeanCodec NO_CODEC = new BeanCodec(null, new Field[0]);
+
+  private final JavaCacheSerializer fallback = new JavaCacheSerializer();
+  private final Map<Class<?>, BeanCodec> codecs = new ConcurrentHashMap<>();
+
+  @Override
+  public byte[] serialize(Object value) {
+    Output output = new Output();
+    try {
+      output.writeValue(value);
+    } catch (ReflectiveOperationException e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+    return output.toByteArray();
+  }
+
+  @Override
+  public Object deserialize(byte[] bytes) {
+    try {
+      return new Input(bytes).readValue();
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private BeanCodec codecFor(Class<?> type) {
+    BeanCodec codec = codecs.get(type);
+    if (codec == null) {
+      codec = createCodec(type);
+      codecs.put(type, codec);
+    }
+    return codec;
+  }
+
+  private static BeanCodec createCodec(Class<?> type) {
+    if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)
+        || type.isArray() || type.isEnum() || Proxy.isProxyClass(type) || !Reflector.canControlMemberAccessible()) {
+      return NO_CODEC;
+    }
+    List<Field> fields = new ArrayList<>();
+    try {
+      // the fields of non-serializable superclasses are not serialized
+      for (Class<?> current = type; current != null && Serializable.class.isAssignableFrom(current);
+          current = current.getSuperclass()) {
+        if (hasCustomSerialization(current)) {
+          return NO_CODEC;
+        }
+        Field[] declaredFields = current.getDeclaredFields();
+        Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+        for (Field field : declaredFields) {
+          int modifiers = field.getModifiers();
+          if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+            field.setAccessible(true);
+            fields.add(field);
+          }
+        }
+      }
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return new BeanCodec(constructor, fields.toArray(new Field[0]));
+    } catch (NoSuchMethodException | RuntimeException e) {
+      // no no-arg constructor, or members not accessible (e.g. classes of a module that is not open)
+      return NO_CODEC;
+    }
+  }
+
+  private static boolean hasCustomSerialization(Class<?> type) {
+    for (Method method : type.getDeclaredMethods()) {
+      if (CUSTOM_SERIALIZATION_METHODS.contains(method.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class BeanCodec {
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+
+    BeanCodec(Constructor<?> constructor, Field[] fields) {
+      this.constructor = constructor;
+      this.fields = fields;
+    }
+  }
+
+  private final class Output {
+    private byte[] buffer = new byte[256];
+    private int position;
+    private final Map<Object, Integer> references = new IdentityHashMap<>();
+    private final Map<Class<?>, Integer> classes = new HashMap<>();
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+
+    void writeValue(Object value) throws ReflectiveOperationException {
+      if (value == null) {
+        writeByte(NULL);
+      } else if (value instanceof String) {
+        writeByte(STRING);
+        writeString((String) value);
+      } else if (value instanceof Integer) {
+        writeByte(INTEGER);
+        writeVarLong(zigZag((Integer) value));
+      } else if (value instanceof Long) {
+        writeByte(LONG);
+        writeVarLong(zigZag((Long) value));
+      } else if (value instanceof Boolean) {
+        writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Double) {
+        writeByte(DOUBLE);
+        writeFixedLong(Double.doubleToRawLongBits((Double) value));
+      } else if (value instanceof Float) {
+        writeByte(FLOAT);
+        writeVarLong(Float.floatToRawIntBits((Float) value) & 0xffffffffL);
+      } else if (value instanceof Short) {
+        writeByte(SHORT);
+        writeVarLong(zigZag((Short) value));
+      } else if (value instanceof Byte) {
+        writeByte(BYTE);
+        writeByte((Byte) value);
+      } else if (value instanceof Character) {
+        writeByte(CHARACTER);
+        writeVarLong((Character) value);
+      } else if (value instanceof BigDecimal) {
+        writeByte(BIG_DECIMAL);
+        writeVarLong(zigZag(((BigDecimal) value).scale()));
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+      } else if (value instanceof BigInteger) {
+        writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (value.getClass() == java.sql.Timestamp.class) {
+        writeByte(SQL_TIMESTAMP);
+        writeVarLong(zigZag(((java.sql.Timestamp) value).getTime()));
+        writeVarLong(((java.sql.Timestamp) value).getNanos());
+      } else if (value.getClass() == java.sql.Date.class) {
+        writeByte(SQL_DATE);
+        writeVarLong(zigZag(((Date) value).getTime()));
+      } else if (value.getClass() == java.sql.Time.class) {
+        writeByte(SQL_TIME);
+        writeVarLong(zigZag(((Date) value).getTime()));
+      } else if (value.getClass() == Date.class) {
+        writeByte(DATE);
+        writeVarLong(zigZag(((Date) value).getTime()));
+      } else if (value instanceof byte[]) {
+        writeByte(BYTES);
+        writeBytes((byte[]) value);
+      } else if (value instanceof Enum) {
+        writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else {
+        writeReferenceType(value);
+      }
+    }
+
+    private void writeReferenceType(Object value) throws ReflectiveOperationException {
+      Integer reference = references.get(value);
+      if (reference != null) {
+        writeByte(REFERENCE);
+        writeVarLong(reference);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == ArrayList.class || type == LinkedList.class
+          || type == HashSet.class || type == LinkedHashSet.class) {
+        writeByte(type == ArrayList.class ? ARRAY_LIST : type == LinkedList.class ? LINKED_LIST
+            : type == HashSet.class ? HASH_SET : LINKED_HASH_SET);
+        references.put(value, references.size());
+        Collection<?> collection = (Collection<?>) value;
+        writeVarLong(collection.size());
+        for (Object element : collection) {
+          writeValue(element);
+        }
+      } else if (type == HashMap.class || type == LinkedHashMap.class) {
+        writeByte(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+        references.put(value, references.size());
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeVarLong(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(entry.getKey());
+          writeValue(entry.getValue());
+        }
+      } else {
+        BeanCodec codec = codecFor(type);
+        if (codec == NO_CODEC) {
+          writeByte(JAVA);
+          writeBytes(fallback.serialize(value));
+          references.put(value, references.size());
+          return;
+        }
+        writeByte(BEAN);
+        writeClass(type);
+        references.put(value, references.size());
+        for (Field field : codec.fields) {
+          writeField(field, value);
+        }
+      }
+    }
+
+    private void writeField(Field field, Object bean) throws ReflectiveOperationException {
+      Class<?> type = field.getType();
+      if (type == int.class) {
+        writeVarLong(zigZag(field.getInt(bean)));
+      } else if (type == long.class) {
+        writeVarLong(zigZag(field.getLong(bean)));
+      } else if (type == boolean.class) {
+        writeByte(field.getBoolean(bean) ? 1 : 0);
+      } else if (type == double.class) {
+        writeFixedLong(Double.doubleToRawLongBits(field.getDouble(bean)));
+      } else if (type == float.class) {
+        writeVarLong(Float.floatToRawIntBits(field.getFloat(bean)) & 0xffffffffL);
+      } else if (type == short.class) {
+        writeVarLong(zigZag(field.getShort(bean)));
+      } else if (type == byte.class) {
+        writeByte(field.getByte(bean));
+      } else if (type == char.class) {
+        writeVarLong(field.getChar(bean));
+      } else {
+        writeValue(field.get(bean));
+      }
+    }
+
+    private void writeClass(Class<?> type) {
+      Integer id = classes.get(type);
+      if (id != null) {
+        writeVarLong(id + 1L);
+      } else {
+        writeVarLong(0);
+        writeString(type.getName());
+        classes.put(type, classes.size());
+      }
+    }
+
+    private void writeString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeBytes(bytes);
+    }
+
+    private void writeBytes(byte[] bytes) {
+      writeVarLong(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    private void writeFixedLong(long value) {
+      ensureCapacity(8);
+      for (int i = 0; i < 8; i++) {
+        buffer[position++] = (byte) (value >>> (i << 3));
+      }
+    }
+
+    private void writeVarLong(long value) {
+      ensureCapacity(10);
+      long remaining = value;
+      while ((remaining & ~0x7fL) != 0) {
+        buffer[position++] = (byte) ((remaining & 0x7f) | 0x80);
+        remaining >>>= 7;
+      }
+      buffer[position++] = (byte) remaining;
+    }
+
+    private void ensureCapacity(int length) {
+      if (position + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + length));
+      }
+    }
+  }
+
+  private final class Input {
+    private final byte[] buffer;
+    private int position;
+    private final List<Object> references = new ArrayList<>();
+    private final List<Class<?>> classes = new ArrayList<>();
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object readValue() throws ReflectiveOperationException {
+      byte tag = buffer[position++];
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return references.get((int) readVarLong());
+        case STRING:
+          return readString();
+        case INTEGER:
+          return (int) unZigZag(readVarLong());
+        case LONG:
+          return unZigZag(readVarLong());
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case DOUBLE:
+          return Double.longBitsToDouble(readFixedLong());
+        case FLOAT:
+          return Float.intBitsToFloat((int) readVarLong());
+        case SHORT:
+          return (short) unZigZag(readVarLong());
+        case BYTE:
+          return buffer[position++];
+        case CHARACTER:
+          return (char) readVarLong();
+        case BIG_DECIMAL: {
+          int scale = (int) unZigZag(readVarLong());
+          return new BigDecimal(new BigInteger(readBytes()), scale);
+        }
+        case BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case SQL_TIMESTAMP: {
+          java.sql.Timestamp timestamp = new java.sql.Timestamp(unZigZag(readVarLong()));
+          timestamp.setNanos((int) readVarLong());
+          return timestamp;
+        }
+        case SQL_DATE:
+          return new java.sql.Date(unZigZag(readVarLong()));
+        case SQL_TIME:
+          return new java.sql.Time(unZigZag(readVarLong()));
+        case DATE:
+          return new Date(unZigZag(readVarLong()));
+        case BYTES:
+          return readBytes();
+        case ENUM: {
+          Class enumType = readClass();
+          return Enum.valueOf(enumType, readString());
+        }
+        case ARRAY_LIST:
+        case LINKED_LIST:
+        case HASH_SET:
+        case LINKED_HASH_SET: {
+          int size = (int) readVarLong();
+          Collection<Object> collection = tag == ARRAY_LIST ? new ArrayList<>(size) : tag == LINKED_LIST ? new LinkedList<>()
+              : tag == HASH_SET ? new HashSet<>(capacityFor(size)) : new LinkedHashSet<>(capacityFor(size));
+          references.add(collection);
+          for (int i = 0; i < size; i++) {
+            collection.add(readValue());
+          }
+          return collection;
+        }
+        case HASH_MAP:
+        case LINKED_HASH_MAP: {
+          int size = (int) readVarLong();
+          Map<Object, Object> map = tag == HASH_MAP ? new HashMap<>(capacityFor(size)) : new LinkedHashMap<>(capacityFor(size));
+          references.add(map);
+          for (int i = 0; i < size; i++) {
+            Object key = readValue();
+            map.put(key, readValue());
+          }
+          return map;
+        }
+        case BEAN: {
+          BeanCodec codec = codecFor(readClass());
+          Object bean = codec.constructor.newInstance();
+          references.add(bean);
+          for (Field field : codec.fields) {
+            readField(field, bean);
+          }
+          return bean;
+        }
+        case JAVA: {
+          Object value = fallback.deserialize(readBytes());
+          references.add(value);
+          return value;
+        }
+        default:
+          throw new CacheException("Unknown tag " + tag + " in serialized cache value.");
+      }
+    }
+
+    private void readField(Field field, Object bean) throws ReflectiveOperationException {
+      Class<?> type = field.getType();
+      if (type == int.class) {
+        field.setInt(bean, (int) unZigZag(readVarLong()));
+      } else if (type == long.class) {
+        field.setLong(bean, unZigZag(readVarLong()));
+      } else if (type == boolean.class) {
+        field.setBoolean(bean, buffer[position++] != 0);
+      } else if (type == double.class) {
+        field.setDouble(bean, Double.longBitsToDouble(readFixedLong()));
+      } else if (type == float.class) {
+        field.setFloat(bean, Float.intBitsToFloat((int) readVarLong()));
+      } else if (type == short.class) {
+        field.setShort(bean, (short) unZigZag(readVarLong()));
+      } else if (type == byte.class) {
+        field.setByte(bean, buffer[position++]);
+      } else if (type == char.class) {
+        field.setChar(bean, (char) readVarLong());
+      } else {
+        field.set(bean, readValue());
+      }
+    }
+
+    private Class<?> readClass() throws ClassNotFoundException {
+      int id = (int) readVarLong();
+      if (id > 0) {
+        return classes.get(id - 1);
+      }
+      Class<?> type = Resources.classForName(readString());
+      classes.add(type);
+      return type;
+    }
+
+    private String readString() {
+      int length = (int) readVarLong();
+      String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    private byte[] readBytes() {
+      int length = (int) readVarLong();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    private long readFixedLong() {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value |= (buffer[position++] & 0xffL) << (i << 3);
+      }
+      return value;
+    }
+
+    private long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer[position++];
+        value |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int capacityFor(int size) {
+    return Math.max((int) (size / .75f) + 1, 16);
+  }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.weigher;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Weighs an entry by an estimate of its heap size in bytes, assuming a 64-bit JVM with compressed references.
+ * <p>
+ * Only the first rows of a collection are measured and the result is extrapolated, as rows of a query result
+ * are usually alike. Nested objects are measured up to a few levels deep, shared objects may be counted
+ * more than once.
+ */
+public class EstimatedSizeWeigher implements Weigher {
+
+  private static final int SAMPLED_ELEMENTS = 16;
+  private static final int MAX_DEPTH = 4;
+  private static final int OBJECT_HEADER = 12;
+  private static final int REFERENCE = 4;
+
+  private final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+
+  @Override
+  public int weigh(Object key, Object value) {
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(1, estimate(value, 0)));
+  }
+
+  private long estimate(Object value, int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      return align(OBJECT_HEADER + 2 * REFERENCE + 4) + align(16 + ((String) value).length() * 2L);
+    } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      if (value instanceof BigDecimal) {
+        return 40 + align(16 + ((BigDecimal) value).unscaledValue().bitLength() / 8);
+      } else if (value instanceof BigInteger) {
+        return 40 + align(16 + ((BigInteger) value).bitLength() / 8);
+      }
+      return 16;
+    } else if (value instanceof Date) {
+      return 24;
+    } else if (value instanceof byte[]) {
+      return align(16 + ((byte[]) value).length);
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      // backing array or nodes
+      return 40 + collection.size() * 8L + estimateElements(collection.iterator(), collection.size(), depth);
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      return 48 + map.size() * 40L
+          + estimateElements(map.keySet().iterator(), map.size(), depth)
+          + estimateElements(map.values().iterator(), map.size(), depth);
+    } else if (value.getClass().isArray()) {
+      return 16 + 8L * java.lang.reflect.Array.getLength(value);
+    }
+    ClassLayout layout = layouts.computeIfAbsent(value.getClass(), ClassLayout::new);
+    long size = layout.shallowSize;
+    if (depth < MAX_DEPTH) {
+      for (Field field : layout.references) {
+        try {
+          size += estimate(field.get(value), depth + 1);
+        } catch (IllegalAccessException e) {
+          // ignore, keep the shallow size
+        }
+      }
+    }
+    return size;
+  }
+
+  private long estimateElements(Iterator<?> elements, int size, int depth) {
+    if (depth >= MAX_DEPTH || size == 0) {
+      return 0;
+    }
+    long sampled = 0;
+    int count = 0;
+    while (count < SAMPLED_ELEMENTS && elements.hasNext()) {
+      sampled += estimate(elements.next(), depth + 1);
+      count++;
+    }
+    return count == 0 ? 0 : sampled * size / count;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static final class ClassLayout {
+    private final long shallowSize;
+    private final Field[] references;
+
+    ClassLayout(Class<?> type) {
+      long size = OBJECT_HEADER;
+      List<Field> fields = new ArrayList<>();
+      for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          Class<?> fieldType = field.getType();
+          if (!fieldType.isPrimitive()) {
+            size += REFERENCE;
+            if (trySetAccessible(field)) {
+              fields.add(field);
+            }
+          } else if (fieldType == long.class || fieldType == double.class) {
+            size += 8;
+          } else if (fieldType == int.class || fieldType == float.class) {
+            size += 4;
+          } else if (fieldType == short.class || fieldType == char.class) {
+            size += 2;
+          } else {
+            size += 1;
+          }
+        }
+      }
+      this.shallowSize = align(size);
+      this.references = fields.toArray(new Field[0]);
+    }
+
+    private static boolean trySetAccessible(Field field) {
+      try {
+        field.setAccessible(true);
+        return true;
+      } catch (RuntimeException e) {
+        // e.g. classes of a module that is not open
+        return false;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,36 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.weigher;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Weighs a query result by its number of rows. Other values weigh 1.
+ */
+public class RowCountWeigher implements Weigher {
+
+  @Override
+  public int weigh(Object key, Object value) {
+    if (value instanceof Collection) {
+      return Math.max(1, ((Collection<?>) value).size());
+    } else if (value instanceof Map) {
+      return Math.max(1, ((Map<?, ?>) value).size());
+    }
+    return 1;
+  }
+
+}
@@ -0,0 +1,296 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free holder of the connections of a {@link PooledDataSource} running in concurrent bag mode.
+ * <p>
+ * Every {@link PooledConnection} carries a CAS based checkout state, so the same connection may be
+ * referenced from the shared idle queue, the thread-local affinity slot of the thread that returned it
+ * and the handoff queue at once: whoever moves it from {@link PooledConnection#STATE_NOT_IN_USE} to
+ * {@link PooledConnection#STATE_IN_USE} first owns it, the others simply drop the stale reference.
+ */
+class ConcurrentBag {
+
+  /**
+   * Idle connections in return order. May contain stale entries that were borrowed by other means.
+   */
+  private final ConcurrentLinkedDeque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+  /**
+   * Checked out connections, only scanned on the slow path to claim overdue ones.
+   */
+  private final Set<PooledConnection> activeConnections = ConcurrentHashMap.newKeySet();
+  /**
+   * The connection last returned by the current thread.
+   */
+  private final ThreadLocal<WeakReference<PooledConnection>> lastReturned = new ThreadLocal<>();
+  /**
+   * Direct handoff from returning threads to waiting threads.
+   */
+  private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<>(true);
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  /**
+   * Number of open connections, idle or checked out.
+   */
+  private final AtomicInteger totalCount = new AtomicInteger();
+
+  /**
+   * Borrows an idle connection, preferring the one last returned by the current thread.
+   *
+   * @return the connection, already marked as in use, or null if none is idle
+   */
+  PooledConnection borrow() {
+    WeakReference<PooledConnection> reference = lastReturned.get();
+    if (reference != null) {
+      lastReturned.remove();
+      PooledConnection conn = reference.get();
+      if (conn != null && conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+        // keep the shared queue bounded, the entry left there is stale now
+        idleConnections.removeFirstOccurrence(conn);
+        return checkout(conn);
+      }
+    }
+    PooledConnection conn;
+    while ((conn = idleConnections.pollFirst()) != null) {
+      if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+        return checkout(conn);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits for a connection handed off by a returning thread.
+   *
+   * @param timeout the time to wait in milliseconds
+   * @return the connection, already marked as in use, or null if the wait timed out
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   */
+  PooledConnection await(long timeout) throws InterruptedException {
+    waiters.incrementAndGet();
+    try {
+      // a connection may have been returned between the failed borrow and the registration as waiter
+      PooledConnection conn = borrow();
+      if (conn != null) {
+        return conn;
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+      while (remaining > 0) {
+        conn = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (conn != null && conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+          idleConnections.removeFirstOccurrence(conn);
+          return checkout(conn);
+        }
+        remaining = deadline - System.nanoTime();
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * Reserves room for a new connection if the number of open connections is below the limit.
+   *
+   * @param maximumConnections the limit
+   * @return True if the caller may open a new connection and must then call {@link #add(PooledConnection)}
+   *         or {@link #release()}
+   */
+  boolean reserve(int maximumConnections) {
+    for (;;) {
+      int total = totalCount.get();
+      if (total >= maximumConnections) {
+        return false;
+      }
+      if (totalCount.compareAndSet(total, total + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Registers a newly opened or reclaimed connection as checked out.
+   */
+  void add(PooledConnection conn) {
+    conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE);
+    conn.setCheckoutTimestamp(System.currentTimeMillis());
+    activeConnections.add(conn);
+  }
+
+  /**
+   * Gives back the room of a connection that could not be opened, or that was closed or discarded.
+   */
+  void release() {
+    totalCount.decrementAndGet();
+  }
+
+  /**
+   * Takes a checked out connection away from the active set. The caller then either puts the physical
+   * connection back through {@link #requite(PooledConnection)} or closes it and calls {@link #release()}.
+   *
+   * @return True if this call checked it in, false on a stale or repeated return, or if it was claimed meanwhile
+   */
+  boolean checkin(PooledConnection conn) {
+    if (conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)) {
+      activeConnections.remove(conn);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Takes a checked out connection away from the pool for good.
+   *
+   * @return True if this call removed it
+   */
+  boolean remove(PooledConnection conn) {
+    if (checkin(conn)) {
+      release();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Claims a checked out connection that exceeded the maximum checkout time. The caller must register the
+   * rewrapped connection through {@link #add(PooledConnection)}.
+   *
+   * @param maximumCheckoutTime the maximum checkout time in milliseconds
+   * @return the overdue connection, already marked as removed, or null if none is overdue
+   */
+  PooledConnection claimOverdue(long maximumCheckoutTime) {
+    PooledConnection oldest = null;
+    for (PooledConnection conn : activeConnections) {
+      if (conn.getCheckoutTime() > maximumCheckoutTime
+          && (oldest == null || conn.getCheckoutTimestamp() < oldest.getCheckoutTimestamp())) {
+        oldest = conn;
+      }
+    }
+    if (oldest != null && checkin(oldest)) {
+      return oldest;
+    }
+    return null;
+  }
+
+  /**
+   * Puts a connection back, either handing it to a waiting thread or queueing it as idle.
+   */
+  void requite(PooledConnection conn) {
+    lastReturned.set(new WeakReference<>(conn));
+    idleCount.incrementAndGet();
+    idleConnections.offerLast(conn);
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (conn.getState() != PooledConnection.STATE_NOT_IN_USE || handoffQueue.offer(conn)) {
+        return;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Takes a copy of the idle connections.
+   */
+  List<PooledConnection> getIdleConnections() {
+    List<PooledConnection> idle = new ArrayList<>();
+    for (PooledConnection conn : idleConnections) {
+      if (conn.getState() == PooledConnection.STATE_NOT_IN_USE) {
+        idle.add(conn);
+      }
+    }
+    return idle;
+  }
+
+  /**
+   * Takes an idle connection out of the bag, for instance to validate it in the background.
+   *
+   * @return True if it was still idle
+   */
+  boolean claimIdle(PooledConnection conn) {
+    if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+      idleCount.decrementAndGet();
+      idleConnections.removeFirstOccurrence(conn);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Puts back a connection taken by {@link #claimIdle(PooledConnection)}.
+   */
+  void unclaim(PooledConnection conn) {
+    if (conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_NOT_IN_USE)) {
+      requite(conn);
+    } else {
+      release();
+    }
+  }
+
+  /**
+   * Removes every connection from the bag.
+   *
+   * @return the connections that were idle or checked out
+   */
+  List<PooledConnection> drain() {
+    List<PooledConnection> drained = new ArrayList<>();
+    for (PooledConnection conn : activeConnections) {
+      if (remove(conn)) {
+        drained.add(conn);
+      }
+    }
+    PooledConnection conn;
+    while ((conn = idleConnections.pollFirst()) != null) {
+      if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_REMOVED)) {
+        idleCount.decrementAndGet();
+        release();
+        drained.add(conn);
+      }
+    }
+    return drained;
+  }
+
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  int getActiveCount() {
+    return activeConnections.size();
+  }
+
+  private PooledConnection checkout(PooledConnection conn) {
+    idleCount.decrementAndGet();
+    // must be set before it becomes visible to claimOverdue
+    conn.setCheckoutTimestamp(System.currentTimeMillis());
+    activeConnections.add(conn);
+    return conn;
+  }
+
+}
@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Background thread of a {@link PooledDataSource} that keeps connection setup and ping round-trips
+ * off the checkout path: it retires idle connections past their maximum lifetime, pings idle
+ * connections before a checkout would have to, and opens idle connections up to the configured minimum.
+ * <p>
+ * The thread only holds the data source weakly, so that a data source nobody uses anymore can still be collected;
+ * the thread stops once it is.
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private final WeakReference<PooledDataSource> dataSource;
+
+  private volatile ScheduledExecutorService scheduler;
+
+  PoolHousekeeper(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<>(dataSource);
+  }
+
+  /**
+   * Starts the housekeeping thread, unless it is already running.
+   */
+  void start() {
+    if (scheduler != null) {
+      return;
+    }
+    synchronized (this) {
+      final PooledDataSource dataSource = this.dataSource.get();
+      if (scheduler == null && dataSource != null) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "PooledDataSource-housekeeper");
+          thread.setDaemon(true);
+          return thread;
+        });
+        executor.scheduleWithFixedDelay(this, 0, dataSource.poolHousekeepingInterval, TimeUnit.MILLISECONDS);
+        scheduler = executor;
+      }
+    }
+  }
+
+  /**
+   * Stops the housekeeping thread. It is started again when the pool is configured, or by the next checkout.
+   */
+  synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    final PooledDataSource dataSource = this.dataSource.get();
+    if (dataSource == null) {
+      stop();
+      return;
+    }
+    try {
+      retireAndValidate(dataSource);
+      fillIdle(dataSource);
+    } catch (RuntimeException e) {
+      // never let an exception cancel the next runs
+      log.warn("PooledDataSource housekeeping failed: " + e.getMessage());
+    }
+  }
+
+  private void retireAndValidate(PooledDataSource dataSource) {
+    int connectionTypeCode = dataSource.getExpectedConnectionTypeCode();
+    for (PooledConnection conn : dataSource.getIdleConnections()) {
+      boolean expired = dataSource.isExpired(conn);
+      // ping before the connection would be pinged at checkout, that is before the next run is too late
+      boolean validate = dataSource.poolPingEnabled && dataSource.poolPingConnectionsNotUsedFor >= 0
+          && conn.getTimeElapsedSinceLastUse() + dataSource.poolHousekeepingInterval > dataSource.poolPingConnectionsNotUsedFor;
+      if ((expired || validate) && dataSource.claimIdleConnection(conn)) {
+        if (expired) {
+          if (log.isDebugEnabled()) {
+            log.debug("Retiring connection " + conn.getRealHashCode() + " after " + conn.getAge() + " milliseconds.");
+          }
+          dataSource.discardIdleConnection(conn);
+        } else if (dataSource.validateIdleConnection(conn)) {
+          dataSource.returnIdleConnection(conn, connectionTypeCode);
+        } else {
+          dataSource.discardIdleConnection(conn);
+        }
+      }
+    }
+  }
+
+  private void fillIdle(PooledDataSource dataSource) {
+    try {
+      while (dataSource.addIdleConnection()) {
+        // keep opening until the minimum is reached or the pool is full
+      }
+    } catch (SQLException e) {
+      log.warn("PooledDataSource could not open an idle connection: " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Receives the events of a {@link PooledDataSource}, for instance to export them to a metrics registry.
+ * <p>
+ * Methods are called on the request threads, outside of the pool lock, and must therefore be fast and thread-safe.
+ * All times are in milliseconds. The aggregated values are also available from {@link PoolState}.
+ */
+public interface PoolMetricsListener {
+
+  /**
+   * A connection was handed to a request.
+   *
+   * @param requestTime the time the request took, including waits
+   */
+  default void connectionRequested(long requestTime) {
+  }
+
+  /**
+   * A request had to wait for a connection to be returned.
+   *
+   * @param waitTime the time the request waited
+   */
+  default void connectionWaited(long waitTime) {
+  }
+
+  /**
+   * A checked out connection was returned to the pool.
+   *
+   * @param checkoutTime the time the connection was checked out
+   */
+  default void connectionReturned(long checkoutTime) {
+  }
+
+  /**
+   * A connection checked out for too long was claimed for another request.
+   *
+   * @param checkoutTime the time the connection was checked out
+   */
+  default void overdueConnectionClaimed(long checkoutTime) {
+  }
+
+  /**
+   * A connection turned out to be unusable and was discarded.
+   */
+  default void badConnectionDetected() {
+  }
+
+  /**
+   * A statement was found in the statement cache of a connection.
+   */
+  default void statementCacheHit() {
+  }
+
+  /**
+   * A statement was not found in the statement cache of a connection and had to be prepared.
+   */
+  default void statementCacheMissed() {
+  }
+
+  /**
+   * A statement was closed to make room in the statement cache of a connection.
+   */
+  default void statementCacheEvicted() {
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2018 the original author or authors.
+ *    Copyright 2009-2019 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -17,6 +17,8 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * @author Clinton Begin
@@ -68,55 +70,217 @@ public class PoolState {
    * 坏的连接数
    */
   protected long badConnectionCount = 0;
+  /**
+   * 连接池自己的计数不加锁，记在下面的累加器里；上面的字段留给子类，getter返回两者之和
+   */
+  private final LongAdder requestCountAdder = new LongAdder();
+  private final LongAdder accumulatedRequestTimeAdder = new LongAdder();
+  private final LongAdder accumulatedCheckoutTimeAdder = new LongAdder();
+  private final LongAdder claimedOverdueConnectionCountAdder = new LongAdder();
+  private final LongAdder accumulatedCheckoutTimeOfOverdueConnectionsAdder = new LongAdder();
+  private final LongAdder accumulatedWaitTimeAdder = new LongAdder();
+  private final LongAdder hadToWaitCountAdder = new LongAdder();
+  private final LongAdder badConnectionCountAdder = new LongAdder();
+  /**
+   * 语句缓存命中、未命中、淘汰的次数
+   */
+  private final LongAdder statementCacheHitCount = new LongAdder();
+  private final LongAdder statementCacheMissCount = new LongAdder();
+  private final LongAdder statementCacheEvictionCount = new LongAdder();
+  /**
+   * 等待时间的分布
+   */
+  protected final WaitTimeHistogram waitTimeHistogram = new WaitTimeHistogram();
+
+  private volatile PoolMetricsListener metricsListener;
+  /**
+   * 持有池锁时产生的事件，释放锁之后再通知监听器
+   */
+  private static final ThreadLocal<List<Runnable>> deferredEvents = ThreadLocal.withInitial(ArrayList::new);
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  void recordRequest(long requestTime) {
+    requestCountAdder.increment();
+    accumulatedRequestTimeAdder.add(requestTime);
+    notifyListener(listener -> listener.connectionRequested(requestTime));
+  }
+
+  void recordCheckout(long checkoutTime) {
+    accumulatedCheckoutTimeAdder.add(checkoutTime);
+    notifyListener(listener -> listener.connectionReturned(checkoutTime));
+  }
+
+  void recordClaimedOverdue(long checkoutTime) {
+    claimedOverdueConnectionCountAdder.increment();
+    accumulatedCheckoutTimeOfOverdueConnectionsAdder.add(checkoutTime);
+    accumulatedCheckoutTimeAdder.add(checkoutTime);
+    notifyListener(listener -> listener.overdueConnectionClaimed(checkoutTime));
+  }
+
+  void recordHadToWait() {
+    hadToWaitCountAdder.increment();
+  }
+
+  void recordWait(long waitTime) {
+    accumulatedWaitTimeAdder.add(waitTime);
+    waitTimeHistogram.record(waitTime);
+    notifyListener(listener -> listener.connectionWaited(waitTime));
+  }
+
+  void recordBadConnection() {
+    badConnectionCountAdder.increment();
+    notifyListener(PoolMetricsListener::badConnectionDetected);
+  }
+
+  void recordStatementCacheHit() {
+    statementCacheHitCount.increment();
+    notifyListener(PoolMetricsListener::statementCacheHit);
+  }
+
+  void recordStatementCacheMiss() {
+    statementCacheMissCount.increment();
+    notifyListener(PoolMetricsListener::statementCacheMissed);
+  }
+
+  void recordStatementCacheEviction() {
+    statementCacheEvictionCount.increment();
+    notifyListener(PoolMetricsListener::statementCacheEvicted);
+  }
+
+  /**
+   * Notifies the listener right away, or once the pool lock is released if the current thread holds it.
+   */
+  private void notifyListener(Consumer<PoolMetricsListener> event) {
+    PoolMetricsListener listener = metricsListener;
+    if (listener != null) {
+      if (Thread.holdsLock(this)) {
+        deferredEvents.get().add(() -> event.accept(listener));
+      } else {
+        event.accept(listener);
+      }
+    }
+  }
+
+  /**
+   * Notifies the listener of the events recorded by the current thread while it held the pool lock. Must be called
+   * after releasing it.
+   */
+  void notifyDeferredEvents() {
+    List<Runnable> events = deferredEvents.get();
+    if (!events.isEmpty()) {
+      List<Runnable> notified = new ArrayList<>(events);
+      events.clear();
+      for (Runnable event : notified) {
+        event.run();
+      }
+    }
+  }
+
+  void setMetricsListener(PoolMetricsListener metricsListener) {
+    this.metricsListener = metricsListener;
+  }
+
+  PoolMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  public long getRequestCount() {
+    return requestCount + requestCountAdder.sum();
+  }
+
+  public long getAverageRequestTime() {
+    long requests = getRequestCount();
+    return requests == 0 ? 0 : (accumulatedRequestTime + accumulatedRequestTimeAdder.sum()) / requests;
+  }
+
+  public long getAverageWaitTime() {
+    long waits = getHadToWaitCount();
+    return waits == 0 ? 0 : (accumulatedWaitTime + accumulatedWaitTimeAdder.sum()) / waits;
+
+  }
+
+  public long getHadToWaitCount() {
+    return hadToWaitCount + hadToWaitCountAdder.sum();
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getBadConnectionCount() {
+    return badConnectionCount + badConnectionCountAdder.sum();
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount + claimedOverdueConnectionCountAdder.sum();
+  }
 
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = getClaimedOverdueConnectionCount();
+    return claimed == 0 ? 0
+        : (accumulatedCheckoutTimeOfOverdueConnections + accumulatedCheckoutTimeOfOverdueConnectionsAdder.sum()) / claimed;
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getAverageCheckoutTime() {
+    long requests = getRequestCount();
+    return requests == 0 ? 0 : (accumulatedCheckoutTime + accumulatedCheckoutTimeAdder.sum()) / requests;
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  /**
+   * Gets the median time a request had to wait for a connection.
+   *
+   * @return the time in milliseconds
+   */
+  public long getWaitTimeP50() {
+    return waitTimeHistogram.getPercentile(0.5);
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  /**
+   * Gets the 99th percentile of the time a request had to wait for a connection.
+   *
+   * @return the time in milliseconds
+   */
+  public long getWaitTimeP99() {
+    return waitTimeHistogram.getPercentile(0.99);
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  /**
+   * Gets the 99.9th percentile of the time a request had to wait for a connection.
+   *
+   * @return the time in milliseconds
+   */
+  public long getWaitTimeP999() {
+    return waitTimeHistogram.getPercentile(0.999);
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.sum();
   }
 
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.sum();
+  }
+
+  public long getStatementCacheEvictionCount() {
+    return statementCacheEvictionCount.sum();
+  }
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  public WaitTimeHistogram getWaitTimeHistogram() {
+    return waitTimeHistogram;
+  }
+
+  /**
+   * 监控读取，不加锁（数值可能略有滞后）
+   */
+  public int getIdleConnectionCount() {
+    return dataSource.poolConcurrentBagEnabled ? dataSource.bag.getIdleCount() : idleConnections.size();
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  public int getActiveConnectionCount() {
+    return dataSource.poolConcurrentBagEnabled ? dataSource.bag.getActiveCount() : activeConnections.size();
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -130,6 +294,11 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolConcurrentBagEnabled       ").append(dataSource.poolConcurrentBagEnabled);
+    builder.append("\n poolMinIdleConnections         ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolMaxLifetime                ").append(dataSource.poolMaximumLifetime);
+    builder.append("\n poolHousekeepingInterval       ").append(dataSource.poolHousekeepingInterval);
+    builder.append("\n poolStatementCacheSize         ").append(dataSource.poolStatementCacheSize);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -140,7 +309,11 @@ public class PoolState {
     builder.append("\n averageOverdueCheckoutTime     ").append(getAverageOverdueCheckoutTime());
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
+    builder.append("\n waitTimeP50/P99/P999           ").append(getWaitTimeP50()).append('/').append(getWaitTimeP99())
+        .append('/').append(getWaitTimeP999());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n statementCacheHit/Miss/Evicted ").append(getStatementCacheHitCount()).append('/')
+        .append(getStatementCacheMissCount()).append('/').append(getStatementCacheEvictionCount());
     builder.append("\n===============================================================");
     return builder.toString();
   }
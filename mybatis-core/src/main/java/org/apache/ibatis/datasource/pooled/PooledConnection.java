@@ -22,6 +22,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * @author Clinton Begin
@@ -36,6 +37,13 @@ class PooledConnection implements InvocationHandler {
   private static final String CLOSE = "close";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = -1;
+
+  private static final AtomicIntegerFieldUpdater<PooledConnection> STATE_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
+
   /**
    * 真实连接的hash值
    */
@@ -52,7 +60,7 @@ class PooledConnection implements InvocationHandler {
   /**
    * 借出时间
    */
-  private long checkoutTimestamp;
+  private volatile long checkoutTimestamp;
   /**
    * 创建时间
    */
@@ -68,7 +76,15 @@ class PooledConnection implements InvocationHandler {
   /**
    * 是否有效
    */
-  private boolean valid;
+  private volatile boolean valid;
+  /**
+   * Checkout state, only used when the pool runs in concurrent bag mode.
+   */
+  private volatile int state = STATE_NOT_IN_USE;
+  /**
+   * 语句缓存，归还连接换马甲的时候交给新的马甲
+   */
+  private volatile StatementCache statementCache;
 
   /**
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in.
@@ -91,6 +107,54 @@ class PooledConnection implements InvocationHandler {
    */
   public void invalidate() {
     valid = false;
+    state = STATE_REMOVED;
+    StatementCache cache = statementCache;
+    if (cache != null) {
+      statementCache = null;
+      cache.clear();
+    }
+  }
+
+  /**
+   * Getter for the statement cache of the real connection, created on first use.
+   *
+   * @return the statement cache, or null if the pool caches no statements
+   */
+  StatementCache getStatementCache() {
+    if (statementCache == null && valid && dataSource.getPoolStatementCacheSize() > 0) {
+      statementCache = new StatementCache(dataSource.getPoolStatementCacheSize(), dataSource.getPoolState());
+    }
+    return statementCache;
+  }
+
+  /**
+   * Hands the statement cache over to the new wrapper of the same real connection.
+   *
+   * @param conn - the new wrapper
+   */
+  void moveStatementCacheTo(PooledConnection conn) {
+    conn.statementCache = statementCache;
+    statementCache = null;
+  }
+
+  /**
+   * Atomically moves this connection from one checkout state to another.
+   *
+   * @param expect - the expected current state
+   * @param update - the new state
+   * @return True if the state was changed
+   */
+  boolean compareAndSetState(int expect, int update) {
+    return STATE_UPDATER.compareAndSet(this, expect, update);
+  }
+
+  /**
+   * Getter for the checkout state.
+   *
+   * @return the state
+   */
+  int getState() {
+    return state;
   }
 
   /**
@@ -27,11 +27,14 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
 /**
  * This is a simple, synchronous, thread-safe database connection pool.
+ * It can optionally run lock-free on a {@link ConcurrentBag}, see {@link #setPoolConcurrentBagEnabled(boolean)}.
  *
  * @author Clinton Begin
  *
@@ -44,6 +47,14 @@ public class PooledDataSource implements DataSource {
 
   private final PoolState state = new PoolState(this);
 
+  final ConcurrentBag bag = new ConcurrentBag();
+
+  private final PoolHousekeeper housekeeper = new PoolHousekeeper(this);
+  /**
+   * 后台维护线程正在检查的空闲连接数（经典模式，受state锁保护），也计入最大活跃连接数
+   */
+  private int claimedIdleConnections;
+
   private final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
@@ -55,11 +66,16 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  protected boolean poolConcurrentBagEnabled;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumLifetime;
+  protected int poolHousekeepingInterval;
+  protected int poolStatementCacheSize;
 
   /**
    * 连接信息的hashCode
    */
-  private int expectedConnectionTypeCode;
+  private volatile int expectedConnectionTypeCode;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -121,37 +137,37 @@ public class PooledDataSource implements DataSource {
 
   public void setDriver(String driver) {
     dataSource.setDriver(driver);
-    forceCloseAll();
+    resetPool();
   }
 
   public void setUrl(String url) {
     dataSource.setUrl(url);
-    forceCloseAll();
+    resetPool();
   }
 
   public void setUsername(String username) {
     dataSource.setUsername(username);
-    forceCloseAll();
+    resetPool();
   }
 
   public void setPassword(String password) {
     dataSource.setPassword(password);
-    forceCloseAll();
+    resetPool();
   }
 
   public void setDefaultAutoCommit(boolean defaultAutoCommit) {
     dataSource.setAutoCommit(defaultAutoCommit);
-    forceCloseAll();
+    resetPool();
   }
 
   public void setDefaultTransactionIsolationLevel(Integer defaultTransactionIsolationLevel) {
     dataSource.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
-    forceCloseAll();
+    resetPool();
   }
 
   public void setDriverProperties(Properties driverProps) {
     dataSource.setDriverProperties(driverProps);
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -163,7 +179,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setDefaultNetworkTimeout(Integer milliseconds) {
     dataSource.setDefaultNetworkTimeout(milliseconds);
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -173,7 +189,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumActiveConnections(int poolMaximumActiveConnections) {
     this.poolMaximumActiveConnections = poolMaximumActiveConnections;
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -183,7 +199,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumIdleConnections(int poolMaximumIdleConnections) {
     this.poolMaximumIdleConnections = poolMaximumIdleConnections;
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -208,7 +224,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumCheckoutTime(int poolMaximumCheckoutTime) {
     this.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -218,7 +234,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolTimeToWait(int poolTimeToWait) {
     this.poolTimeToWait = poolTimeToWait;
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -228,7 +244,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolPingQuery(String poolPingQuery) {
     this.poolPingQuery = poolPingQuery;
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -238,7 +254,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolPingEnabled(boolean poolPingEnabled) {
     this.poolPingEnabled = poolPingEnabled;
-    forceCloseAll();
+    resetPool();
   }
 
   /**
@@ -249,7 +265,66 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolPingConnectionsNotUsedFor(int milliseconds) {
     this.poolPingConnectionsNotUsedFor = milliseconds;
-    forceCloseAll();
+    resetPool();
+  }
+
+  /**
+   * Determines if the pool keeps its connections in a lock-free concurrent bag instead of
+   * guarding them with a single monitor. Checkouts then use thread-local affinity and a direct
+   * handoff to waiting threads, which scales better with many concurrent request threads.
+   * In this mode {@link #setPoolMaximumActiveConnections(int)} limits the number of open connections.
+   *
+   * @param poolConcurrentBagEnabled True to use the concurrent bag
+   */
+  public void setPoolConcurrentBagEnabled(boolean poolConcurrentBagEnabled) {
+    this.poolConcurrentBagEnabled = poolConcurrentBagEnabled;
+    resetPool();
+  }
+
+  /**
+   * The number of idle connections the housekeeping thread keeps open in advance,
+   * so that checkouts do not have to open them. Only used when housekeeping is enabled.
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    resetPool();
+  }
+
+  /**
+   * The maximum time a connection may live. Older connections are closed instead of
+   * being returned to the pool, and are retired by the housekeeping thread while idle.
+   *
+   * @param milliseconds the maximum lifetime, 0 or less means unlimited
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+    resetPool();
+  }
+
+  /**
+   * The number of prepared statements each connection keeps open for the reuse executor, across the sessions
+   * borrowing it. The least recently used statements are closed first.
+   *
+   * @param poolStatementCacheSize the number of statements, 0 or less to keep statements per session only
+   */
+  public void setPoolStatementCacheSize(int poolStatementCacheSize) {
+    this.poolStatementCacheSize = poolStatementCacheSize;
+    resetPool();
+  }
+
+  /**
+   * Enables the housekeeping thread, which runs every given number of milliseconds to
+   * retire expired idle connections, ping the idle ones before they are considered
+   * unused for {@link #setPoolPingConnectionsNotUsedFor(int)}, and open idle connections
+   * up to {@link #setPoolMinimumIdleConnections(int)}.
+   *
+   * @param milliseconds the interval between two runs, 0 or less disables housekeeping
+   */
+  public void setPoolHousekeepingInterval(int milliseconds) {
+    this.poolHousekeepingInterval = milliseconds;
+    resetPool();
   }
 
   public String getDriver() {
@@ -319,13 +394,35 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public boolean isPoolConcurrentBagEnabled() {
+    return poolConcurrentBagEnabled;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolStatementCacheSize() {
+    return poolStatementCacheSize;
+  }
+
   /**
-   * Closes all active and idle connections in the pool.
+   * Closes all active and idle connections in the pool, and stops the housekeeping thread until the next
+   * checkout. Call it when the data source is no longer used.
    *
    * 参数一旦发生变化，需要关闭所有连接，以便新的连接使用上最新的参数
    *
    */
   public void forceCloseAll() {
+    housekeeper.stop();
     /**
      * 加锁
      */
@@ -378,15 +475,51 @@ public class PooledDataSource implements DataSource {
         }
       }
     }
+    for (PooledConnection conn : bag.drain()) {
+      try {
+        conn.invalidate();
+
+        Connection realConn = conn.getRealConnection();
+        if (!realConn.getAutoCommit()) {
+          realConn.rollback();
+        }
+        realConn.close();
+      } catch (Exception e) {
+        // ignore
+      }
+    }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
     }
   }
 
+  /**
+   * 参数变化后关闭所有连接，开启了后台维护的话立即重新开始（不用等到第一次借出才预先打开空闲连接）
+   */
+  private void resetPool() {
+    forceCloseAll();
+    if (poolHousekeepingInterval > 0) {
+      housekeeper.start();
+    }
+  }
+
   public PoolState getPoolState() {
     return state;
   }
 
+  /**
+   * Registers a listener notified of every pool event, for instance to export them to a metrics registry.
+   *
+   * @param poolMetricsListener the listener, or null to remove it
+   */
+  public void setPoolMetricsListener(PoolMetricsListener poolMetricsListener) {
+    state.setMetricsListener(poolMetricsListener);
+  }
+
+  public PoolMetricsListener getPoolMetricsListener() {
+    return state.getMetricsListener();
+  }
+
   private int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
@@ -395,61 +528,71 @@ public class PooledDataSource implements DataSource {
    * 关闭连接（放回连接池）时调用
    */
   protected void pushConnection(PooledConnection conn) throws SQLException {
+    if (poolConcurrentBagEnabled) {
+      pushBagConnection(conn);
+      return;
+    }
     /**
      * 锁
      */
-    synchronized (state) {
-      /**
-       * 从活跃的集合中移除
-       */
-      state.activeConnections.remove(conn);
-      if (conn.isValid()) {
+    try {
+      synchronized (state) {
         /**
-         * 检查空闲空间，选择是否缓存（要换个马甲）
+         * 从活跃的集合中移除
          */
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          /**
-           * 结算连接借出的时间
-           */
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
+        state.activeConnections.remove(conn);
+        if (conn.isValid()) {
           /**
-           * 归还的时候换个新的马甲
+           * 检查空闲空间，选择是否缓存（要换个马甲）
            */
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
-          conn.invalidate();
-          if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+          if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+              && !isExpired(conn)) {
+            /**
+             * 结算连接借出的时间
+             */
+            state.recordCheckout(conn.getCheckoutTime());
+            if (!conn.getRealConnection().getAutoCommit()) {
+              conn.getRealConnection().rollback();
+            }
+            /**
+             * 归还的时候换个新的马甲
+             */
+            PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+            conn.moveStatementCacheTo(newConn);
+            state.idleConnections.add(newConn);
+            newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+            newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+            conn.invalidate();
+            if (log.isDebugEnabled()) {
+              log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+            }
+            /**
+             * 有连接了，需要通知等待的线程来取
+             */
+            state.notifyAll();
+          } else {
+            /**
+             * 结算连接借出的时间
+             */
+            state.recordCheckout(conn.getCheckoutTime());
+            if (!conn.getRealConnection().getAutoCommit()) {
+              conn.getRealConnection().rollback();
+            }
+            conn.getRealConnection().close();
+            if (log.isDebugEnabled()) {
+              log.debug("Closed connection " + conn.getRealHashCode() + ".");
+            }
+            conn.invalidate();
           }
-          /**
-           * 有连接了，需要通知等待的线程来取
-           */
-          state.notifyAll();
         } else {
-          /**
-           * 结算连接借出的时间
-           */
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          conn.getRealConnection().close();
           if (log.isDebugEnabled()) {
-            log.debug("Closed connection " + conn.getRealHashCode() + ".");
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
           }
-          conn.invalidate();
-        }
-      } else {
-        if (log.isDebugEnabled()) {
-          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+          state.recordBadConnection();
         }
-        state.badConnectionCount++;
       }
+    } finally {
+      state.notifyDeferredEvents();
     }
   }
 
@@ -461,6 +604,12 @@ public class PooledDataSource implements DataSource {
    *    3、强行征用借出超时的连接（重新包装）
    */
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    if (poolHousekeepingInterval > 0) {
+      housekeeper.start();
+    }
+    if (poolConcurrentBagEnabled) {
+      return popBagConnection(username, password);
+    }
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
@@ -470,179 +619,330 @@ public class PooledDataSource implements DataSource {
      * 自旋直到报错或者拿到连接
      */
     while (conn == null) {
-      synchronized (state) {
-        /**
-         * 获取连接
-         */
-        if (!state.idleConnections.isEmpty()) {
-          // Pool has available connection
+      try {
+        synchronized (state) {
           /**
-           * 1、从空闲连接池中拿
+           * 获取连接
            */
-          conn = state.idleConnections.remove(0);
-          if (log.isDebugEnabled()) {
-            log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
-          }
-        } else {
-          // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
+          if (!state.idleConnections.isEmpty()) {
+            // Pool has available connection
             /**
-             * 2、没有达到最大活跃数，可以申请新的
+             * 1、从空闲连接池中拿
              */
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
+            conn = state.idleConnections.remove(0);
             if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
+              log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
             }
           } else {
-            // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            /**
-             * 3、如果借出时间超过阀值，强行征用
-             */
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
-              /**
-               * 借出超时连接计数器
-               */
-              state.claimedOverdueConnectionCount++;
+            // Pool does not have available connection
+            if (state.activeConnections.size() + claimedIdleConnections < poolMaximumActiveConnections) {
               /**
-               * 借出超时连接总的超时数
+               * 2、没有达到最大活跃数，可以申请新的
                */
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
+              // Can create new connection
+              conn = new PooledConnection(dataSource.getConnection(), this);
+              if (log.isDebugEnabled()) {
+                log.debug("Created connection " + conn.getRealHashCode() + ".");
+              }
+            } else {
+              // Cannot create new connection
+              // all connections may be claimed by the housekeeper
+              PooledConnection oldestActiveConnection = state.activeConnections.isEmpty() ? null : state.activeConnections.get(0);
+              long longestCheckoutTime = oldestActiveConnection == null ? 0 : oldestActiveConnection.getCheckoutTime();
               /**
-               * 出栈，重新包装
+               * 3、如果借出时间超过阀值，强行征用
                */
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+              if (oldestActiveConnection != null && longestCheckoutTime > poolMaximumCheckoutTime) {
+                // Can claim overdue connection
+                /**
+                 * 借出超时连接计数器，借出超时连接总的超时数
+                 */
+                state.recordClaimedOverdue(longestCheckoutTime);
+                /**
+                 * 出栈，重新包装
+                 */
+                state.activeConnections.remove(oldestActiveConnection);
+                if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+                  try {
+                    /**
+                     * 强行回滚
+                     */
+                    oldestActiveConnection.getRealConnection().rollback();
+                  } catch (SQLException e) {
+                    /*
+                       Just log a message for debug and continue to execute the following
+                       statement like nothing happened.
+                       Wrap the bad connection with a new PooledConnection, this will help
+                       to not interrupt current executing thread and give current thread a
+                       chance to join the next competition for another valid/good database
+                       connection. At the end of this loop, bad {@link @conn} will be set as null.
+                     */
+                    log.debug("Bad connection. Could not roll back");
+                  }
+                }
+                /**
+                 * 重新包装
+                 */
+                conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+                conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+                conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+                oldestActiveConnection.invalidate();
+                if (log.isDebugEnabled()) {
+                  log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+                }
+              } else {
+                // Must wait
                 try {
                   /**
-                   * 强行回滚
+                   * 4、必须等待（但是只会记录一次记录）
+                   */
+                  if (!countedWait) {
+                    /**
+                     * 等待计数
+                     */
+                    state.recordHadToWait();
+                    countedWait = true;
+                  }
+                  if (log.isDebugEnabled()) {
+                    log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+                  }
+                  long wt = System.currentTimeMillis();
+                  /**
+                   * 等待（交出锁）
                    */
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  /*
-                     Just log a message for debug and continue to execute the following
-                     statement like nothing happened.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not interrupt current executing thread and give current thread a
-                     chance to join the next competition for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
+                  state.wait(poolTimeToWait);
+                  /**
+                   * 实际等待时间
+                   */
+                  state.recordWait(System.currentTimeMillis() - wt);
+                } catch (InterruptedException e) {
+                  /**
+                   * 被中断了，不再获取连接
                    */
-                  log.debug("Bad connection. Could not roll back");
+                  break;
                 }
               }
+            }
+          }
+
+          /**
+           * 验证连接的有效性，并初始化一些用于统计性能参数的值
+           */
+          if (conn != null) {
+            // ping to server and check the connection is valid or not
+            if (conn.isValid()) {
               /**
-               * 重新包装
+               * 强行提交上一个事务，因为必须开启新的事务
                */
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+              if (!conn.getRealConnection().getAutoCommit()) {
+                conn.getRealConnection().rollback();
               }
+              /**
+               * 设置连接参数的hash值（归还时需要验证）
+               */
+              conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+              /**
+               * 设置借出的时间
+               */
+              conn.setCheckoutTimestamp(System.currentTimeMillis());
+              /**
+               * 设置最后使用的时间
+               */
+              conn.setLastUsedTimestamp(System.currentTimeMillis());
+              state.activeConnections.add(conn);
+              /**
+               * 统计请求到连接的总数和总时间
+               */
+              state.recordRequest(System.currentTimeMillis() - t);
             } else {
-              // Must wait
-              try {
-                /**
-                 * 4、必须等待（但是只会记录一次记录）
-                 */
-                if (!countedWait) {
-                  /**
-                   * 等待计数
-                   */
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
+              if (log.isDebugEnabled()) {
+                log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+              }
+              /**
+               * 坏的连接数
+               */
+              state.recordBadConnection();
+              /**
+               * 本次请求坏的连接数
+               */
+              localBadConnectionCount++;
+              conn = null;
+              /**
+               * 坏的连接数太多，报障
+               */
+              if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
                 if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+                  log.debug("PooledDataSource: Could not get a good connection to the database.");
                 }
-                long wt = System.currentTimeMillis();
-                /**
-                 * 等待（交出锁）
-                 */
-                state.wait(poolTimeToWait);
-                /**
-                 * 实际等待时间
-                 */
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                /**
-                 * 被中断了，不再获取连接
-                 */
-                break;
+                throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
               }
             }
           }
         }
+      } finally {
+        state.notifyDeferredEvents();
+      }
 
-        /**
-         * 验证连接的有效性，并初始化一些用于统计性能参数的值
-         */
-        if (conn != null) {
-          // ping to server and check the connection is valid or not
-          if (conn.isValid()) {
-            /**
-             * 强行提交上一个事务，因为必须开启新的事务
-             */
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
+    }
+
+    /**
+     * 未知错误
+     */
+    if (conn == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+      }
+      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+
+    return conn;
+  }
+
+  /**
+   * Returns a connection to the concurrent bag. Same rules as {@link #pushConnection(PooledConnection)},
+   * but without taking the pool lock. A connection that is not checked out anymore (closed twice, or
+   * claimed as overdue meanwhile) is ignored.
+   */
+  private void pushBagConnection(PooledConnection conn) throws SQLException {
+    if (!bag.checkin(conn)) {
+      if (log.isDebugEnabled()) {
+        log.debug("A stale connection (" + conn.getRealHashCode() + ") attempted to return to the pool, ignoring it.");
+      }
+      return;
+    }
+    if (conn.isValid()) {
+      state.recordCheckout(conn.getCheckoutTime());
+      boolean requited = false;
+      try {
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+        if (bag.getIdleCount() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+            && !isExpired(conn)) {
+          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          conn.moveStatementCacheTo(newConn);
+          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          conn.invalidate();
+          bag.requite(newConn);
+          requited = true;
+          if (log.isDebugEnabled()) {
+            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+          }
+        } else {
+          conn.getRealConnection().close();
+          if (log.isDebugEnabled()) {
+            log.debug("Closed connection " + conn.getRealHashCode() + ".");
+          }
+          conn.invalidate();
+        }
+      } finally {
+        if (!requited) {
+          bag.release();
+        }
+      }
+    } else {
+      bag.release();
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.recordBadConnection();
+    }
+  }
+
+  /**
+   * Checks out a connection from the concurrent bag. Same order as {@link #popConnection(String, String)}:
+   * idle connection, new connection, overdue connection, and waiting, but only the wait ever blocks.
+   */
+  private PooledConnection popBagConnection(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    PooledConnection conn = null;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (conn == null) {
+      conn = bag.borrow();
+      if (conn != null) {
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if (bag.reserve(poolMaximumActiveConnections)) {
+        try {
+          conn = new PooledConnection(dataSource.getConnection(), this);
+        } catch (SQLException | RuntimeException e) {
+          bag.release();
+          throw e;
+        }
+        bag.add(conn);
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        PooledConnection oldestActiveConnection = bag.claimOverdue(poolMaximumCheckoutTime);
+        if (oldestActiveConnection != null) {
+          state.recordClaimedOverdue(oldestActiveConnection.getCheckoutTime());
+          if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+            try {
+              oldestActiveConnection.getRealConnection().rollback();
+            } catch (SQLException e) {
+              // same as popConnection: the bad connection is detected by the validation below
+              log.debug("Bad connection. Could not roll back");
             }
-            /**
-             * 设置连接参数的hash值（归还时需要验证）
-             */
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            /**
-             * 设置借出的时间
-             */
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            /**
-             * 设置最后使用的时间
-             */
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            /**
-             * 统计请求到连接的总数
-             */
-            state.requestCount++;
-            /**
-             * 统计请求到连接的总时间
-             */
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
-          } else {
+          }
+          conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+          conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+          conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+          oldestActiveConnection.invalidate();
+          bag.add(conn);
+          if (log.isDebugEnabled()) {
+            log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+          }
+        } else {
+          if (!countedWait) {
+            state.recordHadToWait();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          try {
+            conn = bag.await(poolTimeToWait);
+          } catch (InterruptedException e) {
+            break;
+          } finally {
+            state.recordWait(System.currentTimeMillis() - wt);
+          }
+        }
+      }
+
+      if (conn != null) {
+        if (conn.isValid()) {
+          if (!conn.getRealConnection().getAutoCommit()) {
+            conn.getRealConnection().rollback();
+          }
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          state.recordRequest(System.currentTimeMillis() - t);
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          bag.remove(conn);
+          state.recordBadConnection();
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
             if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
-            /**
-             * 坏的连接数
-             */
-            state.badConnectionCount++;
-            /**
-             * 本次请求坏的连接数
-             */
-            localBadConnectionCount++;
-            conn = null;
-            /**
-             * 坏的连接数太多，报障
-             */
-            if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
             }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
           }
         }
       }
-
     }
 
-    /**
-     * 未知错误
-     */
     if (conn == null) {
       if (log.isDebugEnabled()) {
         log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
@@ -682,48 +982,206 @@ public class PooledDataSource implements DataSource {
          * 一定时间内没有使用的连接才会去ping
          */
         if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            /**
-             * 执行一个ping的sql
-             */
-            Connection realConn = conn.getRealConnection();
-            try (Statement statement = realConn.createStatement()) {
-              statement.executeQuery(poolPingQuery).close();
-            }
-            /**
-             * 回滚
-             */
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              /**
-               * 执行ping报错，直接关闭
-               */
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
-          }
+          result = executePingQuery(conn);
         }
       }
     }
     return result;
   }
 
+  /**
+   * 执行ping的sql，失败时关闭真实的连接
+   */
+  private boolean executePingQuery(PooledConnection conn) {
+    boolean result;
+    try {
+      if (log.isDebugEnabled()) {
+        log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+      }
+      /**
+       * 执行一个ping的sql
+       */
+      Connection realConn = conn.getRealConnection();
+      try (Statement statement = realConn.createStatement()) {
+        statement.executeQuery(poolPingQuery).close();
+      }
+      /**
+       * 回滚
+       */
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      result = true;
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+      }
+    } catch (Exception e) {
+      log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+      try {
+        /**
+         * 执行ping报错，直接关闭
+         */
+        conn.getRealConnection().close();
+      } catch (Exception e2) {
+        //ignore
+      }
+      result = false;
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  boolean isExpired(PooledConnection conn) {
+    return poolMaximumLifetime > 0 && conn.getAge() > poolMaximumLifetime;
+  }
+
+  /**
+   * Pings an idle connection right away, no matter how long ago it was used.
+   *
+   * @return True if the connection is still usable
+   */
+  boolean validateIdleConnection(PooledConnection conn) {
+    try {
+      if (conn.getRealConnection().isClosed()) {
+        return false;
+      }
+    } catch (SQLException e) {
+      return false;
+    }
+    if (executePingQuery(conn)) {
+      conn.setLastUsedTimestamp(System.currentTimeMillis());
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Takes a copy of the idle connections, without removing them from the pool.
+   */
+  List<PooledConnection> getIdleConnections() {
+    if (poolConcurrentBagEnabled) {
+      return bag.getIdleConnections();
+    }
+    synchronized (state) {
+      return new ArrayList<>(state.idleConnections);
+    }
+  }
+
+  /**
+   * Removes an idle connection from the pool so it can be checked in the background.
+   *
+   * @return True if it was still idle
+   */
+  boolean claimIdleConnection(PooledConnection conn) {
+    if (poolConcurrentBagEnabled) {
+      return bag.claimIdle(conn);
+    }
+    synchronized (state) {
+      if (state.idleConnections.remove(conn)) {
+        claimedIdleConnections++;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Puts back a connection taken by {@link #claimIdleConnection(PooledConnection)}.
+   */
+  void returnIdleConnection(PooledConnection conn, int connectionTypeCode) {
+    if (connectionTypeCode == expectedConnectionTypeCode) {
+      if (poolConcurrentBagEnabled) {
+        bag.unclaim(conn);
+        return;
+      }
+      synchronized (state) {
+        if (state.idleConnections.size() < poolMaximumIdleConnections) {
+          claimedIdleConnections--;
+          state.idleConnections.add(conn);
+          state.notifyAll();
+          return;
+        }
+      }
+    }
+    discardIdleConnection(conn);
+  }
+
+  /**
+   * Closes a connection taken by {@link #claimIdleConnection(PooledConnection)}.
+   */
+  void discardIdleConnection(PooledConnection conn) {
+    conn.invalidate();
+    if (poolConcurrentBagEnabled) {
+      bag.release();
+    } else {
+      synchronized (state) {
+        claimedIdleConnections--;
+        // a checkout may open a connection now
+        state.notifyAll();
+      }
+    }
+    try {
+      conn.getRealConnection().close();
+    } catch (SQLException e) {
+      // ignore
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Closed idle connection " + conn.getRealHashCode() + ".");
+    }
+  }
+
+  /**
+   * Opens one more idle connection if there are fewer than {@link #poolMinimumIdleConnections}.
+   *
+   * @return True if a connection was added
+   */
+  boolean addIdleConnection() throws SQLException {
+    if (poolConcurrentBagEnabled) {
+      if (bag.getIdleCount() >= poolMinimumIdleConnections || !bag.reserve(poolMaximumActiveConnections)) {
+        return false;
+      }
+      PooledConnection conn;
+      try {
+        conn = new PooledConnection(dataSource.getConnection(), this);
+      } catch (SQLException | RuntimeException e) {
+        bag.release();
+        throw e;
+      }
+      bag.requite(conn);
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+      }
+      return true;
+    }
+    synchronized (state) {
+      if (state.idleConnections.size() >= poolMinimumIdleConnections
+          || state.idleConnections.size() + state.activeConnections.size() + claimedIdleConnections >= poolMaximumActiveConnections) {
+        return false;
+      }
+    }
+    // opened outside of the lock, so that checkouts are not blocked meanwhile
+    PooledConnection conn = new PooledConnection(dataSource.getConnection(), this);
+    synchronized (state) {
+      if (state.idleConnections.size() < poolMaximumIdleConnections
+          && state.idleConnections.size() + state.activeConnections.size() + claimedIdleConnections < poolMaximumActiveConnections) {
+        state.idleConnections.add(conn);
+        state.notifyAll();
+        if (log.isDebugEnabled()) {
+          log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+        }
+        return true;
+      }
+    }
+    conn.getRealConnection().close();
+    return false;
+  }
+
+  int getExpectedConnectionTypeCode() {
+    return expectedConnectionTypeCode;
+  }
+
   /**
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -740,6 +1198,22 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  /**
+   * Returns the statement cache of the physical connection behind a connection of a pooled data source.
+   *
+   * @param conn the connection, as returned by {@link #getConnection()}
+   * @return the statement cache, or null if the connection is not pooled or the pool caches no statements
+   */
+  public static StatementCache getStatementCache(Connection conn) {
+    if (Proxy.isProxyClass(conn.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(conn);
+      if (handler instanceof PooledConnection) {
+        return ((PooledConnection) handler).getStatementCache();
+      }
+    }
+    return null;
+  }
+
   @Override
   protected void finalize() throws Throwable {
     forceCloseAll();
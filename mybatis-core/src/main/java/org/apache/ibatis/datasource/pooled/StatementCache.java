@@ -0,0 +1,157 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Prepared statements kept open for reuse, least recently used first out. Evicted statements are closed; a
+ * statement whose result set is still open, like the query of a cursor or the outer query of nested selects, is
+ * not evicted until it is closed, so the cache may hold more statements than its size meanwhile.
+ * <p>
+ * A {@link PooledDataSource} with a {@link PooledDataSource#setPoolStatementCacheSize(int) statement cache size}
+ * attaches one to each physical connection, so that statements survive the sessions borrowing the connection.
+ * Its hits, misses and evictions are counted by the {@link PoolState}.
+ */
+public class StatementCache {
+
+  private final int size;
+  private final PoolState state;
+  private final LinkedHashMap<Object, Statement> statements;
+
+  /**
+   * @param size the maximum number of statements, 0 for no maximum
+   */
+  public StatementCache(int size) {
+    this(size, null);
+  }
+
+  StatementCache(int size, PoolState state) {
+    this.size = size;
+    this.state = state;
+    this.statements = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the open statement cached under the given key, and counts a hit or a miss.
+   *
+   * @return the statement, or null if there is none
+   */
+  public synchronized Statement get(Object key) {
+    Statement statement = statements.get(key);
+    if (statement != null && isClosed(statement)) {
+      statements.remove(key);
+      statement = null;
+    }
+    if (state != null) {
+      if (statement == null) {
+        state.recordStatementCacheMiss();
+      } else {
+        state.recordStatementCacheHit();
+      }
+    }
+    return statement;
+  }
+
+  /**
+   * Caches a statement, evicting the least recently used ones not in use if the cache is full.
+   */
+  public synchronized void put(Object key, Statement statement) {
+    Statement previous = statements.put(key, statement);
+    if (previous != null && previous != statement) {
+      closeStatement(previous);
+    }
+    if (size > 0 && statements.size() > size) {
+      evict(statement);
+    }
+  }
+
+  private void evict(Statement added) {
+    final Iterator<Statement> iterator = statements.values().iterator();
+    while (statements.size() > size && iterator.hasNext()) {
+      final Statement statement = iterator.next();
+      if (statement == added || isInUse(statement)) {
+        continue;
+      }
+      iterator.remove();
+      closeStatement(statement);
+      if (state != null) {
+        state.recordStatementCacheEviction();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return statements.size();
+  }
+
+  /**
+   * Closes and removes all the statements.
+   */
+  public void clear() {
+    final List<Statement> closing;
+    synchronized (this) {
+      closing = new ArrayList<>(statements.values());
+      statements.clear();
+    }
+    for (Statement statement : closing) {
+      closeStatement(statement);
+    }
+  }
+
+  /**
+   * 连接关闭了的Statement也算关闭了
+   */
+  private static boolean isClosed(Statement statement) {
+    try {
+      if (statement.isClosed()) {
+        return true;
+      }
+      Connection connection = statement.getConnection();
+      return connection == null || connection.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  /**
+   * 结果集还没有读完的Statement还在用，不能关闭
+   */
+  private static boolean isInUse(Statement statement) {
+    try {
+      ResultSet resultSet = statement.getResultSet();
+      return resultSet != null && !resultSet.isClosed();
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private static void closeStatement(Statement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+}
@@ -302,7 +302,7 @@ public abstract class BaseExecutor implements Executor {
     /**
      * sql语句
      */
-    cacheKey.update(boundSql.getSql());
+    cacheKey.update(ms.internSql(boundSql.getSql()));
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
     // mimic DefaultParameterHandler logic
@@ -344,6 +344,14 @@ public abstract class BaseExecutor implements Executor {
     return localCache.getObject(key) != null;
   }
 
+  @Override
+  public void putLocalCache(CacheKey key, List<?> list) {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    localCache.putObject(key, list);
+  }
+
   @Override
   public void commit(boolean required) throws SQLException {
     if (closed) {
@@ -22,6 +22,10 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.BatchGrouping;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -29,11 +33,15 @@ import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Jeff Butler
@@ -45,10 +53,24 @@ public class BatchExecutor extends BaseExecutor {
 
   public static final int BATCH_UPDATE_RETURN_VALUE = Integer.MIN_VALUE + 1002;
 
+  // rows between two checks of the heap usage, see Configuration#getBatchFlushHeapRatio()
+  private static final int HEAP_CHECK_INTERVAL = 256;
+
   private final List<Statement> statementList = new ArrayList<>();
   private final List<BatchResult> batchResultList = new ArrayList<>();
+  // the rows of each statement rewritten to multi-row inserts, null for the others, see Configuration#getBatchInsertRewriteSize()
+  private final List<MultiRowInsert> multiRowInsertList = new ArrayList<>();
   private String currentSql;
   private MappedStatement currentStatement;
+  // the statement the last update was added to, not necessarily the last one when grouping
+  private int currentIndex;
+  // statement indexes by mapped statement and SQL, see Configuration#getBatchGrouping()
+  private final Map<MappedStatement, Map<String, Integer>> statementIndexes = new HashMap<>();
+  // statements before this index cannot be grouped with anymore
+  private int firstGroupableStatement;
+  // rows queued by each statement and not executed yet
+  private int[] pendingRows = new int[8];
+  private int rowsSinceHeapCheck;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
@@ -61,26 +83,303 @@ public class BatchExecutor extends BaseExecutor {
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
     final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      applyTransactionTimeout(stmt);
-      handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
-      batchResult.addParameterObject(parameterObject);
+    final BatchResult batchResult;
+    final MultiRowInsert multiRowInsert;
+    int index = findStatement(ms, sql);
+    if (index >= 0) {
+      stmt = statementList.get(index);
+      multiRowInsert = multiRowInsertList.get(index);
+      if (multiRowInsert == null) {
+        applyTransactionTimeout(stmt);
+        handler.parameterize(stmt);//fix Issues 322
+      }
+      batchResult = batchResultList.get(index);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection, transaction.getTimeout());
-      handler.parameterize(stmt);    //fix Issues 322
-      currentSql = sql;
-      currentStatement = ms;
+      multiRowInsert = newMultiRowInsert(ms, handler);
+      if (multiRowInsert == null) {
+        Connection connection = getConnection(ms.getStatementLog());
+        stmt = handler.prepare(connection, transaction.getTimeout());
+        handler.parameterize(stmt);    //fix Issues 322
+      } else {
+        /**
+         * 凑够一条多行insert的行数才创建Statement
+         */
+        stmt = null;
+      }
       statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      multiRowInsertList.add(multiRowInsert);
+      batchResult = new BatchResult(ms, sql);
+      batchResultList.add(batchResult);
+      addStatement(ms, sql);
+      index = statementList.size() - 1;
+      if (index == pendingRows.length) {
+        pendingRows = Arrays.copyOf(pendingRows, index << 1);
+      }
+      pendingRows[index] = 0;
     }
-    handler.batch(stmt);
+    if (isParameterObjectRetained(ms)) {
+      batchResult.addParameterObject(parameterObject);
+    }
+    currentSql = sql;
+    currentStatement = ms;
+    currentIndex = index;
+    if (multiRowInsert == null) {
+      handler.batch(stmt);
+    } else {
+      multiRowInsert.addRow((DefaultParameterHandler) handler.getParameterHandler());
+      if (multiRowInsert.isFull()) {
+        batchMultiRowInsert(index, ms);
+      }
+    }
+    pendingRows[index]++;
+    executeBatchesIfNeeded(index);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  /**
+   * 达到批次大小或者堆内存水位时提前执行，之前的Statement也一起执行以保持顺序
+   */
+  private void executeBatchesIfNeeded(int index) throws SQLException {
+    final int flushSize = configuration.getBatchFlushSize();
+    if (flushSize > 0 && pendingRows[index] >= flushSize) {
+      executeBatches(index);
+    } else if (configuration.getBatchFlushHeapRatio() > 0 && ++rowsSinceHeapCheck >= HEAP_CHECK_INTERVAL) {
+      rowsSinceHeapCheck = 0;
+      final Runtime runtime = Runtime.getRuntime();
+      if (runtime.totalMemory() - runtime.freeMemory() > runtime.maxMemory() * configuration.getBatchFlushHeapRatio()) {
+        executeBatches(statementList.size() - 1);
+      }
+    }
+  }
+
+  /**
+   * Executes the queued rows of the statements up to the given one, in order. The statements stay open and
+   * keep queuing rows until the flush.
+   */
+  private void executeBatches(int last) throws SQLException {
+    for (int i = 0; i <= last; i++) {
+      if (pendingRows[i] > 0) {
+        executeBatch(i);
+      }
+    }
+  }
+
+  private void executeBatch(int index) throws SQLException {
+    BatchResult batchResult = batchResultList.get(index);
+    QueuedRows queuedRows = newQueuedRows(statementList.get(index), multiRowInsertList.get(index), batchResult, pendingRows[index]);
+    try {
+      queuedRows.execute();
+      completeExecution(queuedRows);
+      pendingRows[index] = 0;
+    } catch (BatchUpdateException e) {
+      throw newBatchExecutorException(e, new ArrayList<>(batchResultList.subList(0, index)), batchResult);
+    } finally {
+      closeStatement(queuedRows.lastStmt);
+    }
+  }
+
+  /**
+   * Gets the rows queued by a statement ready to execute: binds the rows left over by a multi-row insert to a
+   * statement of their own, and takes the parameter objects to assign the generated keys to.
+   */
+  private QueuedRows newQueuedRows(Statement stmt, MultiRowInsert multiRowInsert, BatchResult batchResult, int rows) throws SQLException {
+    final MappedStatement ms = batchResult.getMappedStatement();
+    final List<Object> allParameterObjects = batchResult.getParameterObjects();
+    List<Object> parameterObjects = null;
+    if (isParameterObjectRetained(ms)) {
+      // Jdbc3KeyGenerator expects an ArrayList of ParamMaps
+      parameterObjects = rows == allParameterObjects.size() && configuration.isBatchParameterObjectsRetained() ? allParameterObjects
+          : new ArrayList<>(allParameterObjects.subList(allParameterObjects.size() - rows, allParameterObjects.size()));
+      if (!configuration.isBatchParameterObjectsRetained()) {
+        allParameterObjects.clear();
+      }
+    }
+    if (multiRowInsert == null) {
+      if (rows == 0) {
+        return new QueuedRows(batchResult, null, 0, 0, null, 0, parameterObjects);
+      }
+      applyTransactionTimeout(stmt);
+      return new QueuedRows(batchResult, stmt, 0, rows, null, 0, parameterObjects);
+    }
+    final int lastRows = multiRowInsert.getRowCount();
+    final int boundRows = rows - lastRows;
+    if (boundRows > 0) {
+      applyTransactionTimeout(stmt);
+    }
+    Statement lastStmt = null;
+    if (lastRows > 0) {
+      /**
+       * 剩下不够一条完整多行insert的行
+       */
+      lastStmt = prepareMultiRowInsert(ms, multiRowInsert, lastRows);
+      try {
+        applyTransactionTimeout(lastStmt);
+        multiRowInsert.bindRows((PreparedStatement) lastStmt);
+        ((PreparedStatement) lastStmt).addBatch();
+      } catch (SQLException | RuntimeException e) {
+        closeStatement(lastStmt);
+        throw e;
+      }
+    }
+    return new QueuedRows(batchResult, boundRows > 0 ? stmt : null, multiRowInsert.getRowsPerStatement(), boundRows,
+        lastStmt, lastRows, parameterObjects);
+  }
+
+  /**
+   * Records the update counts of executed rows and assigns their generated keys.
+   */
+  private void completeExecution(QueuedRows queuedRows) throws BatchUpdateException {
+    final BatchResult batchResult = queuedRows.batchResult;
+    final MappedStatement ms = batchResult.getMappedStatement();
+    final List<Object> parameterObjects = queuedRows.parameterObjects;
+    if (queuedRows.updateCounts != null) {
+      /**
+       * 批量执行的条数，提前执行过的累加起来
+       */
+      final int[] updateCounts = queuedRows.rowsPerStatement > 0
+          ? MultiRowInsert.getRowUpdateCounts(queuedRows.updateCounts, queuedRows.rowsPerStatement) : queuedRows.updateCounts;
+      batchResult.setUpdateCounts(appendUpdateCounts(batchResult.getUpdateCounts(), updateCounts));
+      processGeneratedKeys(ms, queuedRows.stmt, parameterObjects == null || queuedRows.lastStmt == null ? parameterObjects
+          : new ArrayList<>(parameterObjects.subList(0, queuedRows.rows)));
+    }
+    if (queuedRows.lastUpdateCounts != null) {
+      final int[] updateCounts = MultiRowInsert.getRowUpdateCounts(queuedRows.lastUpdateCounts, queuedRows.lastRows);
+      batchResult.setUpdateCounts(appendUpdateCounts(batchResult.getUpdateCounts(), updateCounts));
+      processGeneratedKeys(ms, queuedRows.lastStmt, parameterObjects == null || queuedRows.stmt == null ? parameterObjects
+          : new ArrayList<>(parameterObjects.subList(queuedRows.rows, parameterObjects.size())));
+    }
+  }
+
+  private void processGeneratedKeys(MappedStatement ms, Statement stmt, List<Object> parameterObjects) {
+    if (parameterObjects == null) {
+      return;
+    }
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    /**
+     * 生成key
+     */
+    if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+      Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+      jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+    } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+      for (Object parameter : parameterObjects) {
+        keyGenerator.processAfter(this, ms, stmt, parameter);
+      }
+    }
+  }
+
+  private static BatchExecutorException newBatchExecutorException(BatchUpdateException e, List<BatchResult> successfulResults, BatchResult batchResult) {
+    final int index = successfulResults.size();
+    StringBuilder message = new StringBuilder();
+    message.append(batchResult.getMappedStatement().getId())
+        .append(" (batch index #")
+        .append(index + 1)
+        .append(")")
+        .append(" failed.");
+    if (index > 0) {
+      message.append(" ")
+          .append(index)
+          .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+    }
+    return new BatchExecutorException(message.toString(), e, successfulResults, batchResult);
+  }
+
+  private static int[] appendUpdateCounts(int[] updateCounts, int[] moreUpdateCounts) {
+    if (updateCounts == null) {
+      return moreUpdateCounts;
+    }
+    int[] result = Arrays.copyOf(updateCounts, updateCounts.length + moreUpdateCounts.length);
+    System.arraycopy(moreUpdateCounts, 0, result, updateCounts.length, moreUpdateCounts.length);
+    return result;
+  }
+
+  /**
+   * The parameter objects are needed to assign generated keys, otherwise only kept for the batch results if
+   * configured so.
+   */
+  private boolean isParameterObjectRetained(MappedStatement ms) {
+    return configuration.isBatchParameterObjectsRetained() || !NoKeyGenerator.class.equals(ms.getKeyGenerator().getClass());
+  }
+
+  /**
+   * @return the rows of a statement to rewrite to multi-row inserts, or null to execute it as is
+   */
+  private MultiRowInsert newMultiRowInsert(MappedStatement ms, StatementHandler handler) {
+    final int rewriteSize = configuration.getBatchInsertRewriteSize();
+    if (rewriteSize < 2 || ms.getSqlCommandType() != SqlCommandType.INSERT || ms.getStatementType() != StatementType.PREPARED
+        || !(handler.getParameterHandler() instanceof DefaultParameterHandler)) {
+      return null;
+    }
+    final Class<?> keyGeneratorType = ms.getKeyGenerator().getClass();
+    if (!NoKeyGenerator.class.equals(keyGeneratorType) && !Jdbc3KeyGenerator.class.equals(keyGeneratorType)) {
+      return null;
+    }
+    return MultiRowInsert.newInstance(handler.getBoundSql(), rewriteSize, configuration.getBatchInsertRewriteMaxParameters());
+  }
+
+  /**
+   * Adds the rows not bound yet to the batch of the statement inserting as many rows at once.
+   */
+  private void batchMultiRowInsert(int index, MappedStatement ms) throws SQLException {
+    final MultiRowInsert multiRowInsert = multiRowInsertList.get(index);
+    Statement stmt = statementList.get(index);
+    if (stmt == null) {
+      stmt = prepareMultiRowInsert(ms, multiRowInsert, multiRowInsert.getRowsPerStatement());
+      statementList.set(index, stmt);
+    }
+    applyTransactionTimeout(stmt);
+    multiRowInsert.bindRows((PreparedStatement) stmt);
+    ((PreparedStatement) stmt).addBatch();
+  }
+
+  private Statement prepareMultiRowInsert(MappedStatement ms, MultiRowInsert multiRowInsert, int rowCount) throws SQLException {
+    final BoundSql boundSql = multiRowInsert.getBoundSql(configuration, rowCount);
+    final StatementHandler handler = configuration.newStatementHandler(this, ms, boundSql.getParameterObject(), RowBounds.DEFAULT, null, boundSql);
+    return handler.prepare(getConnection(ms.getStatementLog()), transaction.getTimeout());
+  }
+
+  /**
+   * @return the index of the statement to add the update to, or -1 to prepare a new one
+   */
+  private int findStatement(MappedStatement ms, String sql) {
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      return currentIndex;
+    }
+    if (isGroupable(ms)) {
+      /**
+       * 和之前的同一个SQL的Statement合并成一批，批次按第一次出现的顺序执行
+       */
+      final Map<String, Integer> indexes = statementIndexes.get(ms);
+      final Integer index = indexes == null ? null : indexes.get(sql);
+      if (index != null && index >= firstGroupableStatement) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private void addStatement(MappedStatement ms, String sql) {
+    final BatchGrouping grouping = configuration.getBatchGrouping();
+    if (grouping == BatchGrouping.NONE) {
+      return;
+    }
+    final int index = statementList.size() - 1;
+    if (isGroupable(ms)) {
+      statementIndexes.computeIfAbsent(ms, k -> new HashMap<>()).put(sql, index);
+    } else {
+      /**
+       * 不能调整顺序的语句，之后的语句不能合并到它之前的批次
+       */
+      firstGroupableStatement = index + 1;
+    }
+  }
+
+  private boolean isGroupable(MappedStatement ms) {
+    final BatchGrouping grouping = configuration.getBatchGrouping();
+    return grouping == BatchGrouping.FULL
+        || grouping == BatchGrouping.PARTIAL && ms.getSqlCommandType() == SqlCommandType.INSERT;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -116,59 +415,68 @@ public class BatchExecutor extends BaseExecutor {
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<>();
       if (isRollback) {
         return Collections.emptyList();
       }
       for (int i = 0, n = statementList.size(); i < n; i++) {
-        Statement stmt = statementList.get(i);
-        applyTransactionTimeout(stmt);
-        BatchResult batchResult = batchResultList.get(i);
-        try {
-          /**
-           * 批量执行的条数
-           */
-          batchResult.setUpdateCounts(stmt.executeBatch());
-          MappedStatement ms = batchResult.getMappedStatement();
-          List<Object> parameterObjects = batchResult.getParameterObjects();
-          KeyGenerator keyGenerator = ms.getKeyGenerator();
-          /**
-           * 生成key
-           */
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
-            }
-          }
-          // Close statement to close cursor #1109
-          closeStatement(stmt);
-        } catch (BatchUpdateException e) {
-          StringBuilder message = new StringBuilder();
-          message.append(batchResult.getMappedStatement().getId())
-              .append(" (batch index #")
-              .append(i + 1)
-              .append(")")
-              .append(" failed.");
-          if (i > 0) {
-            message.append(" ")
-                .append(i)
-                .append(" prior sub executor(s) completed successfully, but will be rolled back.");
-          }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
+        if (pendingRows[i] > 0) {
+          executeBatch(i);
         }
-        results.add(batchResult);
+        // Close statement to close cursor #1109
+        closeStatement(statementList.get(i));
       }
-      return results;
+      return new ArrayList<>(batchResultList);
     } finally {
       for (Statement stmt : statementList) {
         closeStatement(stmt);
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
+      resetStatements();
+    }
+  }
+
+  private void resetStatements() {
+    currentSql = null;
+    statementList.clear();
+    multiRowInsertList.clear();
+    batchResultList.clear();
+    statementIndexes.clear();
+    firstGroupableStatement = 0;
+  }
+
+  /**
+   * The rows queued by a statement since its last execution. A multi-row insert also executes the rows left over
+   * by a statement of their own.
+   */
+  private static final class QueuedRows {
+
+    private final BatchResult batchResult;
+    private final Statement stmt;
+    private final int rowsPerStatement;
+    private final int rows;
+    private final Statement lastStmt;
+    private final int lastRows;
+    private final List<Object> parameterObjects;
+    private int[] updateCounts;
+    private int[] lastUpdateCounts;
+
+    QueuedRows(BatchResult batchResult, Statement stmt, int rowsPerStatement, int rows, Statement lastStmt, int lastRows,
+        List<Object> parameterObjects) {
+      this.batchResult = batchResult;
+      this.stmt = stmt;
+      this.rowsPerStatement = rowsPerStatement;
+      this.rows = rows;
+      this.lastStmt = lastStmt;
+      this.lastRows = lastRows;
+      this.parameterObjects = parameterObjects;
+    }
+
+    void execute() throws SQLException {
+      if (stmt != null) {
+        updateCounts = stmt.executeBatch();
+      }
+      if (lastStmt != null) {
+        lastUpdateCounts = lastStmt.executeBatch();
+      }
     }
   }
 
@@ -62,11 +62,18 @@ public class BatchResult {
     return sql;
   }
 
+  /**
+   * @return the first parameter object, or null if the parameter objects were not retained
+   */
   @Deprecated
   public Object getParameterObject() {
-    return parameterObjects.get(0);
+    return parameterObjects.isEmpty() ? null : parameterObjects.get(0);
   }
 
+  /**
+   * @return the parameter objects of the rows, empty if they were not retained, see
+   *         {@link org.apache.ibatis.session.Configuration#isBatchParameterObjectsRetained()}
+   */
   public List<Object> getParameterObjects() {
     return parameterObjects;
   }
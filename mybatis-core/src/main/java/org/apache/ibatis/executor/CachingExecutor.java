@@ -20,14 +20,17 @@ import java.util.List;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheTagIndex;
 import org.apache.ibatis.cache.TransactionalCacheManager;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -40,6 +43,8 @@ public class CachingExecutor implements Executor {
 
   private final Executor delegate;
   private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  // whether the session wrote since its last commit or rollback, its reads may see these changes
+  private boolean pendingWrites;
 
   public CachingExecutor(Executor delegate) {
     this.delegate = delegate;
@@ -76,6 +81,7 @@ public class CachingExecutor implements Executor {
      * 是否进行缓存清理
      */
     flushCacheIfRequired(ms);
+    pendingWrites = true;
     return delegate.update(ms, parameterObject);
   }
 
@@ -112,8 +118,13 @@ public class CachingExecutor implements Executor {
          * 缓存为空，需要查库，并且将查询到的结果放入缓存
          */
         if (list == null) {
-          list = delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          list = queryDatabase(ms, parameterObject, rowBounds, key, boundSql, cache);
+          CacheTagIndex tagIndex = ms.getConfiguration().getCacheTagIndex(cache.getId());
+          if (tagIndex == null) {
+            tcm.putObject(cache, key, list); // issue #578 and #116
+          } else {
+            tcm.putObject(cache, key, list, tagIndex, ms.getCacheTags());
+          }
         }
         return list;
       }
@@ -121,6 +132,20 @@ public class CachingExecutor implements Executor {
     return delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  /**
+   * 单飞模式下，并发的相同查询共享一次数据库访问（本事务有未提交的写操作时不参与，它读到的数据别人不能用）
+   */
+  private <E> List<E> queryDatabase(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql, Cache cache)
+      throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    if (configuration.isCacheSingleFlightEnabled() && !pendingWrites && !tcm.isCleared(cache)) {
+      return configuration.getCacheSingleFlight().execute(key,
+          () -> delegate.<E>query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql),
+          configuration.isReadWriteCache(cache.getId()));
+    }
+    return delegate.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -130,6 +155,7 @@ public class CachingExecutor implements Executor {
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
     tcm.commit();
+    pendingWrites = false;
   }
 
   @Override
@@ -140,6 +166,7 @@ public class CachingExecutor implements Executor {
       if (required) {
         tcm.rollback();
       }
+      pendingWrites = false;
     }
   }
 
@@ -163,6 +190,11 @@ public class CachingExecutor implements Executor {
     return delegate.isCached(ms, key);
   }
 
+  @Override
+  public void putLocalCache(CacheKey key, List<?> list) {
+    delegate.putLocalCache(key, list);
+  }
+
   @Override
   public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
     delegate.deferLoad(ms, resultObject, property, key, targetType);
@@ -176,7 +208,15 @@ public class CachingExecutor implements Executor {
   private void flushCacheIfRequired(MappedStatement ms) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {
-      tcm.clear(cache);
+      /**
+       * 声明了修改的表（标签）的更新语句，只让依赖这些表的缓存失效
+       */
+      String[] tags = ms.getCacheTags();
+      if (tags != null && ms.getSqlCommandType() != SqlCommandType.SELECT) {
+        tcm.invalidate(cache, ms.getConfiguration().getCacheTagIndex(cache.getId()), tags);
+      } else {
+        tcm.clear(cache);
+      }
     }
   }
 
@@ -59,6 +59,13 @@ public interface Executor {
 
   boolean isCached(MappedStatement ms, CacheKey key);
 
+  /**
+   * Stores the result of a query loaded on its behalf, for instance by a batch select, in the local cache.
+   * Executors without a local cache ignore it, and the query is then run on its own when needed.
+   */
+  default void putLocalCache(CacheKey key, List<?> list) {
+  }
+
 
   void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType);
 
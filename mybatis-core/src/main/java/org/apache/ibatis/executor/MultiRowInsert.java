@@ -0,0 +1,194 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * The rows of an {@code INSERT ... VALUES (...)} statement queued by a batch executor, which are executed as
+ * multi-row inserts {@code INSERT ... VALUES (...), (...), ...} instead of one batch entry per row.
+ */
+final class MultiRowInsert {
+
+  private final String sql;
+  private final String values;
+  private final List<ParameterMapping> parameterMappings;
+  private final int rowsPerStatement;
+  /**
+   * 还没有绑定到Statement的行
+   */
+  private final List<DefaultParameterHandler> rows = new ArrayList<>();
+
+  private MultiRowInsert(String sql, String values, List<ParameterMapping> parameterMappings, int rowsPerStatement) {
+    this.sql = sql;
+    this.values = values;
+    this.parameterMappings = parameterMappings;
+    this.rowsPerStatement = rowsPerStatement;
+  }
+
+  /**
+   * @param maxParameters most parameters of a statement, see {@link Configuration#getBatchInsertRewriteMaxParameters()}
+   * @return null if the statement does not end with a single {@code VALUES} list holding all its parameters, or
+   *     does not allow several rows per statement
+   */
+  static MultiRowInsert newInstance(BoundSql boundSql, int maxRowsPerStatement, int maxParameters) {
+    final String sql = boundSql.getSql();
+    final List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    final int rowsPerStatement = Math.min(maxRowsPerStatement, maxParameters / Math.max(1, parameterMappings.size()));
+    if (rowsPerStatement < 2 || sql.contains("--") || sql.contains("/*")) {
+      return null;
+    }
+    int valuesStart = -1;
+    int valuesEnd = -1;
+    int depth = 0;
+    int parameters = 0;
+    char quote = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == '\\') {
+          /**
+           * MySQL的反斜杠转义，转义引号时标准SQL会在这里结束字符串，无法确定就不改写
+           */
+          if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+            return null;
+          }
+          i++;
+        } else if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+      switch (c) {
+        case '\'':
+        case '"':
+        case '`':
+          quote = c;
+          break;
+        case '?':
+          if (valuesStart < 0) {
+            return null;
+          }
+          parameters++;
+          break;
+        case '(':
+          if (depth++ == 0 && valuesStart < 0 && isAfterValuesKeyword(sql, i)) {
+            valuesStart = i;
+          }
+          break;
+        case ')':
+          if (--depth == 0 && valuesStart >= 0 && valuesEnd < 0) {
+            valuesEnd = i + 1;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    if (valuesEnd < 0 || !sql.substring(valuesEnd).trim().isEmpty() || parameters != parameterMappings.size()) {
+      return null;
+    }
+    return new MultiRowInsert(sql.substring(0, valuesEnd), sql.substring(valuesStart, valuesEnd), parameterMappings, rowsPerStatement);
+  }
+
+  private static boolean isAfterValuesKeyword(String sql, int index) {
+    int end = index;
+    while (end > 0 && Character.isWhitespace(sql.charAt(end - 1))) {
+      end--;
+    }
+    final int start = end - "values".length();
+    return start >= 0 && sql.regionMatches(true, start, "values", 0, "values".length())
+        && (start == 0 || !Character.isJavaIdentifierPart(sql.charAt(start - 1)));
+  }
+
+  int getRowsPerStatement() {
+    return rowsPerStatement;
+  }
+
+  void addRow(DefaultParameterHandler row) {
+    rows.add(row);
+  }
+
+  /**
+   * @return the number of rows not bound to a statement yet
+   */
+  int getRowCount() {
+    return rows.size();
+  }
+
+  boolean isFull() {
+    return rows.size() >= rowsPerStatement;
+  }
+
+  /**
+   * The insert of the given number of rows, with the parameter object of the first row not bound yet, if any.
+   */
+  BoundSql getBoundSql(Configuration configuration, int rowCount) {
+    final StringBuilder multiRowSql = new StringBuilder(sql.length() + (values.length() + 2) * (rowCount - 1)).append(sql);
+    final List<ParameterMapping> multiRowParameterMappings = new ArrayList<>(parameterMappings.size() * rowCount);
+    multiRowParameterMappings.addAll(parameterMappings);
+    for (int i = 1; i < rowCount; i++) {
+      multiRowSql.append(", ").append(values);
+      multiRowParameterMappings.addAll(parameterMappings);
+    }
+    return new BoundSql(configuration, multiRowSql.toString(), multiRowParameterMappings,
+        rows.isEmpty() ? null : rows.get(0).getParameterObject());
+  }
+
+  /**
+   * Binds the rows not bound yet, which must be as many as the rows of the statement.
+   */
+  void bindRows(PreparedStatement ps) {
+    for (int i = 0; i < rows.size(); i++) {
+      rows.get(i).setParameters(ps, i * parameterMappings.size());
+    }
+    rows.clear();
+  }
+
+  /**
+   * @return the update counts of the rows inserted by the given update counts of statements inserting
+   *     {@code rowCount} rows each, {@link Statement#SUCCESS_NO_INFO} for the rows of a statement the driver
+   *     reports it for
+   * @throws BatchUpdateException if a statement reports another number of rows, the rows inserted are unknown then
+   */
+  static int[] getRowUpdateCounts(int[] updateCounts, int rowCount) throws BatchUpdateException {
+    final int[] rowUpdateCounts = new int[updateCounts.length * rowCount];
+    for (int i = 0; i < updateCounts.length; i++) {
+      final int rowUpdateCount;
+      if (updateCounts[i] == rowCount) {
+        rowUpdateCount = 1;
+      } else if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+        rowUpdateCount = Statement.SUCCESS_NO_INFO;
+      } else {
+        throw new BatchUpdateException("Multi-row insert of " + rowCount + " rows (batch entry #" + (i + 1)
+            + ") reported an update count of " + updateCounts[i] + ".", Arrays.copyOf(rowUpdateCounts, i * rowCount));
+      }
+      Arrays.fill(rowUpdateCounts, i * rowCount, (i + 1) * rowCount, rowUpdateCount);
+    }
+    return rowUpdateCounts;
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
+
+/**
+ * Lets concurrent identical queries share one trip to the database.
+ * <p>
+ * The first thread to miss the cache for a key runs the query, threads asking for the same key meanwhile wait
+ * for its result instead of querying too. Each gets a list of its own holding the same objects, or, for a
+ * read/write cache, a copy of the result made by serialization like the cache would. If the query fails or
+ * takes longer than the timeout, they run it on their own. Callers must not use it for reads that may see
+ * uncommitted changes. A thread that is running a query never waits for another one, so nested selects cannot
+ * deadlock.
+ */
+public class SingleFlight {
+
+  private static final ThreadLocal<Boolean> LEADING = new ThreadLocal<>();
+
+  private final ConcurrentHashMap<CacheKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+  private final JavaCacheSerializer serializer = new JavaCacheSerializer();
+  private volatile long timeout = 10000;
+
+  /**
+   * Sets how long a thread waits for the same query run by another thread before running it itself, in
+   * milliseconds. Defaults to 10 seconds.
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public <E> List<E> execute(CacheKey key, Query<E> query) throws SQLException {
+    return execute(key, query, false);
+  }
+
+  /**
+   * @param copyResult whether the other threads get a serialized copy of the result rather than the same objects
+   */
+  @SuppressWarnings("unchecked")
+  public <E> List<E> execute(CacheKey key, Query<E> query, boolean copyResult) throws SQLException {
+    CompletableFuture<Object> call = new CompletableFuture<>();
+    CompletableFuture<Object> leader = inFlight.putIfAbsent(key, call);
+    if (leader != null) {
+      if (LEADING.get() == null) {
+        try {
+          Object shared = leader.get(timeout, TimeUnit.MILLISECONDS);
+          return shared instanceof byte[] ? (List<E>) serializer.deserialize((byte[]) shared)
+              : new ArrayList<>((List<E>) shared);
+        } catch (ExecutionException | TimeoutException | CacheException e) {
+          // the leader failed, possibly for reasons of its own, or is too slow
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return query.execute();
+    }
+    boolean outermost = LEADING.get() == null;
+    LEADING.set(Boolean.TRUE);
+    try {
+      List<E> result = query.execute();
+      inFlight.remove(key, call);
+      share(call, result, copyResult);
+      return result;
+    } catch (Throwable t) {
+      inFlight.remove(key, call);
+      call.completeExceptionally(t);
+      throw t;
+    } finally {
+      if (outermost) {
+        LEADING.remove();
+      }
+    }
+  }
+
+  /**
+   * 需要复制的话只序列化一次，每个等待的线程各自反序列化；无法序列化时让它们自己查询
+   */
+  private void share(CompletableFuture<Object> call, List<?> result, boolean copyResult) {
+    if (!copyResult) {
+      call.complete(result);
+      return;
+    }
+    try {
+      call.complete(serializer.serialize(result));
+    } catch (CacheException e) {
+      call.completeExceptionally(e);
+    }
+  }
+
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  public interface Query<E> {
+    List<E> execute() throws SQLException;
+  }
+
+}
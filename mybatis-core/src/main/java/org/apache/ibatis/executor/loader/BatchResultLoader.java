@@ -0,0 +1,156 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.binding.MapperMethod.ParamMap;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * Loads the results of a nested select for many keys at once, through the batch select of its property mapping
+ * ({@code batchSelect}) which receives the keys as a list. The nested objects are matched to the keys by their
+ * {@code batchKey} property.
+ * <p>
+ * Lazy loaders of the same property register here: the first one to load queries the keys of all its siblings
+ * not loaded yet, and puts the result of each one in the local cache of the executor under the cache key of its
+ * own nested select, where the sibling finds it when it loads.
+ * <p>
+ * Siblings whose result is not in the local cache when they load fall back to their own nested select, without
+ * any error:
+ * <ul>
+ * <li>with {@code localCacheScope=STATEMENT}, where the local cache does not outlive a query, so no batch select
+ * is run at all;</li>
+ * <li>after an update, commit or rollback of the session, which clear the local cache;</li>
+ * <li>when a loader loads on another thread than the one that mapped it, or after its session was closed, since
+ * it cannot use the executor of the session. The siblings still registered are batched by the next loader that
+ * loads on the session thread.</li>
+ * </ul>
+ */
+public class BatchResultLoader {
+
+  private final Configuration configuration;
+  private final Executor executor;
+  private final MappedStatement batchQuery;
+  private final String batchKey;
+  /**
+   * 还没有加载的懒加载器
+   */
+  private final List<ResultLoader> resultLoaders = new ArrayList<>();
+
+  public BatchResultLoader(Configuration configuration, Executor executor, MappedStatement batchQuery, String batchKey) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.batchQuery = batchQuery;
+    this.batchKey = batchKey;
+  }
+
+  public synchronized void addLoader(ResultLoader resultLoader) {
+    resultLoader.batchResultLoader = this;
+    resultLoaders.add(resultLoader);
+  }
+
+  /**
+   * Loads the results of the registered loaders not loaded yet into the local cache, unless the given loader
+   * cannot use the executor they were created with (closed, or another thread) or the local cache is cleared
+   * after every statement.
+   */
+  synchronized void load(ResultLoader resultLoader) throws SQLException {
+    if (resultLoaders.isEmpty() || !resultLoader.canUseExecutor()
+        || configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
+      return;
+    }
+    final Map<Object, List<ResultLoader>> loadersByKey = new LinkedHashMap<>();
+    for (ResultLoader loader : resultLoaders) {
+      if (!loader.loaded && loader.cacheKey != null) {
+        loadersByKey.computeIfAbsent(keyOf(loader.parameterObject), k -> new ArrayList<>()).add(loader);
+      }
+    }
+    resultLoaders.clear();
+    final List<Object> parameterObjects = new ArrayList<>(loadersByKey.size());
+    for (List<ResultLoader> loaders : loadersByKey.values()) {
+      parameterObjects.add(loaders.get(0).parameterObject);
+    }
+    final Map<Object, List<Object>> results = loadResults(parameterObjects);
+    for (Map.Entry<Object, List<ResultLoader>> entry : loadersByKey.entrySet()) {
+      final List<Object> list = results.getOrDefault(entry.getKey(), Collections.emptyList());
+      for (ResultLoader loader : entry.getValue()) {
+        executor.putLocalCache(loader.cacheKey, new ArrayList<>(list));
+      }
+    }
+  }
+
+  /**
+   * Runs the batch select for the given parameter objects, up to {@link Configuration#getNestedQueryBatchSize()}
+   * of them per query.
+   *
+   * @return the nested objects, grouped by {@link #keyOf(Object)} of their batch key
+   */
+  public Map<Object, List<Object>> loadResults(List<Object> parameterObjects) throws SQLException {
+    final Map<Object, List<Object>> results = new HashMap<>();
+    final int batchSize = Math.max(1, configuration.getNestedQueryBatchSize());
+    for (int from = 0; from < parameterObjects.size(); from += batchSize) {
+      final List<Object> keys = new ArrayList<>(parameterObjects.subList(from, Math.min(from + batchSize, parameterObjects.size())));
+      final ParamMap<Object> parameterObject = new ParamMap<>();
+      parameterObject.put("list", keys);
+      parameterObject.put("collection", keys);
+      final List<Object> nestedObjects = executor.query(batchQuery, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      for (Object nestedObject : nestedObjects) {
+        final Object key = configuration.newMetaObject(nestedObject).getValue(batchKey);
+        results.computeIfAbsent(keyOf(key), k -> new ArrayList<>()).add(nestedObject);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * 数值统一成Long（整数值）或者去掉末尾0的BigDecimal，父对象的列值和子对象的属性值类型可能不同（例如Integer和BigDecimal）
+   */
+  public static Object keyOf(Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    final BigDecimal decimal;
+    if (value instanceof BigDecimal) {
+      decimal = (BigDecimal) value;
+    } else if (value instanceof BigInteger) {
+      decimal = new BigDecimal((BigInteger) value);
+    } else if ((value instanceof Double || value instanceof Float) && Double.isFinite(((Number) value).doubleValue())) {
+      // the shortest decimal representation, so that 0.1f matches 0.1
+      decimal = new BigDecimal(value.toString());
+    } else {
+      return value;
+    }
+    try {
+      return decimal.longValueExact();
+    } catch (ArithmeticException e) {
+      return decimal.stripTrailingZeros();
+    }
+  }
+
+}
@@ -16,6 +16,7 @@
 package org.apache.ibatis.executor.loader;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.ResultExtractor;
@@ -30,8 +31,11 @@ import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.TransactionFactory;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * @author Clinton Begin
@@ -41,6 +45,11 @@ import java.util.List;
  */
 public class ResultLoader {
 
+  /**
+   * 在线程池中异步加载的线程，它上面的嵌套查询不再提交到线程池
+   */
+  private static final ThreadLocal<Boolean> LOADING_ASYNC = new ThreadLocal<>();
+
   protected final Configuration configuration;
   /**
    * 相关联的上一级执行器
@@ -72,6 +81,14 @@ public class ResultLoader {
 
   protected boolean loaded;
   protected Object resultObject;
+  /**
+   * 同一个属性的兄弟对象一起加载，见BatchResultLoader
+   */
+  protected BatchResultLoader batchResultLoader;
+  /**
+   * 在新建的Executor中查询时使用只读连接
+   */
+  protected boolean readOnly;
 
   public ResultLoader(Configuration config, Executor executor, MappedStatement mappedStatement, Object parameterObject, Class<?> targetType, CacheKey cacheKey, BoundSql boundSql) {
     this.configuration = config;
@@ -90,11 +107,43 @@ public class ResultLoader {
    * 懒加载结果
    */
   public Object loadResult() throws SQLException {
+    if (batchResultLoader != null && !loaded) {
+      /**
+       * 先把兄弟对象的结果一起查出来放入本地缓存，下面的查询会命中缓存
+       */
+      batchResultLoader.load(this);
+    }
     List<Object> list = selectList();
     resultObject = resultExtractor.extractObjectFromList(list, targetType);
+    loaded = true;
     return resultObject;
   }
 
+  /**
+   * Loads the result on a thread of the given pool, where it is queried with an executor of its own on a read-only
+   * connection. The nested selects of that result run on the same thread, see {@link #isLoadingAsync()}.
+   */
+  public Future<Object> loadResultAsync(ExecutorService executorService) {
+    readOnly = true;
+    return executorService.submit(() -> {
+      LOADING_ASYNC.set(Boolean.TRUE);
+      try {
+        return loadResult();
+      } finally {
+        LOADING_ASYNC.remove();
+        ErrorContext.instance().reset();
+      }
+    });
+  }
+
+  /**
+   * @return whether the current thread loads a result for {@link #loadResultAsync(ExecutorService)}, in which case
+   *     it must not wait for the pool it runs on
+   */
+  public static boolean isLoadingAsync() {
+    return LOADING_ASYNC.get() != null;
+  }
+
   /**
    * 查询结果
    */
@@ -103,24 +152,39 @@ public class ResultLoader {
     /**
      * 跨线程了，会有线程安全问题，所以需要重新创建一个
      */
-    if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
+    if (!canUseExecutor()) {
       localExecutor = newExecutor();
     }
+    Connection readOnlyConnection = null;
     try {
+      if (readOnly && localExecutor != executor) {
+        readOnlyConnection = localExecutor.getTransaction().getConnection();
+        readOnlyConnection.setReadOnly(true);
+      }
       /**
        * 查找结果
        */
       return localExecutor.query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
     } finally {
       /**
-       * 自己新建的Executor需要关闭
+       * 自己新建的Executor需要关闭，连接还给连接池之前恢复成可写
        */
       if (localExecutor != executor) {
-        localExecutor.close(false);
+        try {
+          if (readOnlyConnection != null) {
+            readOnlyConnection.setReadOnly(false);
+          }
+        } finally {
+          localExecutor.close(false);
+        }
       }
     }
   }
 
+  boolean canUseExecutor() {
+    return Thread.currentThread().getId() == creatorThreadId && !executor.isClosed();
+  }
+
   /**
    * 创建新的Executor对象
    */
@@ -0,0 +1,170 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.result.ResultMapException;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Creates result objects through a constructor resolved once per result map, column prefix and
+ * {@link ResultSetLayout}, instead of collecting the argument types and values of every row into lists and
+ * looking the constructor up again in {@link org.apache.ibatis.reflection.factory.ObjectFactory}.
+ * <p>
+ * Every argument is resolved to its column index and type handler, and the constructor to a {@link MethodHandle}
+ * of type {@code (Object[])Object}, which unboxes primitive arguments.
+ */
+final class CompiledConstructor {
+
+  private final ResultSetLayout layout;
+  private final Class<?> type;
+  private MethodHandle constructor;
+
+  private int size;
+  private int[] columnIndexes = new int[4];
+  private TypeHandler<?>[] typeHandlers = new TypeHandler<?>[4];
+  private Class<?>[] parameterTypes = new Class<?>[4];
+  /**
+   * 构造器映射，自动映射时为null
+   */
+  private ResultMapping[] mappings = new ResultMapping[4];
+
+  CompiledConstructor(ResultSetLayout layout, Class<?> type) {
+    this.layout = layout;
+    this.type = type;
+  }
+
+  /**
+   * Appends an argument, in the order of the constructor parameters.
+   */
+  void add(int columnIndex, TypeHandler<?> typeHandler, Class<?> parameterType, ResultMapping mapping) {
+    if (size == columnIndexes.length) {
+      int capacity = size << 1;
+      columnIndexes = Arrays.copyOf(columnIndexes, capacity);
+      typeHandlers = Arrays.copyOf(typeHandlers, capacity);
+      parameterTypes = Arrays.copyOf(parameterTypes, capacity);
+      mappings = Arrays.copyOf(mappings, capacity);
+    }
+    columnIndexes[size] = columnIndex;
+    typeHandlers[size] = typeHandler;
+    parameterTypes[size] = parameterType;
+    mappings[size] = mapping;
+    size++;
+  }
+
+  /**
+   * Resolves the constructor taking the arguments added so far.
+   *
+   * @return False if there is no such constructor or it cannot be accessed, the result map must then be mapped
+   *     through the object factory which reports the error if any
+   */
+  boolean compile() {
+    try {
+      return compile(type.getDeclaredConstructor(Arrays.copyOf(parameterTypes, size)));
+    } catch (NoSuchMethodException | SecurityException e) {
+      return false;
+    }
+  }
+
+  boolean compile(Constructor<?> resolvedConstructor) {
+    try {
+      constructor = unreflect(resolvedConstructor)
+          .asType(MethodType.genericMethodType(size))
+          .asSpreader(Object[].class, size);
+      return true;
+    } catch (IllegalAccessException | RuntimeException e) {
+      constructor = null;
+      return false;
+    }
+  }
+
+  private static MethodHandle unreflect(Constructor<?> resolvedConstructor) throws IllegalAccessException {
+    try {
+      return MethodHandles.lookup().unreflectConstructor(resolvedConstructor);
+    } catch (IllegalAccessException e) {
+      //如果可以压制访问检查，设置构造器可访问，再次查找
+      if (Reflector.canControlMemberAccessible()) {
+        resolvedConstructor.setAccessible(true);
+        return MethodHandles.lookup().unreflectConstructor(resolvedConstructor);
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  boolean isSupported() {
+    return constructor != null;
+  }
+
+  /**
+   * Whether this constructor can create the rows of result sets with the given layout.
+   */
+  boolean isCompiledFor(ResultSetLayout resultSetLayout) {
+    return layout == resultSetLayout;
+  }
+
+  /**
+   * @return the new object, or null if all the arguments are null
+   */
+  Object newInstance(ResultSet rs) throws SQLException {
+    final Object[] args = new Object[size];
+    boolean foundValues = false;
+    for (int i = 0; i < size; i++) {
+      final Object value;
+      try {
+        value = typeHandlers[i].getResult(rs, columnIndexes[i]);
+      } catch (ResultMapException | SQLException e) {
+        if (mappings[i] == null) {
+          throw e;
+        }
+        throw new ExecutorException("Could not process result for mapping: " + mappings[i], e);
+      }
+      args[i] = value;
+      foundValues = value != null || foundValues;
+    }
+    if (!foundValues) {
+      return null;
+    }
+    try {
+      return (Object) constructor.invokeExact(args);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable t) {
+      final StringJoiner argTypes = new StringJoiner(",");
+      for (int i = 0; i < size; i++) {
+        argTypes.add(parameterTypes[i].getSimpleName());
+      }
+      final StringJoiner argValues = new StringJoiner(",");
+      for (Object arg : args) {
+        argValues.add(String.valueOf(arg));
+      }
+      throw new ReflectionException("Error instantiating " + type + " with invalid types (" + argTypes + ") or values (" + argValues + "). Cause: " + t, t);
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.lang.invoke.MethodHandle;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Maps the columns of a row onto a plain bean without going through {@link org.apache.ibatis.reflection.MetaObject}.
+ * <p>
+ * Compiled once per result map, column prefix and {@link ResultSetLayout}: every mapped column is resolved to its index,
+ * its type handler and a setter {@link MethodHandle} of type {@code (Object, Object)void}, so mapping a row
+ * is a loop over arrays.
+ */
+final class CompiledRowMapper {
+
+  private final ResultSetLayout layout;
+  private final Class<?> type;
+  private final boolean callSettersOnNulls;
+  private boolean supported = true;
+
+  private int size;
+  private int[] columnIndexes = new int[8];
+  private TypeHandler<?>[] typeHandlers = new TypeHandler<?>[8];
+  private String[] properties = new String[8];
+  private MethodHandle[] setters = new MethodHandle[8];
+  private boolean[] primitives = new boolean[8];
+
+  CompiledRowMapper(ResultSetLayout layout, Class<?> type, boolean callSettersOnNulls) {
+    this.layout = layout;
+    this.type = type;
+    this.callSettersOnNulls = callSettersOnNulls;
+  }
+
+  /**
+   * Appends a column, columns are mapped in the order they were added.
+   */
+  void add(int columnIndex, TypeHandler<?> typeHandler, String property, MethodHandle setter, boolean primitive) {
+    if (size == columnIndexes.length) {
+      int capacity = size << 1;
+      columnIndexes = Arrays.copyOf(columnIndexes, capacity);
+      typeHandlers = Arrays.copyOf(typeHandlers, capacity);
+      properties = Arrays.copyOf(properties, capacity);
+      setters = Arrays.copyOf(setters, capacity);
+      primitives = Arrays.copyOf(primitives, capacity);
+    }
+    columnIndexes[size] = columnIndex;
+    typeHandlers[size] = typeHandler;
+    properties[size] = property;
+    setters[size] = setter;
+    primitives[size] = primitive;
+    size++;
+  }
+
+  /**
+   * Marks the result map as one that must be mapped through {@link org.apache.ibatis.reflection.MetaObject}.
+   */
+  void unsupported() {
+    supported = false;
+  }
+
+  boolean isSupported() {
+    return supported;
+  }
+
+  /**
+   * Whether this mapper can map the rows of result sets with the given layout onto instances of the given class.
+   */
+  boolean isCompiledFor(ResultSetLayout resultSetLayout, Class<?> rowType) {
+    return layout == resultSetLayout && type == rowType;
+  }
+
+  /**
+   * @return True if any column was not null
+   */
+  boolean map(ResultSet rs, Object rowValue) throws SQLException {
+    boolean foundValues = false;
+    for (int i = 0; i < size; i++) {
+      final Object value = typeHandlers[i].getResult(rs, columnIndexes[i]);
+      if (value != null) {
+        foundValues = true;
+      }
+      if (value != null || (callSettersOnNulls && !primitives[i])) {
+        // gcode issue #377, call setter on nulls (value is not 'found')
+        try {
+          setters[i].invokeExact(rowValue, value);
+        } catch (Throwable t) {
+          throw new ReflectionException("Could not set property '" + properties[i] + "' of '" + type + "' with value '" + value + "' Cause: " + t.toString(), t);
+        }
+      }
+    }
+    return foundValues;
+  }
+
+}
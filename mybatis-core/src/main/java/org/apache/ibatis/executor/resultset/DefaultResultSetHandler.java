@@ -15,18 +15,26 @@
  */
 package org.apache.ibatis.executor.resultset;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Constructor;
 import java.sql.CallableStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.ibatis.annotations.AutomapConstructor;
 import org.apache.ibatis.binding.MapperMethod.ParamMap;
@@ -36,12 +44,17 @@ import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.result.DefaultMapResultHandler;
 import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.executor.result.DefaultResultHandler;
 import org.apache.ibatis.executor.result.ResultMapException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.Discriminator;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -51,14 +64,21 @@ import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.Reflector;
 import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.wrapper.BeanWrapper;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.type.ByteTypeHandler;
+import org.apache.ibatis.type.IntegerTypeHandler;
 import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.LongTypeHandler;
+import org.apache.ibatis.type.ShortTypeHandler;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
@@ -70,8 +90,12 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
  */
 public class DefaultResultSetHandler implements ResultSetHandler {
 
+  private static final Log log = LogFactory.getLog(DefaultResultSetHandler.class);
+
   private static final Object DEFERRED = new Object();
 
+  private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
   private final Executor executor;
   private final Configuration configuration;
   private final MappedStatement mappedStatement;
@@ -84,33 +108,61 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private final ReflectorFactory reflectorFactory;
 
   // nested resultmaps
-  private final Map<CacheKey, Object> nestedResultObjects = new HashMap<>();
+  private final Map<RowKey, Object> nestedResultObjects = new HashMap<>();
   private final Map<String, Object> ancestorObjects = new HashMap<>();
   private Object previousRowValue;
+  private RowKey previousRowKey;
+  // a cursor maps the rows one by one, the statement is checked only once
+  private boolean nestedResultStreamingChecked;
+  // reusable row keys, one per nesting depth
+  private final List<RowKey> rowKeyProbes = new ArrayList<>();
 
   // multiple resultsets
   private final Map<String, ResultMapping> nextResultMaps = new HashMap<>();
-  private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<>();
+  private final Map<String, PendingRelationIndex> pendingRelations = new HashMap<>();
+
+  // eager nested selects with a batch select, loaded once the result set is handled
+  private final Map<ResultMapping, List<PendingNestedQuery>> pendingNestedQueries = new LinkedHashMap<>();
+  private boolean nestedQueryBatching;
+  // lazy nested selects with a batch select, loading all their siblings at once
+  private final Map<ResultMapping, BatchResultLoader> lazyBatchResultLoaders = new HashMap<>();
 
-  // Cached Automappings
+  // eager nested selects of the current row running in parallel, see Configuration#getNestedQueryExecutorService()
+  private final List<PendingNestedLoad> pendingNestedLoads = new ArrayList<>();
+  private final Map<String, Boolean> parallelNestedQueryMaps = new HashMap<>();
+  private ExecutorService nestedQueryExecutorService;
+
+  // Cached Automappings, in front of the ones shared through the ResultSetLayout
   private final Map<String, List<UnMappedColumnAutoMapping>> autoMappingsCache = new HashMap<>();
 
+  // Compiled row mappers, see Configuration#isCompiledRowMappingEnabled()
+  private final Map<String, CompiledRowMapper> compiledRowMappers = new HashMap<>();
+  private final Map<String, CompiledConstructor> compiledConstructors = new HashMap<>();
+
   // temporary marking flag that indicate using constructor mapping (use field to reduce memory usage)
   private boolean useConstructorMappings;
 
-  private static class PendingRelation {
+  private static class PendingNestedQuery {
     public MetaObject metaObject;
-    public ResultMapping propertyMapping;
+    public Object parameterObject;
   }
 
-  private static class UnMappedColumnAutoMapping {
+  private static class PendingNestedLoad {
+    public String property;
+    public ResultLoader resultLoader;
+    public Future<Object> future;
+  }
+
+  static class UnMappedColumnAutoMapping {
     private final String column;
+    private final int columnIndex;
     private final String property;
     private final TypeHandler<?> typeHandler;
     private final boolean primitive;
 
-    public UnMappedColumnAutoMapping(String column, String property, TypeHandler<?> typeHandler, boolean primitive) {
+    public UnMappedColumnAutoMapping(String column, int columnIndex, String property, TypeHandler<?> typeHandler, boolean primitive) {
       this.column = column;
+      this.columnIndex = columnIndex;
       this.property = property;
       this.typeHandler = typeHandler;
       this.primitive = primitive;
@@ -369,6 +421,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private void cleanUpAfterHandlingResultSet() {
     nestedResultObjects.clear();
+    // the next result set may have other columns at other positions
+    autoMappingsCache.clear();
+    compiledRowMappers.clear();
+    compiledConstructors.clear();
   }
 
   private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -387,6 +443,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    */
   private void handleResultSet(ResultSetWrapper rsw, ResultMap resultMap, List<Object> multipleResults, ResultMapping parentMapping) throws SQLException {
     try {
+      /**
+       * 结果对象在结果集处理完之后才交给调用者时，才能批量执行关联子查询
+       */
+      nestedQueryBatching = parentMapping != null || resultHandler == null;
       if (parentMapping != null) {
         /**
          *  非基本属性对应一个结果集（多结果集中的一个），因此没有特定的结果处理器
@@ -411,9 +471,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     } finally {
+      nestedQueryBatching = false;
       // issue #228 (close resultsets)
       closeResultSet(rsw.getResultSet());
     }
+    loadPendingNestedQueries();
   }
 
   @SuppressWarnings("unchecked")
@@ -569,22 +631,101 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (rowValue != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
       final MetaObject metaObject = configuration.newMetaObject(rowValue);
       boolean foundValues = this.useConstructorMappings;
-      /**
-       * 自动映射下，通过自动映射映射没有映射的列
-       */
-      if (shouldApplyAutomaticMappings(resultMap, false)) {
-        foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
+      final CompiledRowMapper rowMapper = configuration.isCompiledRowMappingEnabled()
+          ? getCompiledRowMapper(rsw, resultMap, metaObject, columnPrefix) : null;
+      if (rowMapper != null) {
+        /**
+         * 使用编译好的映射器：按列的位置读取，通过MethodHandle调用setter
+         */
+        foundValues = rowMapper.map(rsw.getResultSet(), rowValue) || foundValues;
+      } else {
+        /**
+         * 自动映射下，通过自动映射映射没有映射的列
+         */
+        if (shouldApplyAutomaticMappings(resultMap, false)) {
+          foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
+        }
+        /**
+         * 设置属性的值
+         */
+        foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
       }
-      /**
-       * 设置属性的值
-       */
-      foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
       foundValues = lazyLoader.size() > 0 || foundValues;
       rowValue = foundValues || configuration.isReturnInstanceForEmptyRow() ? rowValue : null;
     }
     return rowValue;
   }
 
+  /**
+   * 获取（或编译）结果集的行映射器，不能编译时返回null
+   */
+  private CompiledRowMapper getCompiledRowMapper(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+    final String mapKey = resultMap.getId() + ":" + columnPrefix;
+    final Class<?> rowType = metaObject.getOriginalObject().getClass();
+    CompiledRowMapper rowMapper = compiledRowMappers.get(mapKey);
+    if (rowMapper == null || !rowMapper.isCompiledFor(rsw.getLayout(), rowType)) {
+      /**
+       * 同样的列的结果集共享编译好的映射器
+       */
+      final Map<String, CompiledRowMapper> sharedRowMappers = rsw.getLayout().compiledRowMappers;
+      rowMapper = sharedRowMappers.get(mapKey);
+      if (rowMapper == null || !rowMapper.isCompiledFor(rsw.getLayout(), rowType)) {
+        rowMapper = compileRowMapper(rsw, resultMap, metaObject, rowType, columnPrefix);
+        sharedRowMappers.put(mapKey, rowMapper);
+      }
+      compiledRowMappers.put(mapKey, rowMapper);
+    }
+    return rowMapper.isSupported() ? rowMapper : null;
+  }
+
+  /**
+   * 编译行映射器，只支持普通JavaBean上的简单列映射（没有子查询、多结果集、组合列和嵌套属性）
+   */
+  private CompiledRowMapper compileRowMapper(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, Class<?> rowType, String columnPrefix)
+      throws SQLException {
+    final CompiledRowMapper rowMapper = new CompiledRowMapper(rsw.getLayout(), rowType, configuration.isCallSettersOnNulls());
+    if (!(metaObject.getObjectWrapper() instanceof BeanWrapper)) {
+      rowMapper.unsupported();
+      return rowMapper;
+    }
+    final Reflector reflector = reflectorFactory.findForClass(rowType);
+    if (shouldApplyAutomaticMappings(resultMap, false)) {
+      for (UnMappedColumnAutoMapping mapping : createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix)) {
+        if (!addCompiledMapping(rowMapper, reflector, mapping.columnIndex, mapping.typeHandler, mapping.property)) {
+          rowMapper.unsupported();
+          return rowMapper;
+        }
+      }
+    }
+    final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
+    final int[] columnIndexes = rsw.getPropertyMappingColumnIndexes(resultMap, columnPrefix);
+    for (int i = 0; i < columnIndexes.length; i++) {
+      final ResultMapping propertyMapping = propertyMappings.get(i);
+      if (propertyMapping.getNestedQueryId() != null || propertyMapping.getResultSet() != null || propertyMapping.isCompositeResult()) {
+        rowMapper.unsupported();
+        return rowMapper;
+      }
+      if (columnIndexes[i] > 0 && propertyMapping.getProperty() != null
+          && !addCompiledMapping(rowMapper, reflector, columnIndexes[i], propertyMapping.getTypeHandler(), propertyMapping.getProperty())) {
+        rowMapper.unsupported();
+        return rowMapper;
+      }
+    }
+    return rowMapper;
+  }
+
+  private boolean addCompiledMapping(CompiledRowMapper rowMapper, Reflector reflector, int columnIndex, TypeHandler<?> typeHandler, String property) {
+    if (property.indexOf('.') >= 0 || property.indexOf('[') >= 0 || !reflector.hasSetter(property)) {
+      return false;
+    }
+    final MethodHandle setter = reflector.getSetterHandle(property);
+    if (setter == null) {
+      return false;
+    }
+    rowMapper.add(columnIndex, typeHandler, property, setter, reflector.getSetterType(property).isPrimitive());
+    return true;
+  }
+
   /**
    * 是否使用自动映射
    */
@@ -609,50 +750,118 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    */
   private boolean applyPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, ResultLoaderMap lazyLoader, String columnPrefix)
       throws SQLException {
-    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    /**
+     * 结果集中存在的列的位置（内嵌resultMap的列被忽略：the user added a column attribute to a nested result map）
+     */
+    final int[] columnIndexes = rsw.getPropertyMappingColumnIndexes(resultMap, columnPrefix);
     boolean foundValues = false;
     final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
-    for (ResultMapping propertyMapping : propertyMappings) {
-      String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
-      /**
-       * 属性对应一个内嵌的resultMap
-       */
-      if (propertyMapping.getNestedResultMapId() != null) {
-        // the user added a column attribute to a nested result map, ignore it
-        column = null;
-      }
-      if (propertyMapping.isCompositeResult()
-          || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH)))
-          || propertyMapping.getResultSet() != null) {
-        /**
-         * 映射属性的值
-         */
-        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix);
-        // issue #541 make property optional
-        final String property = propertyMapping.getProperty();
-        if (property == null) {
-          continue;
-        } else if (value == DEFERRED) {
-          foundValues = true;
-          continue;
+    nestedQueryExecutorService = getNestedQueryExecutorService(resultMap);
+    try {
+      for (int i = 0; i < columnIndexes.length; i++) {
+        final ResultMapping propertyMapping = propertyMappings.get(i);
+        if (propertyMapping.isCompositeResult()
+            || columnIndexes[i] > 0
+            || propertyMapping.getResultSet() != null) {
+          /**
+           * 映射属性的值
+           */
+          Object value = getPropertyMappingValue(rsw, metaObject, propertyMapping, lazyLoader, columnPrefix, columnIndexes[i]);
+          // issue #541 make property optional
+          final String property = propertyMapping.getProperty();
+          if (property == null) {
+            continue;
+          } else if (value == DEFERRED) {
+            foundValues = true;
+            continue;
+          }
+          if (value != null) {
+            foundValues = true;
+          }
+          if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
+            // gcode issue #377, call setter on nulls (value is not 'found')
+            metaObject.setValue(property, value);
+          }
         }
-        if (value != null) {
-          foundValues = true;
+      }
+      joinPendingNestedLoads(metaObject);
+    } finally {
+      nestedQueryExecutorService = null;
+      for (PendingNestedLoad pending : pendingNestedLoads) {
+        pending.future.cancel(true);
+      }
+      pendingNestedLoads.clear();
+    }
+    return foundValues;
+  }
+
+  /**
+   * @return the pool to run the nested selects of the result map on, or null if they must run within the session
+   */
+  private ExecutorService getNestedQueryExecutorService(ResultMap resultMap) {
+    final ExecutorService executorService = configuration.getNestedQueryExecutorService();
+    if (executorService == null || !resultMap.hasNestedQueries()) {
+      return null;
+    }
+    /**
+     * 已经在线程池的线程上，等待同一个线程池会死锁
+     */
+    if (ResultLoader.isLoadingAsync()) {
+      return null;
+    }
+    /**
+     * 只有一个子查询时并行没有意义
+     */
+    final Boolean parallel = parallelNestedQueryMaps.computeIfAbsent(resultMap.getId(), id -> {
+      int nestedQueries = 0;
+      for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+        if (propertyMapping.getNestedQueryId() != null && !propertyMapping.isLazy()) {
+          nestedQueries++;
         }
-        if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
-          // gcode issue #377, call setter on nulls (value is not 'found')
-          metaObject.setValue(property, value);
+      }
+      return nestedQueries > 1;
+    });
+    return parallel ? executorService : null;
+  }
+
+  /**
+   * Waits for the nested selects of the row running in parallel and sets their values. The ones the pool has not
+   * started yet are loaded by the current thread instead, so that it never waits for a busy pool.
+   */
+  private void joinPendingNestedLoads(MetaObject metaObject) throws SQLException {
+    for (PendingNestedLoad pending : pendingNestedLoads) {
+      final Object value;
+      try {
+        value = pending.future.cancel(false) ? pending.resultLoader.loadResult() : pending.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutorException("Interrupted while loading property '" + pending.property + "'.", e);
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
         }
+        throw new ExecutorException("Error loading property '" + pending.property + "'. Cause: " + cause, cause);
+      }
+      if (pending.property == null) {
+        continue;
+      }
+      if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(pending.property).isPrimitive())) {
+        metaObject.setValue(pending.property, value);
       }
     }
-    return foundValues;
   }
 
   /**
    * 获取属性的值
    */
-  private Object getPropertyMappingValue(ResultSet rs, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix)
-      throws SQLException {
+  private Object getPropertyMappingValue(ResultSetWrapper rsw, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix,
+      int columnIndex) throws SQLException {
+    final ResultSet rs = rsw.getResultSet();
     if (propertyMapping.getNestedQueryId() != null) {
       /**
        * 属性对应子查询的值
@@ -669,6 +878,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
        * 基础类型的属性，使用typeHandler搞定
        */
       final TypeHandler<?> typeHandler = propertyMapping.getTypeHandler();
+      if (columnIndex > 0) {
+        return typeHandler.getResult(rs, columnIndex);
+      }
       final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
       return typeHandler.getResult(rs, column);
     }
@@ -681,6 +893,14 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final String mapKey = resultMap.getId() + ":" + columnPrefix;
     List<UnMappedColumnAutoMapping> autoMapping = autoMappingsCache.get(mapKey);
     if (autoMapping == null) {
+      /**
+       * 同样的列的结果集共享自动映射
+       */
+      autoMapping = rsw.getLayout().autoMappingsMap.get(mapKey);
+      if (autoMapping != null) {
+        autoMappingsCache.put(mapKey, autoMapping);
+        return autoMapping;
+      }
       autoMapping = new ArrayList<>();
       final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
       for (String columnName : unmappedColumnNames) {
@@ -715,7 +935,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           final Class<?> propertyType = metaObject.getSetterType(property);
           if (typeHandlerRegistry.hasTypeHandler(propertyType, rsw.getJdbcType(columnName))) {
             final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
-            autoMapping.add(new UnMappedColumnAutoMapping(columnName, property, typeHandler, propertyType.isPrimitive()));
+            autoMapping.add(new UnMappedColumnAutoMapping(columnName, rsw.getColumnIndex(columnName), property, typeHandler, propertyType.isPrimitive()));
           } else {
             /**
              * 不能映射该怎么做（什么都不做：默认，打印日志、抛出异常）
@@ -732,6 +952,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
       autoMappingsCache.put(mapKey, autoMapping);
+      rsw.getLayout().autoMappingsMap.put(mapKey, autoMapping);
     }
     return autoMapping;
   }
@@ -744,7 +965,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     boolean foundValues = false;
     if (!autoMapping.isEmpty()) {
       for (UnMappedColumnAutoMapping mapping : autoMapping) {
-        final Object value = mapping.typeHandler.getResult(rsw.getResultSet(), mapping.column);
+        final Object value = mapping.typeHandler.getResult(rsw.getResultSet(), mapping.columnIndex);
         if (value != null) {
           foundValues = true;
         }
@@ -763,13 +984,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    * 将子resultMap映射对象设置到父resultMap映射对象的属性上
    */
   private void linkToParents(ResultSet rs, ResultMapping parentMapping, Object rowValue) throws SQLException {
-    CacheKey parentKey = createKeyForMultipleResults(rs, parentMapping, parentMapping.getColumn(), parentMapping.getForeignColumn());
-    List<PendingRelation> parents = pendingRelations.get(parentKey);
-    if (parents != null) {
-      for (PendingRelation parent : parents) {
-        if (parent != null && rowValue != null) {
-          linkObjects(parent.metaObject, parent.propertyMapping, rowValue);
-        }
+    final PendingRelationIndex relations = pendingRelations.get(parentMapping.getResultSet());
+    if (relations != null && rowValue != null) {
+      for (MetaObject parent : relations.getParents(rs)) {
+        linkObjects(parent, parentMapping, rowValue);
       }
     }
   }
@@ -778,61 +996,24 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    * 属性的值是用过resultSet属性指定的结果集来映射的
    */
   private void addPendingChildRelation(ResultSet rs, MetaObject metaResultObject, ResultMapping parentMapping) throws SQLException {
-    /**
-     * 创建缓存的key（入参有bug）
-     */
-    CacheKey cacheKey = createKeyForMultipleResults(rs, parentMapping, parentMapping.getColumn(), parentMapping.getColumn());
-    PendingRelation deferLoad = new PendingRelation();
-    /**
-     * 使用延迟加载来映射具有resultSet属性的属性映射
-     */
-    deferLoad.metaObject = metaResultObject;
-    deferLoad.propertyMapping = parentMapping;
-    List<PendingRelation> relations = pendingRelations.computeIfAbsent(cacheKey, k -> new ArrayList<>());
-    // issue #255
-    /**
-     * 缓存延迟映射的钩子
-     */
-    relations.add(deferLoad);
-    ResultMapping previous = nextResultMaps.get(parentMapping.getResultSet());
+    final String resultSet = parentMapping.getResultSet();
+    ResultMapping previous = nextResultMaps.get(resultSet);
     if (previous == null) {
       /**
        * 记录延迟映射的属性
        */
-      nextResultMaps.put(parentMapping.getResultSet(), parentMapping);
+      nextResultMaps.put(resultSet, parentMapping);
+      pendingRelations.put(resultSet, new PendingRelationIndex(parentMapping.getColumn(), parentMapping.getForeignColumn()));
     } else {
       if (!previous.equals(parentMapping)) {
         throw new ExecutorException("Two different properties are mapped to the same resultSet");
       }
     }
-  }
-
-  /**
-   * 多结果集缓存的key（需要和resultMapping确定一一对应关系）
-   *
-   * 重点：使用到了属性所对应的子结果集中的列值构建，为了能命中，子结果集中的所有该列的值必须是一样的
-   * （潜意识觉得后一个结果集是使用前一个结果集的某个列的值（外）求取的）
-   *
-   * 用来找到PendingLoad对象
-   */
-  private CacheKey createKeyForMultipleResults(ResultSet rs, ResultMapping resultMapping, String names, String columns) throws SQLException {
-    CacheKey cacheKey = new CacheKey();
-    cacheKey.update(resultMapping);
-    if (columns != null && names != null) {
-      String[] columnsArray = columns.split(",");
-      String[] namesArray = names.split(",");
-      for (int i = 0; i < columnsArray.length; i++) {
-        Object value = rs.getString(columnsArray[i]);
-        if (value != null) {
-          /**
-           *
-           */
-          cacheKey.update(namesArray[i]);
-          cacheKey.update(value);
-        }
-      }
-    }
-    return cacheKey;
+    // issue #255
+    /**
+     * 按column的值索引父对象，子结果集的行按foreignColumn的值找到父对象
+     */
+    pendingRelations.get(resultSet).addParent(rs, metaResultObject);
   }
 
   //
@@ -841,6 +1022,14 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private Object createResultObject(ResultSetWrapper rsw, ResultMap resultMap, ResultLoaderMap lazyLoader, String columnPrefix) throws SQLException {
     this.useConstructorMappings = false; // reset previous mapping result
+    if (configuration.isCompiledRowMappingEnabled()) {
+      final CompiledConstructor compiledConstructor = getCompiledConstructor(rsw, resultMap, columnPrefix);
+      if (compiledConstructor != null) {
+        final Object resultObject = compiledConstructor.newInstance(rsw.getResultSet());
+        this.useConstructorMappings = resultObject != null;
+        return resultObject;
+      }
+    }
     final List<Class<?>> constructorArgTypes = new ArrayList<>();
     final List<Object> constructorArgs = new ArrayList<>();
     /**
@@ -870,6 +1059,70 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return resultObject;
   }
 
+  /**
+   * @return the compiled constructor of the result map, or null if its objects are not created by a constructor
+   *     with arguments or cannot be created without the object factory
+   */
+  private CompiledConstructor getCompiledConstructor(ResultSetWrapper rsw, ResultMap resultMap, String columnPrefix) throws SQLException {
+    final String mapKey = resultMap.getId() + ":" + columnPrefix;
+    CompiledConstructor compiledConstructor = compiledConstructors.get(mapKey);
+    if (compiledConstructor == null || !compiledConstructor.isCompiledFor(rsw.getLayout())) {
+      /**
+       * 同样的列的结果集共享编译好的构造器
+       */
+      final Map<String, CompiledConstructor> sharedConstructors = rsw.getLayout().compiledConstructors;
+      compiledConstructor = sharedConstructors.get(mapKey);
+      if (compiledConstructor == null || !compiledConstructor.isCompiledFor(rsw.getLayout())) {
+        compiledConstructor = compileConstructor(rsw, resultMap, columnPrefix);
+        sharedConstructors.put(mapKey, compiledConstructor);
+      }
+      compiledConstructors.put(mapKey, compiledConstructor);
+    }
+    return compiledConstructor.isSupported() ? compiledConstructor : null;
+  }
+
+  /**
+   * 编译构造器，只支持简单列的构造器映射和自动映射的构造器，懒加载需要构造器参数来创建代理，自定义ObjectFactory也不支持
+   */
+  private CompiledConstructor compileConstructor(ResultSetWrapper rsw, ResultMap resultMap, String columnPrefix) throws SQLException {
+    final Class<?> resultType = resultMap.getType();
+    final CompiledConstructor compiledConstructor = new CompiledConstructor(rsw.getLayout(), resultType);
+    if (objectFactory.getClass() != DefaultObjectFactory.class || resultType.isInterface()
+        || hasTypeHandlerForResultObject(rsw, resultType)) {
+      return compiledConstructor;
+    }
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      if (propertyMapping.getNestedQueryId() != null && propertyMapping.isLazy()) {
+        return compiledConstructor;
+      }
+    }
+    final List<ResultMapping> constructorMappings = resultMap.getConstructorResultMappings();
+    if (!constructorMappings.isEmpty()) {
+      for (ResultMapping constructorMapping : constructorMappings) {
+        if (constructorMapping.getNestedQueryId() != null || constructorMapping.getNestedResultMapId() != null) {
+          return compiledConstructor;
+        }
+        final int columnIndex = rsw.getColumnIndex(prependPrefix(constructorMapping.getColumn(), columnPrefix));
+        if (columnIndex < 1) {
+          return compiledConstructor;
+        }
+        compiledConstructor.add(columnIndex, constructorMapping.getTypeHandler(), constructorMapping.getJavaType(), constructorMapping);
+      }
+      compiledConstructor.compile();
+    } else if (!MetaClass.forClass(resultType, reflectorFactory).hasDefaultConstructor() && shouldApplyAutomaticMappings(resultMap, false)) {
+      final Constructor<?> constructor = findConstructorForAutomapping(rsw, resultType);
+      if (constructor != null && constructor.getParameterCount() <= rsw.getColumnNames().size()) {
+        final Class<?>[] parameterTypes = constructor.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+          final TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterTypes[i], rsw.getColumnNames().get(i));
+          compiledConstructor.add(i + 1, typeHandler, parameterTypes[i], null);
+        }
+        compiledConstructor.compile(constructor);
+      }
+    }
+    return compiledConstructor;
+  }
+
   /**
    * 构造一列对应的对象
    *    1、是一个基本类型的对象
@@ -936,7 +1189,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
            * 一个简单类型的值
            */
           final TypeHandler<?> typeHandler = constructorMapping.getTypeHandler();
-          value = typeHandler.getResult(rsw.getResultSet(), prependPrefix(column, columnPrefix));
+          value = getColumnValue(rsw, typeHandler, prependPrefix(column, columnPrefix));
         }
       } catch (ResultMapException | SQLException e) {
         throw new ExecutorException("Could not process result for mapping: " + constructorMapping, e);
@@ -961,30 +1214,37 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    *    3、选择使用所有列都用于构造参数的构造器
    */
   private Object createByConstructorSignature(ResultSetWrapper rsw, Class<?> resultType, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) throws SQLException {
-    final Constructor<?>[] constructors = resultType.getDeclaredConstructors();
     /**
      * 找一个合适的构造器
      */
-    final Constructor<?> defaultConstructor = findDefaultConstructor(constructors);
+    final Constructor<?> constructor = findConstructorForAutomapping(rsw, resultType);
+    if (constructor == null) {
+      /**
+       * 自动映射失败，报错
+       */
+      throw new ExecutorException("No constructor found in " + resultType.getName() + " matching " + rsw.getClassNames());
+    }
     /**
      * 构造对象
      */
+    return createUsingConstructor(rsw, resultType, constructorArgTypes, constructorArgs, constructor);
+  }
+
+  private Constructor<?> findConstructorForAutomapping(ResultSetWrapper rsw, Class<?> resultType) {
+    final Constructor<?>[] constructors = resultType.getDeclaredConstructors();
+    final Constructor<?> defaultConstructor = findDefaultConstructor(constructors);
     if (defaultConstructor != null) {
-      return createUsingConstructor(rsw, resultType, constructorArgTypes, constructorArgs, defaultConstructor);
-    } else {
-      for (Constructor<?> constructor : constructors) {
-        /**
-         * 结果集的所有列都是构造器的参数
-         */
-        if (allowedConstructorUsingTypeHandlers(constructor, rsw.getJdbcTypes())) {
-          return createUsingConstructor(rsw, resultType, constructorArgTypes, constructorArgs, constructor);
-        }
+      return defaultConstructor;
+    }
+    for (Constructor<?> constructor : constructors) {
+      /**
+       * 结果集的所有列都是构造器的参数
+       */
+      if (allowedConstructorUsingTypeHandlers(constructor, rsw.getJdbcTypes())) {
+        return constructor;
       }
     }
-    /**
-     * 自动映射失败，报错
-     */
-    throw new ExecutorException("No constructor found in " + resultType.getName() + " matching " + rsw.getClassNames());
+    return null;
   }
 
   /**
@@ -999,7 +1259,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       Class<?> parameterType = constructor.getParameterTypes()[i];
       String columnName = rsw.getColumnNames().get(i);
       TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterType, columnName);
-      Object value = typeHandler.getResult(rsw.getResultSet(), columnName);
+      Object value = typeHandler.getResult(rsw.getResultSet(), i + 1);
       constructorArgTypes.add(parameterType);
       constructorArgs.add(value);
       foundValues = value != null || foundValues;
@@ -1074,7 +1334,19 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     /**
      * typeHandler获取值
      */
-    return typeHandler.getResult(rsw.getResultSet(), columnName);
+    return getColumnValue(rsw, typeHandler, columnName);
+  }
+
+  /**
+   * 按列的位置读取，很多驱动按列名称读取时每次都要查找（甚至不区分大小写地逐个比较）列名称
+   */
+  private Object getColumnValue(ResultSetWrapper rsw, TypeHandler<?> typeHandler, String column) throws SQLException {
+    final int columnIndex = rsw.getColumnIndex(column);
+    if (columnIndex > 0) {
+      return typeHandler.getResult(rsw.getResultSet(), columnIndex);
+    }
+    // let the driver report the unknown column
+    return typeHandler.getResult(rsw.getResultSet(), column);
   }
 
   //
@@ -1142,25 +1414,107 @@ public class DefaultResultSetHandler implements ResultSetHandler {
          */
         executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
         value = DEFERRED;
-      } else {
+      } else if (propertyMapping.isLazy()) {
+        /**
+         * 懒加载
+         */
         final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
-        if (propertyMapping.isLazy()) {
+        if (isBatchSelect(propertyMapping)) {
           /**
-           * 懒加载
+           * 第一个加载的对象同时加载其他兄弟对象的结果
            */
-          lazyLoader.addLoader(property, metaResultObject, resultLoader);
-          value = DEFERRED;
-        } else {
-          /**
-           * 立即加载
-           */
-          value = resultLoader.loadResult();
+          lazyBatchResultLoaders.computeIfAbsent(propertyMapping, this::newBatchResultLoader).addLoader(resultLoader);
         }
+        lazyLoader.addLoader(property, metaResultObject, resultLoader);
+        value = DEFERRED;
+      } else if (nestedQueryBatching && isBatchSelect(propertyMapping)) {
+        /**
+         * 等结果集处理完之后，和其他父对象的子查询一起执行
+         */
+        PendingNestedQuery pendingNestedQuery = new PendingNestedQuery();
+        pendingNestedQuery.metaObject = metaResultObject;
+        pendingNestedQuery.parameterObject = nestedQueryParameterObject;
+        pendingNestedQueries.computeIfAbsent(propertyMapping, k -> new ArrayList<>()).add(pendingNestedQuery);
+        value = DEFERRED;
+      } else if (nestedQueryExecutorService != null) {
+        /**
+         * 和这一行的其他子查询并行加载，这一行映射完之前等待结果
+         */
+        final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
+        PendingNestedLoad pendingNestedLoad = new PendingNestedLoad();
+        pendingNestedLoad.property = property;
+        pendingNestedLoad.resultLoader = resultLoader;
+        pendingNestedLoad.future = resultLoader.loadResultAsync(nestedQueryExecutorService);
+        pendingNestedLoads.add(pendingNestedLoad);
+        value = DEFERRED;
+      } else {
+        /**
+         * 立即加载
+         */
+        final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
+        value = resultLoader.loadResult();
       }
     }
     return value;
   }
 
+  /**
+   * 有batchSelect的子查询可以批量执行；组合列的参数是Map，和子对象的batchKey对不上（解析时已经拒绝了）
+   */
+  private boolean isBatchSelect(ResultMapping propertyMapping) {
+    return propertyMapping.getNestedBatchQueryId() != null && !propertyMapping.isCompositeResult();
+  }
+
+  /**
+   * Runs the batch selects of the eager nested selects collected while handling a result set: one query per
+   * property mapping and up to {@link Configuration#getNestedQueryBatchSize()} distinct keys, which are passed
+   * as a list. The results are matched back to their parents by the {@code batchKey} property.
+   */
+  private void loadPendingNestedQueries() throws SQLException {
+    if (pendingNestedQueries.isEmpty()) {
+      return;
+    }
+    try {
+      for (Map.Entry<ResultMapping, List<PendingNestedQuery>> entry : pendingNestedQueries.entrySet()) {
+        loadNestedQueryBatches(entry.getKey(), entry.getValue());
+      }
+    } finally {
+      pendingNestedQueries.clear();
+    }
+  }
+
+  private void loadNestedQueryBatches(ResultMapping propertyMapping, List<PendingNestedQuery> pendingQueries) throws SQLException {
+    final String property = propertyMapping.getProperty();
+    final ResultExtractor resultExtractor = new ResultExtractor(configuration, objectFactory);
+    /**
+     * 相同的key只查询一次
+     */
+    final Map<Object, List<PendingNestedQuery>> pendingByKey = new LinkedHashMap<>();
+    for (PendingNestedQuery pending : pendingQueries) {
+      pendingByKey.computeIfAbsent(BatchResultLoader.keyOf(pending.parameterObject), k -> new ArrayList<>()).add(pending);
+    }
+    final List<Object> parameterObjects = new ArrayList<>(pendingByKey.size());
+    for (List<PendingNestedQuery> pending : pendingByKey.values()) {
+      parameterObjects.add(pending.get(0).parameterObject);
+    }
+    final Map<Object, List<Object>> nestedObjects = newBatchResultLoader(propertyMapping).loadResults(parameterObjects);
+    for (Map.Entry<Object, List<PendingNestedQuery>> entry : pendingByKey.entrySet()) {
+      final List<Object> matches = nestedObjects.getOrDefault(entry.getKey(), Collections.emptyList());
+      for (PendingNestedQuery pending : entry.getValue()) {
+        final Object value = resultExtractor.extractObjectFromList(new ArrayList<>(matches), propertyMapping.getJavaType());
+        final MetaObject metaObject = pending.metaObject;
+        if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
+          metaObject.setValue(property, value);
+        }
+      }
+    }
+  }
+
+  private BatchResultLoader newBatchResultLoader(ResultMapping propertyMapping) {
+    final MappedStatement batchQuery = configuration.getMappedStatement(propertyMapping.getNestedBatchQueryId());
+    return new BatchResultLoader(configuration, executor, batchQuery, propertyMapping.getBatchKey());
+  }
+
   /**
    * 对子查询准备参数，因为需要为子查询传递参数
    */
@@ -1310,6 +1664,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
      * 跳过偏移量
      */
     skipRows(resultSet, rowBounds);
+    if (parentMapping == null && !nestedResultStreamingChecked) {
+      nestedResultStreamingChecked = true;
+      checkNestedResultStreaming(resultHandler);
+    }
     /**
      * 上一条记录映射的结果对象
      */
@@ -1322,7 +1680,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       /**
        * 每一行的缓存key（最好是主键，能唯一确定对象，命中缓存）
        */
-      final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
+      final RowKey rowKey = createRowKey(discriminatedResultMap, rsw, null, 0);
       /**
        * 已经映射过的结果对象缓存
        *
@@ -1333,12 +1691,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
        * 一1，多2，多多2（一条记录）
        * 一1，多2，多多3（一条记录）
        */
-      Object partialObject = nestedResultObjects.get(rowKey);
       // issue #577 && #542
       /**
        * 结果集排序了
        */
       if (mappedStatement.isResultOrdered()) {
+        /**
+         * 和上一行的rowKey相同就属于同一个顶层宿主对象，不用在nestedResultObjects中查找
+         */
+        final Object partialObject = rowKey != RowKey.NULL && rowKey.equals(previousRowKey) ? rowValue : null;
+        if (partialObject == null) {
+          previousRowKey = rowKey.freeze();
+        }
         /**
          * 前一个顶层宿主对象构建完了，需要构建下一个顶层宿主对象
          */
@@ -1357,6 +1721,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
          */
         rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, null, partialObject);
       } else {
+        final Object partialObject = nestedResultObjects.get(rowKey);
         rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, null, partialObject);
         /**
          * 收集结果对象
@@ -1372,11 +1737,56 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
       storeObject(resultHandler, resultContext, rowValue, parentMapping, resultSet);
       previousRowValue = null;
+      previousRowKey = null;
     } else if (rowValue != null) {
       previousRowValue = rowValue;
     }
   }
 
+  /**
+   * 嵌套结果集只有在排序（resultOrdered）时，才能在顶层对象映射完后立即交给ResultHandler/Cursor并释放它的rowKey，
+   * 否则所有顶层对象和rowKey一直保留到结果集结束。每个语句只提示一次
+   */
+  private void checkNestedResultStreaming(ResultHandler<?> resultHandler) {
+    if (mappedStatement.isResultOrdered()) {
+      if (!hasOrderBy(boundSql.getSql()) && configuration.addNestedResultStreamingWarning(mappedStatement.getId())) {
+        log.warn("Statement '" + mappedStatement.getId() + "' is resultOrdered but its SQL has no ORDER BY. "
+            + "A parent whose rows are not adjacent is returned once per group of rows.");
+      }
+    } else if (!(resultHandler instanceof DefaultResultHandler) && !(resultHandler instanceof DefaultMapResultHandler)
+        && configuration.addNestedResultStreamingWarning(mappedStatement.getId())) {
+      log.warn("Statement '" + mappedStatement.getId() + "' maps nested result maps into a ResultHandler or Cursor without resultOrdered. "
+          + "Every parent object and its row keys are retained until the result set is exhausted. "
+          + "Sort the rows by the parent id and set resultOrdered=\"true\" to stream them.");
+    }
+  }
+
+  /**
+   * SQL是否以ORDER BY排序：只看括号外、引号外的ORDER BY（子查询和窗口函数里的不算）
+   */
+  private static boolean hasOrderBy(String sql) {
+    final Matcher matcher = ORDER_BY.matcher(sql);
+    int depth = 0;
+    boolean quoted = false;
+    int position = 0;
+    while (matcher.find()) {
+      for (; position < matcher.start(); position++) {
+        final char c = sql.charAt(position);
+        if (c == '\'') {
+          quoted = !quoted;
+        } else if (!quoted && c == '(') {
+          depth++;
+        } else if (!quoted && c == ')') {
+          depth--;
+        }
+      }
+      if (depth == 0 && !quoted) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   //
   // GET VALUE FROM ROW FOR NESTED RESULT MAP
   //
@@ -1393,7 +1803,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    * partialObject == null（宿主对象为空）   映射创建一个新的结果对象
    * partialObject != null（宿主对象不为空） 映射宿主对象的属性（子结果集）映射
    */
-  private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap, CacheKey combinedKey, String columnPrefix, Object partialObject) throws SQLException {
+  private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap, RowKey combinedKey, String columnPrefix, Object partialObject) throws SQLException {
     final String resultMapId = resultMap.getId();
     /**
      * 一对多中的“一”，“一”已经解析过了
@@ -1459,8 +1869,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       /**
        * 结果对象放入缓存
        */
-      if (combinedKey != CacheKey.NULL_CACHE_KEY) {
-        nestedResultObjects.put(combinedKey, rowValue);
+      if (combinedKey != RowKey.NULL) {
+        nestedResultObjects.put(combinedKey.freeze(), rowValue);
       }
     }
     return rowValue;
@@ -1484,7 +1894,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    * @param parentRowKey 宿主对象对应的缓存key
    * @param newObject 是否创建一个新的对象
    */
-  private boolean applyNestedResultMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String parentPrefix, CacheKey parentRowKey, boolean newObject) {
+  private boolean applyNestedResultMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String parentPrefix, RowKey parentRowKey, boolean newObject) {
     boolean foundValues = false;
     for (ResultMapping resultMapping : resultMap.getPropertyResultMappings()) {
       final String nestedResultMapId = resultMapping.getNestedResultMapId();
@@ -1517,13 +1927,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             }
           }
           /**
-           * 子映射记录（一条记录中的子映射包含的列）的缓存key
-           */
-          final CacheKey rowKey = createRowKey(nestedResultMap, rsw, columnPrefix);
-          /**
-           * 父映射的缓存key和子映射的缓存key合并
+           * 子映射记录（一条记录中的子映射包含的列）的缓存key，和父映射的缓存key合并。
+           * 父key为空时合并的结果也为空，不用创建子key（也不能占用父key所在深度之后的key）
            */
-          final CacheKey combinedKey = combineKeys(rowKey, parentRowKey);
+          final RowKey combinedKey = parentRowKey == RowKey.NULL ? RowKey.NULL
+              : combineKeys(createRowKey(nestedResultMap, rsw, columnPrefix, parentRowKey.getDepth() + 1), parentRowKey);
           /**
            * 缓存的值
            */
@@ -1585,7 +1993,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (notNullColumns != null && !notNullColumns.isEmpty()) {
       ResultSet rs = rsw.getResultSet();
       for (String column : notNullColumns) {
-        rs.getObject(prependPrefix(column, columnPrefix));
+        final String prefixedColumn = prependPrefix(column, columnPrefix);
+        final int columnIndex = rsw.getColumnIndex(prefixedColumn);
+        if (columnIndex > 0) {
+          rs.getObject(columnIndex);
+        } else {
+          rs.getObject(prefixedColumn);
+        }
         /**
          * 只要有一个不为空就行
          */
@@ -1623,12 +2037,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   /**
    * 根据每条记录创建rowKey
    */
-  private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
-    final CacheKey cacheKey = new CacheKey();
+  private RowKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix, int depth) throws SQLException {
+    /**
+     * 同一深度的key每条记录都重用，存储时才复制
+     */
+    while (rowKeyProbes.size() <= depth) {
+      rowKeyProbes.add(new RowKey(rowKeyProbes.size(), 8));
+    }
+    final RowKey cacheKey = rowKeyProbes.get(depth);
     /**
      * resultMap的id
      */
-    cacheKey.update(resultMap.getId());
+    cacheKey.reset(resultMap.getId(), columnPrefix);
     /**
      * id属性
      */
@@ -1645,27 +2065,20 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     } else {
       createRowKeyForMappedProperties(resultMap, rsw, cacheKey, resultMappings, columnPrefix);
     }
-    if (cacheKey.getUpdateCount() < 2) {
-      return CacheKey.NULL_CACHE_KEY;
+    if (cacheKey.isEmpty()) {
+      return RowKey.NULL;
     }
     return cacheKey;
   }
 
   /**
-   * 合并两个key
+   * 合并两个key（子key引用父key，不复制）
    */
-  private CacheKey combineKeys(CacheKey rowKey, CacheKey parentRowKey) {
-    if (rowKey.getUpdateCount() > 1 && parentRowKey.getUpdateCount() > 1) {
-      CacheKey combinedKey;
-      try {
-        combinedKey = rowKey.clone();
-      } catch (CloneNotSupportedException e) {
-        throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
-      }
-      combinedKey.update(parentRowKey);
-      return combinedKey;
+  private RowKey combineKeys(RowKey rowKey, RowKey parentRowKey) {
+    if (rowKey != RowKey.NULL && parentRowKey != RowKey.NULL) {
+      return rowKey.combine(parentRowKey);
     }
-    return CacheKey.NULL_CACHE_KEY;
+    return RowKey.NULL;
   }
 
   /**
@@ -1682,7 +2095,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   /**
    * 使用所有映射到的列或者主键列参数构建rowkey
    */
-  private void createRowKeyForMappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, List<ResultMapping> resultMappings, String columnPrefix) throws SQLException {
+  private void createRowKeyForMappedProperties(ResultMap resultMap, ResultSetWrapper rsw, RowKey cacheKey, List<ResultMapping> resultMappings, String columnPrefix) throws SQLException {
     for (ResultMapping resultMapping : resultMappings) {
       if (resultMapping.getNestedResultMapId() != null && resultMapping.getResultSet() == null) {
         // Issue #392
@@ -1698,13 +2111,32 @@ public class DefaultResultSetHandler implements ResultSetHandler {
          */
         final String column = prependPrefix(resultMapping.getColumn(), columnPrefix);
         final TypeHandler<?> th = resultMapping.getTypeHandler();
-        List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
         // Issue #114
-        if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
-          final Object value = th.getResult(rsw.getResultSet(), column);
-          if (value != null || configuration.isReturnInstanceForEmptyRow()) {
-            cacheKey.update(column);
-            cacheKey.update(value);
+        /**
+         * 映射的列都在resultMap的mappedColumns中，所以只需要判断结果集中有没有这一列
+         */
+        final int columnIndex = column == null ? 0 : rsw.getColumnIndex(column);
+        if (columnIndex > 0) {
+          final ResultSet rs = rsw.getResultSet();
+          if (isIntegralTypeHandler(th)) {
+            /**
+             * 整数的id不装箱
+             */
+            final long value = rs.getLong(columnIndex);
+            if (value != 0 || !rs.wasNull()) {
+              cacheKey.addNumber(value);
+            } else if (configuration.isReturnInstanceForEmptyRow()) {
+              cacheKey.add(null);
+            } else {
+              cacheKey.skip();
+            }
+          } else {
+            final Object value = th.getResult(rs, columnIndex);
+            if (value != null || configuration.isReturnInstanceForEmptyRow()) {
+              cacheKey.add(value);
+            } else {
+              cacheKey.skip();
+            }
           }
         }
       }
@@ -1714,39 +2146,68 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   /**
    * 使用自动映射到的列参与构建rowkey
    */
-  private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, String columnPrefix) throws SQLException {
-    final MetaClass metaType = MetaClass.forClass(resultMap.getType(), reflectorFactory);
-    List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
-    for (String column : unmappedColumnNames) {
-      String property = column;
-      if (columnPrefix != null && !columnPrefix.isEmpty()) {
-        // When columnPrefix is specified, ignore columns without the prefix.
-        if (column.toUpperCase(Locale.ENGLISH).startsWith(columnPrefix)) {
-          property = column.substring(columnPrefix.length());
-        } else {
-          continue;
-        }
+  private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, RowKey cacheKey, String columnPrefix) throws SQLException {
+    final ResultSet rs = rsw.getResultSet();
+    for (int columnIndex : getUnmappedRowKeyColumnIndexes(resultMap, rsw, columnPrefix)) {
+      String value = rs.getString(columnIndex);
+      if (value != null) {
+        cacheKey.add(value);
+      } else {
+        cacheKey.skip();
       }
-      if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
-        String value = rsw.getResultSet().getString(column);
-        if (value != null) {
-          cacheKey.update(column);
-          cacheKey.update(value);
+    }
+  }
+
+  /**
+   * 能自动映射到属性的列的位置，同样的列的结果集共享
+   */
+  private int[] getUnmappedRowKeyColumnIndexes(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
+    final String mapKey = resultMap.getId() + ":" + columnPrefix;
+    int[] columnIndexes = rsw.getLayout().unmappedRowKeyColumnIndexesMap.get(mapKey);
+    if (columnIndexes == null) {
+      final MetaClass metaType = MetaClass.forClass(resultMap.getType(), reflectorFactory);
+      final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+      final List<Integer> indexes = new ArrayList<>();
+      for (String column : unmappedColumnNames) {
+        String property = column;
+        if (columnPrefix != null && !columnPrefix.isEmpty()) {
+          // When columnPrefix is specified, ignore columns without the prefix.
+          if (column.toUpperCase(Locale.ENGLISH).startsWith(columnPrefix)) {
+            property = column.substring(columnPrefix.length());
+          } else {
+            continue;
+          }
+        }
+        if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
+          indexes.add(rsw.getColumnIndex(column));
         }
       }
+      columnIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+      rsw.getLayout().unmappedRowKeyColumnIndexesMap.put(mapKey, columnIndexes);
     }
+    return columnIndexes;
+  }
+
+  /**
+   * 内置的整数类型处理器，可以直接用getLong读取
+   */
+  private boolean isIntegralTypeHandler(TypeHandler<?> typeHandler) {
+    final Class<?> type = typeHandler.getClass();
+    return type == IntegerTypeHandler.class || type == LongTypeHandler.class
+        || type == ShortTypeHandler.class || type == ByteTypeHandler.class;
   }
 
   /**
    * 使用所有非空的列创建rowKey
    */
-  private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
-    List<String> columnNames = rsw.getColumnNames();
-    for (String columnName : columnNames) {
-      final String value = rsw.getResultSet().getString(columnName);
+  private void createRowKeyForMap(ResultSetWrapper rsw, RowKey cacheKey) throws SQLException {
+    final int columnCount = rsw.getColumnNames().size();
+    for (int i = 1; i <= columnCount; i++) {
+      final String value = rsw.getResultSet().getString(i);
       if (value != null) {
-        cacheKey.update(columnName);
-        cacheKey.update(value);
+        cacheKey.add(value);
+      } else {
+        cacheKey.skip();
       }
     }
   }
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.MetaObject;
+
+/**
+ * The parent objects waiting for the rows of a result set named by a {@code resultSet} attribute, indexed by the
+ * values of their {@code column}s, so that the rows of the result set find their parents by the values of the
+ * {@code foreignColumn}s with a single lookup.
+ * <p>
+ * A key is the value of the column itself, or a list of values for several columns, and maps to the parent itself
+ * unless several parents share it: a parent row costs one map entry.
+ */
+final class PendingRelationIndex {
+
+  /**
+   * Stands for a null column value, null values match each other like they always did.
+   */
+  private static final Object NULL_VALUE = new Object();
+
+  private final String[] columns;
+  private final String[] foreignColumns;
+  /**
+   * 列的位置，每个结果集解析一次
+   */
+  private final ColumnIndexes parentColumnIndexes = new ColumnIndexes();
+  private final ColumnIndexes childColumnIndexes = new ColumnIndexes();
+  /**
+   * key -> MetaObject, or List&lt;MetaObject&gt; if several parents have the same key
+   */
+  private final Map<Object, Object> parents = new HashMap<>();
+
+  PendingRelationIndex(String columns, String foreignColumns) {
+    this.columns = columns == null ? new String[0] : columns.split(",");
+    this.foreignColumns = foreignColumns == null ? new String[0] : foreignColumns.split(",");
+  }
+
+  @SuppressWarnings("unchecked")
+  void addParent(ResultSet rs, MetaObject metaObject) throws SQLException {
+    final Object key = keyOf(rs, parentColumnIndexes.resolve(rs, columns));
+    final Object previous = parents.putIfAbsent(key, metaObject);
+    if (previous instanceof MetaObject) {
+      final List<MetaObject> list = new ArrayList<>(2);
+      list.add((MetaObject) previous);
+      list.add(metaObject);
+      parents.put(key, list);
+    } else if (previous != null) {
+      ((List<MetaObject>) previous).add(metaObject);
+    }
+  }
+
+  /**
+   * @return the parents of the current row of a child result set, empty if there is none
+   */
+  @SuppressWarnings("unchecked")
+  List<MetaObject> getParents(ResultSet rs) throws SQLException {
+    final Object found = parents.get(keyOf(rs, childColumnIndexes.resolve(rs, foreignColumns)));
+    if (found == null) {
+      return Collections.emptyList();
+    } else if (found instanceof MetaObject) {
+      return Collections.singletonList((MetaObject) found);
+    }
+    return (List<MetaObject>) found;
+  }
+
+  /**
+   * 按列的位置读成字符串，父子结果集中列的类型可能不同
+   */
+  private static Object keyOf(ResultSet rs, int[] columnIndexes) throws SQLException {
+    if (columnIndexes.length == 1) {
+      final String value = rs.getString(columnIndexes[0]);
+      return value == null ? NULL_VALUE : value;
+    }
+    final Object[] values = new Object[columnIndexes.length];
+    for (int i = 0; i < columnIndexes.length; i++) {
+      final String value = rs.getString(columnIndexes[i]);
+      values[i] = value == null ? NULL_VALUE : value;
+    }
+    return Arrays.asList(values);
+  }
+
+  /**
+   * The positions of some columns in the last result set they were resolved for.
+   */
+  private static final class ColumnIndexes {
+    private ResultSet resultSet;
+    private int[] indexes;
+
+    int[] resolve(ResultSet rs, String[] columns) throws SQLException {
+      if (rs != resultSet) {
+        final int[] resolved = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+          resolved[i] = rs.findColumn(columns[i].trim());
+        }
+        indexes = resolved;
+        resultSet = rs;
+      }
+      return indexes;
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * The columns of a result set (labels, JDBC types and class names, in order) together with the mapping plans
+ * derived from them: column positions, type handlers, mapped and unmapped columns, auto mappings, compiled
+ * row mappers and constructors and row key columns, per result map and column prefix.
+ * <p>
+ * Equal layouts are shared through {@link org.apache.ibatis.session.Configuration#getResultSetLayout(ResultSetLayout)},
+ * so the plans are computed once and reused by every execution returning the same columns.
+ */
+public class ResultSetLayout {
+
+  private final List<String> columnNames;
+  private final List<String> classNames;
+  private final List<JdbcType> jdbcTypes;
+  private final int hashCode;
+
+  // plans, keyed by column name or by result map id and column prefix
+  final Map<String, Integer> columnIndexMap = new ConcurrentHashMap<>();
+  final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new ConcurrentHashMap<>();
+  final Map<String, List<String>> mappedColumnNamesMap = new ConcurrentHashMap<>();
+  final Map<String, List<String>> unMappedColumnNamesMap = new ConcurrentHashMap<>();
+  final Map<String, int[]> propertyMappingColumnIndexesMap = new ConcurrentHashMap<>();
+  final Map<String, List<DefaultResultSetHandler.UnMappedColumnAutoMapping>> autoMappingsMap = new ConcurrentHashMap<>();
+  final Map<String, CompiledRowMapper> compiledRowMappers = new ConcurrentHashMap<>();
+  final Map<String, CompiledConstructor> compiledConstructors = new ConcurrentHashMap<>();
+  final Map<String, int[]> unmappedRowKeyColumnIndexesMap = new ConcurrentHashMap<>();
+
+  public ResultSetLayout(List<String> columnNames, List<String> classNames, List<JdbcType> jdbcTypes) {
+    this.columnNames = Collections.unmodifiableList(columnNames);
+    this.classNames = Collections.unmodifiableList(classNames);
+    this.jdbcTypes = Collections.unmodifiableList(jdbcTypes);
+    this.hashCode = (columnNames.hashCode() * 31 + classNames.hashCode()) * 31 + jdbcTypes.hashCode();
+    /**
+     * 同名的列，和JDBC驱动一样取第一个
+     */
+    for (int i = columnNames.size(); i >= 1; i--) {
+      final String columnName = columnNames.get(i - 1);
+      columnIndexMap.put(columnName, i);
+      columnIndexMap.put(columnName.toUpperCase(Locale.ENGLISH), i);
+    }
+  }
+
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  public List<String> getClassNames() {
+    return classNames;
+  }
+
+  public List<JdbcType> getJdbcTypes() {
+    return jdbcTypes;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ResultSetLayout)) {
+      return false;
+    }
+    ResultSetLayout that = (ResultSetLayout) o;
+    return hashCode == that.hashCode
+        && columnNames.equals(that.columnNames)
+        && jdbcTypes.equals(that.jdbcTypes)
+        && classNames.equals(that.classNames);
+  }
+
+}
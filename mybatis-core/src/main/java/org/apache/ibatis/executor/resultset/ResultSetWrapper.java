@@ -17,6 +17,7 @@ package org.apache.ibatis.executor.resultset;
 
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.*;
 
@@ -24,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Iwao AVE!
@@ -34,30 +36,42 @@ public class ResultSetWrapper {
    */
   private final ResultSet resultSet;
   private final TypeHandlerRegistry typeHandlerRegistry;
+  /**
+   * 列的布局，以及由它推导出来的映射信息（同样的列的结果集共享）
+   */
+  private final ResultSetLayout layout;
   /**
    * 列名称
    */
-  private final List<String> columnNames = new ArrayList<>();
+  private final List<String> columnNames;
   /**
    * 列值对应的类型
    */
-  private final List<String> classNames = new ArrayList<>();
+  private final List<String> classNames;
   /**
    * 列的jdbcType
    */
-  private final List<JdbcType> jdbcTypes = new ArrayList<>();
+  private final List<JdbcType> jdbcTypes;
+  /**
+   * 列名称（原样和大写）对应的列位置，查找过的其它写法也会记录下来
+   */
+  private final Map<String, Integer> columnIndexMap;
   /**
    * 列名称、属性类型、类型处理器
    */
-  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<>();
+  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap;
   /**
    * 一族（columnPrefix）列对应的key，列名集合
    */
-  private final Map<String, List<String>> mappedColumnNamesMap = new HashMap<>();
+  private final Map<String, List<String>> mappedColumnNamesMap;
   /**
    * 一族（columnPrefix）列对应的key，列名集合
    */
-  private final Map<String, List<String>> unMappedColumnNamesMap = new HashMap<>();
+  private final Map<String, List<String>> unMappedColumnNamesMap;
+  /**
+   * 一族（columnPrefix）列对应的key，属性映射的列位置
+   */
+  private final Map<String, int[]> propertyMappingColumnIndexesMap;
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
     super();
@@ -65,11 +79,27 @@ public class ResultSetWrapper {
     this.resultSet = rs;
     final ResultSetMetaData metaData = rs.getMetaData();
     final int columnCount = metaData.getColumnCount();
+    final List<String> columnNames = new ArrayList<>(columnCount);
+    final List<String> classNames = new ArrayList<>(columnCount);
+    final List<JdbcType> jdbcTypes = new ArrayList<>(columnCount);
     for (int i = 1; i <= columnCount; i++) {
       columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
       jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
       classNames.add(metaData.getColumnClassName(i));
     }
+    this.layout = configuration.getResultSetLayout(new ResultSetLayout(columnNames, classNames, jdbcTypes));
+    this.columnNames = layout.getColumnNames();
+    this.classNames = layout.getClassNames();
+    this.jdbcTypes = layout.getJdbcTypes();
+    this.columnIndexMap = layout.columnIndexMap;
+    this.typeHandlerMap = layout.typeHandlerMap;
+    this.mappedColumnNamesMap = layout.mappedColumnNamesMap;
+    this.unMappedColumnNamesMap = layout.unMappedColumnNamesMap;
+    this.propertyMappingColumnIndexesMap = layout.propertyMappingColumnIndexesMap;
+  }
+
+  public ResultSetLayout getLayout() {
+    return layout;
   }
 
   public ResultSet getResultSet() {
@@ -81,7 +111,7 @@ public class ResultSetWrapper {
   }
 
   public List<String> getClassNames() {
-    return Collections.unmodifiableList(classNames);
+    return classNames;
   }
 
   public List<JdbcType> getJdbcTypes() {
@@ -92,12 +122,30 @@ public class ResultSetWrapper {
    * 根据列名称获取对应的jdbcType
    */
   public JdbcType getJdbcType(String columnName) {
-    for (int i = 0 ; i < columnNames.size(); i++) {
-      if (columnNames.get(i).equalsIgnoreCase(columnName)) {
-        return jdbcTypes.get(i);
+    final int columnIndex = getColumnIndex(columnName);
+    return columnIndex == 0 ? null : jdbcTypes.get(columnIndex - 1);
+  }
+
+  /**
+   * 根据列名称（不区分大小写）获取列的位置（从1开始），没有找到返回0。
+   * 每条记录都会调用，所以第一次解析后记住这个写法，之后只是一次查找
+   */
+  public int getColumnIndex(String columnName) {
+    Integer columnIndex = columnIndexMap.get(columnName);
+    if (columnIndex == null) {
+      columnIndex = columnIndexMap.get(columnName.toUpperCase(Locale.ENGLISH));
+      if (columnIndex == null) {
+        columnIndex = 0;
+        for (int i = 0; i < columnNames.size(); i++) {
+          if (columnNames.get(i).equalsIgnoreCase(columnName)) {
+            columnIndex = i + 1;
+            break;
+          }
+        }
       }
+      columnIndexMap.put(columnName, columnIndex);
     }
-    return null;
+    return columnIndex;
   }
 
   /**
@@ -116,8 +164,7 @@ public class ResultSetWrapper {
      */
     Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
     if (columnHandlers == null) {
-      columnHandlers = new HashMap<>();
-      typeHandlerMap.put(columnName, columnHandlers);
+      columnHandlers = typeHandlerMap.computeIfAbsent(columnName, k -> new ConcurrentHashMap<>());
     } else {
       handler = columnHandlers.get(propertyType);
     }
@@ -213,6 +260,35 @@ public class ResultSetWrapper {
     return unMappedColumnNames;
   }
 
+  /**
+   * 获取属性映射（resultMap.getPropertyResultMappings()）在结果集中的列位置，
+   * 嵌套resultMap、没有列或者结果集中没有这一列的为0
+   */
+  public int[] getPropertyMappingColumnIndexes(ResultMap resultMap, String columnPrefix) throws SQLException {
+    final String mapKey = getMapKey(resultMap, columnPrefix);
+    int[] columnIndexes = propertyMappingColumnIndexesMap.get(mapKey);
+    if (columnIndexes == null) {
+      final List<String> mappedColumnNames = getMappedColumnNames(resultMap, columnPrefix);
+      final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
+      columnIndexes = new int[propertyMappings.size()];
+      for (int i = 0; i < columnIndexes.length; i++) {
+        final ResultMapping propertyMapping = propertyMappings.get(i);
+        String column = propertyMapping.getColumn();
+        if (column == null || column.isEmpty() || propertyMapping.getNestedResultMapId() != null) {
+          continue;
+        }
+        if (columnPrefix != null && !columnPrefix.isEmpty()) {
+          column = columnPrefix + column;
+        }
+        if (mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
+          columnIndexes[i] = getColumnIndex(column);
+        }
+      }
+      propertyMappingColumnIndexesMap.put(mapKey, columnIndexes);
+    }
+    return columnIndexes;
+  }
+
   /**
    * 通过columnPrefix来区分不同的映射对象
    */
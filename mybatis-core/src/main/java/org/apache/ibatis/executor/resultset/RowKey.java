@@ -0,0 +1,223 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+import org.apache.ibatis.reflection.ArrayUtil;
+
+/**
+ * Identity of the object a row maps to in a nested result map: the result map, the column prefix, the values of
+ * its id columns and the key of its parent object.
+ * <p>
+ * Keys are built into probes that are reused from row to row, one per nesting depth, and are only copied by
+ * {@link #freeze()} when an object is stored. Integral ids are kept as primitive longs, and a child references
+ * the key of its parent instead of copying its values.
+ */
+final class RowKey {
+
+  /**
+   * A row without any id value, which never matches another row.
+   */
+  static final RowKey NULL = new RowKey(0, 0);
+
+  private static final long DEFAULT_HASH = 0x9E3779B97F4A7C15L;
+  private static final long MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+  /**
+   * Marks a slot whose value is in {@link #numbers}.
+   */
+  private static final Object NUMBER = new Object();
+  /**
+   * Marks a slot holding a null value (returnInstanceForEmptyRow).
+   */
+  private static final Object NULL_VALUE = new Object();
+
+  private final int depth;
+  private String resultMapId;
+  private String columnPrefix;
+  private RowKey parent;
+  /**
+   * 不包括父key的hash值
+   */
+  private long ownHash;
+  private long hash;
+  /**
+   * 槽位的个数，值为空的槽位是null
+   */
+  private int size;
+  /**
+   * 有值的槽位的个数
+   */
+  private int count;
+  private Object[] values;
+  private long[] numbers;
+  /**
+   * A probe's copy made by the last {@link #freeze()}, null for frozen keys themselves.
+   */
+  private RowKey frozenCopy;
+  private boolean frozen;
+
+  RowKey(int depth, int capacity) {
+    this.depth = depth;
+    this.values = new Object[capacity];
+    this.numbers = new long[capacity];
+  }
+
+  int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Starts a new key in this probe.
+   */
+  void reset(String resultMapId, String columnPrefix) {
+    this.resultMapId = resultMapId;
+    this.columnPrefix = columnPrefix;
+    this.parent = null;
+    this.size = 0;
+    this.count = 0;
+    this.frozenCopy = null;
+    this.ownHash = mix(mix(DEFAULT_HASH, resultMapId.hashCode()), columnPrefix == null ? 0 : columnPrefix.hashCode());
+    this.hash = ownHash;
+  }
+
+  /**
+   * Adds a slot for an id column whose value is null and does not count.
+   */
+  void skip() {
+    append(null, 0L, 0);
+  }
+
+  void add(Object value) {
+    count++;
+    if (value == null) {
+      append(NULL_VALUE, 0L, 1);
+    } else {
+      append(value, 0L, ArrayUtil.hashCode(value));
+    }
+  }
+
+  void addNumber(long value) {
+    count++;
+    append(NUMBER, value, Long.hashCode(value));
+  }
+
+  /**
+   * @return True if no id column had a value
+   */
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Makes this probe the key of a child of the given parent.
+   */
+  RowKey combine(RowKey parentKey) {
+    this.parent = parentKey;
+    this.hash = mix(ownHash, (int) (parentKey.hash ^ (parentKey.hash >>> 32)));
+    return this;
+  }
+
+  /**
+   * Returns an immutable copy to store, the same one until the probe is reset.
+   */
+  RowKey freeze() {
+    if (frozen || this == NULL) {
+      return this;
+    }
+    if (frozenCopy == null) {
+      RowKey copy = new RowKey(depth, 0);
+      copy.resultMapId = resultMapId;
+      copy.columnPrefix = columnPrefix;
+      copy.parent = parent == null ? null : parent.freeze();
+      copy.ownHash = ownHash;
+      copy.hash = hash;
+      copy.size = size;
+      copy.count = count;
+      copy.values = Arrays.copyOf(values, size);
+      copy.numbers = Arrays.copyOf(numbers, size);
+      copy.frozen = true;
+      frozenCopy = copy;
+    }
+    return frozenCopy;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    }
+    if (!(object instanceof RowKey) || this == NULL || object == NULL) {
+      return false;
+    }
+    final RowKey that = (RowKey) object;
+    if (hash != that.hash || size != that.size || count != that.count
+        || !resultMapId.equals(that.resultMapId) || !Objects.equals(columnPrefix, that.columnPrefix)) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      final Object thisValue = values[i];
+      final Object thatValue = that.values[i];
+      if (thisValue == NUMBER) {
+        if (thatValue != NUMBER || numbers[i] != that.numbers[i]) {
+          return false;
+        }
+      } else if (thisValue != thatValue && !ArrayUtil.equals(thisValue, thatValue)) {
+        return false;
+      }
+    }
+    return parent == that.parent || parent != null && parent.equals(that.parent);
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    if (this == NULL) {
+      return "NULL";
+    }
+    StringJoiner joiner = new StringJoiner(":", parent == null ? "" : parent + "/", "");
+    joiner.add(resultMapId);
+    for (int i = 0; i < size; i++) {
+      joiner.add(values[i] == NUMBER ? String.valueOf(numbers[i]) : ArrayUtil.toString(values[i] == NULL_VALUE ? null : values[i]));
+    }
+    return joiner.toString();
+  }
+
+  private void append(Object value, long number, int valueHash) {
+    if (size == values.length) {
+      int capacity = Math.max(4, size << 1);
+      values = Arrays.copyOf(values, capacity);
+      numbers = Arrays.copyOf(numbers, capacity);
+    }
+    values[size] = value;
+    numbers[size] = number;
+    size++;
+    ownHash = mix(ownHash, valueHash);
+    hash = ownHash;
+  }
+
+  private static long mix(long hash, int value) {
+    return Long.rotateLeft(hash + (value & 0xFFFFFFFFL) * MULTIPLIER, 31) * DEFAULT_HASH;
+  }
+
+}
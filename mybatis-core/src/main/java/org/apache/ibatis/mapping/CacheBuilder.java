@@ -18,8 +18,11 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ConcurrentCache;
 import org.apache.ibatis.cache.decorators.*;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.weigher.Weigher;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -53,6 +56,11 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private Weigher weigher;
+  private Long expireAfterWrite;
+  private Long expireAfterAccess;
+  private Double expirationJitter;
+  private Long staleWhileRevalidate;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -81,6 +89,26 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder expireAfterWrite(Long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+    return this;
+  }
+
+  public CacheBuilder expireAfterAccess(Long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+    return this;
+  }
+
+  public CacheBuilder expirationJitter(Double expirationJitter) {
+    this.expirationJitter = expirationJitter;
+    return this;
+  }
+
+  public CacheBuilder staleWhileRevalidate(Long staleWhileRevalidate) {
+    this.staleWhileRevalidate = staleWhileRevalidate;
+    return this;
+  }
+
   public CacheBuilder readWrite(boolean readWrite) {
     this.readWrite = readWrite;
     return this;
@@ -91,6 +119,14 @@ public class CacheBuilder {
     return this;
   }
 
+  /**
+   * Sets the weigher of the eviction decorator, {@link #size(Integer)} is then the maximum total weight.
+   */
+  public CacheBuilder weigher(Weigher weigher) {
+    this.weigher = weigher;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -146,38 +182,70 @@ public class CacheBuilder {
 
   /**
    * 一些固定属性都是通过特定的装饰器来实现的
-   * BlockingCache->SynchronizedCache->LoggingCache->SerializedCache->ScheduledCache->FifoCache/LruCache/SoftCache/WeakCache->PerpetualCache
+   * BlockingCache->SynchronizedCache->LoggingCache->SerializedCache->ScheduledCache->ExpiringCache->FifoCache/LruCache/SoftCache/WeakCache->PerpetualCache
    */
   private Cache setStandardDecorators(Cache cache) {
     try {
+      boolean concurrent = isConcurrent();
       MetaObject metaCache = SystemMetaObject.forObject(cache);
+      /**
+       * 设置权重计算器，设置之后大小表示总权重
+       */
+      if (weigher != null && metaCache.hasSetter("weigher")) {
+        metaCache.setValue("weigher", weigher);
+      }
       /**
        * 设置大小
        */
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      /**
+       * ExpiringCache装饰器来实现每个缓存项单独过期
+       */
+      if (expireAfterWrite != null || expireAfterAccess != null) {
+        ExpiringCache expiringCache = new ExpiringCache(cache);
+        if (expireAfterWrite != null) {
+          expiringCache.setExpireAfterWrite(expireAfterWrite);
+        }
+        if (expireAfterAccess != null) {
+          expiringCache.setExpireAfterAccess(expireAfterAccess);
+        }
+        if (expirationJitter != null) {
+          expiringCache.setJitter(expirationJitter);
+        }
+        if (staleWhileRevalidate != null) {
+          expiringCache.setStaleWhileRevalidate(staleWhileRevalidate);
+        }
+        cache = expiringCache;
+        concurrent &= cache instanceof ConcurrentCache;
+      }
       /**
        * ScheduledCache装饰器来实现定时清理缓存
        */
       if (clearInterval != null) {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
+        concurrent &= cache instanceof ConcurrentCache;
       }
       /**
        * SerializedCache装饰器来实现可读写的缓存（系列化）
        */
       if (readWrite) {
         cache = new SerializedCache(cache);
+        concurrent &= cache instanceof ConcurrentCache;
       }
       /**
        * 统计缓存命中率
        */
       cache = new LoggingCache(cache);
+      concurrent &= cache instanceof ConcurrentCache;
       /**
-       * 给缓存套上同步的套子
+       * 给缓存套上同步的套子（整条装饰链都并发安全时不需要）
        */
-      cache = new SynchronizedCache(cache);
+      if (!concurrent) {
+        cache = new SynchronizedCache(cache);
+      }
       /**
        * 给缓存套上排它锁的套子（只有命中了才释放锁）
        */
@@ -190,6 +258,22 @@ public class CacheBuilder {
     }
   }
 
+  /**
+   * Whether every eviction decorator can be used concurrently. The standard decorators wrapped around them must be
+   * too for the cache to do without a global lock.
+   */
+  private boolean isConcurrent() {
+    if (decorators.isEmpty()) {
+      return false;
+    }
+    for (Class<? extends Cache> decorator : decorators) {
+      if (!ConcurrentCache.class.isAssignableFrom(decorator)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * 设置属性，并且初始化
    */
@@ -228,6 +312,8 @@ public class CacheBuilder {
           } else if (double.class == type
               || Double.class == type) {
             metaCache.setValue(name, Double.valueOf(value));
+          } else if (Weigher.class == type) {
+            metaCache.setValue(name, newWeigherInstance(value));
           } else {
             throw new CacheException("Unsupported property type for cache: '" + name + "' of type " + type);
           }
@@ -248,6 +334,14 @@ public class CacheBuilder {
     }
   }
 
+  private Weigher newWeigherInstance(String className) {
+    try {
+      return (Weigher) Resources.classForName(className).getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate weigher (" + className + "). Cause: " + e, e);
+    }
+  }
+
   /**
    * 使用构造方法创建一个实例
    */
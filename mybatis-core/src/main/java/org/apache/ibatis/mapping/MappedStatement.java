@@ -27,11 +27,16 @@ import org.apache.ibatis.session.Configuration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Clinton Begin
  */
 public final class MappedStatement {
+
+  private static final int MAX_INTERNED_SQL = 256;
+
   /**
    * sql语句所在文件路径
    */
@@ -121,6 +126,14 @@ public final class MappedStatement {
    * 多个结果集的名字
    */
   private String[] resultSets;
+  /**
+   * 查询语句读取的表（标签），或者更新语句修改的表（标签）
+   */
+  private String[] cacheTags;
+  /**
+   * 本语句生成过的sql，使缓存key中相同的sql是同一个对象
+   */
+  private final Map<String, String> internedSql = new ConcurrentHashMap<>();
 
   MappedStatement() {
     // constructor disabled
@@ -248,6 +261,20 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * Sets the tables (tags) a select reads from, or the tables an insert, update or delete writes to.
+     */
+    public Builder cacheTags(String cacheTags) {
+      String[] tags = delimitedStringToArray(cacheTags);
+      if (tags != null) {
+        for (int i = 0; i < tags.length; i++) {
+          tags[i] = tags[i].trim();
+        }
+      }
+      mappedStatement.cacheTags = tags;
+      return this;
+    }
+
     /**
      * @deprecated Use {@link #resultSets}
      */
@@ -359,6 +386,10 @@ public final class MappedStatement {
     return resultSets;
   }
 
+  public String[] getCacheTags() {
+    return cacheTags;
+  }
+
   /**
    * @deprecated Use {@link #getResultSets()}
    */
@@ -394,6 +425,27 @@ public final class MappedStatement {
     return boundSql;
   }
 
+  /**
+   * Returns a canonical instance of a SQL text generated by this statement, so that cache keys holding the same
+   * SQL compare by identity. Dynamic statements with too many distinct SQL texts are interned only partially.
+   *
+   * @param sql the SQL text
+   * @return the canonical instance, or the given one if the statement has too many distinct SQL texts
+   */
+  public String internSql(String sql) {
+    String interned = internedSql.get(sql);
+    if (interned == null) {
+      if (internedSql.size() >= MAX_INTERNED_SQL) {
+        return sql;
+      }
+      interned = internedSql.putIfAbsent(sql, sql);
+      if (interned == null) {
+        interned = sql;
+      }
+    }
+    return interned;
+  }
+
   private static String[] delimitedStringToArray(String in) {
     if (in == null || in.trim().length() == 0) {
       return null;
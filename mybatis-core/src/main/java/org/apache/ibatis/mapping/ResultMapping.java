@@ -59,6 +59,14 @@ public class ResultMapping {
    * 指向另外的select的id
    */
   private String nestedQueryId;
+  /**
+   * 一次查询多个父对象的子对象的select的id，参数是所有父对象的列值组成的list
+   */
+  private String nestedBatchQueryId;
+  /**
+   * 子对象中与column的值对应的属性
+   */
+  private String batchKey;
   /**
    * 不能为空的列
    */
@@ -139,6 +147,16 @@ public class ResultMapping {
       return this;
     }
 
+    public Builder nestedBatchQueryId(String nestedBatchQueryId) {
+      resultMapping.nestedBatchQueryId = nestedBatchQueryId;
+      return this;
+    }
+
+    public Builder batchKey(String batchKey) {
+      resultMapping.batchKey = batchKey;
+      return this;
+    }
+
     public Builder foreignColumn(String foreignColumn) {
       resultMapping.foreignColumn = foreignColumn;
       return this;
@@ -196,6 +214,14 @@ public class ResultMapping {
       if (resultMapping.nestedResultMapId == null && resultMapping.column == null && resultMapping.composites.isEmpty()) {
         throw new IllegalStateException("Mapping is missing column attribute for property " + resultMapping.property);
       }
+      if (resultMapping.nestedBatchQueryId != null) {
+        if (resultMapping.nestedQueryId == null || resultMapping.batchKey == null) {
+          throw new IllegalStateException("A batch select needs both a select and a batchKey in property " + resultMapping.property);
+        }
+        if (!resultMapping.composites.isEmpty()) {
+          throw new IllegalStateException("A batch select cannot be used with composite columns in property " + resultMapping.property);
+        }
+      }
       if (resultMapping.getResultSet() != null) {
         int numColumns = 0;
         if (resultMapping.column != null) {
@@ -256,6 +282,14 @@ public class ResultMapping {
     return nestedQueryId;
   }
 
+  public String getNestedBatchQueryId() {
+    return nestedBatchQueryId;
+  }
+
+  public String getBatchKey() {
+    return batchKey;
+  }
+
   public Set<String> getNotNullColumns() {
     return notNullColumns;
   }
@@ -336,6 +370,8 @@ public class ResultMapping {
     //sb.append(", typeHandler=").append(typeHandler); // typeHandler also doesn't have a useful .toString()
     sb.append(", nestedResultMapId='").append(nestedResultMapId).append('\'');
     sb.append(", nestedQueryId='").append(nestedQueryId).append('\'');
+    sb.append(", nestedBatchQueryId='").append(nestedBatchQueryId).append('\'');
+    sb.append(", batchKey='").append(batchKey).append('\'');
     sb.append(", notNullColumns=").append(notNullColumns);
     sb.append(", columnPrefix='").append(columnPrefix).append('\'');
     sb.append(", flags=").append(flags);
@@ -21,9 +21,13 @@ import org.apache.ibatis.reflection.invoker.MethodInvoker;
 import org.apache.ibatis.reflection.invoker.SetFieldInvoker;
 import org.apache.ibatis.reflection.property.PropertyNamer;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class represents a cached set of class definition information that
@@ -76,6 +80,14 @@ public class Reflector {
    * getter方法返回类型
    */
   private final Map<String, Class<?>> getTypes = new HashMap<>();
+  /**
+   * setter方法或者属性本身（没有setter时）
+   */
+  private final Map<String, AccessibleObject> setMembers = new HashMap<>();
+  /**
+   * setter对应的MethodHandle，第一次使用时创建
+   */
+  private final Map<String, MethodHandle> setterHandles = new ConcurrentHashMap<>();
   /**
    * 默认的构造器
    */
@@ -316,6 +328,7 @@ public class Reflector {
   private void addSetMethod(String name, Method method) {
     if (isValidPropertyName(name)) {
       setMethods.put(name, new MethodInvoker(method));
+      setMembers.put(name, method);
       Type[] paramTypes = TypeParameterResolver.resolveParamTypes(method, type);
       setTypes.put(name, typeToClass(paramTypes[0]));
     }
@@ -381,6 +394,7 @@ public class Reflector {
        * 反射优先setter？ 使得setter中的特殊逻辑失效
        */
       setMethods.put(field.getName(), new SetFieldInvoker(field));
+      setMembers.put(field.getName(), field);
       Type fieldType = TypeParameterResolver.resolveFieldType(field, type);
       setTypes.put(field.getName(), typeToClass(fieldType));
     }
@@ -536,6 +550,54 @@ public class Reflector {
     return method;
   }
 
+  /**
+   * Gets a method handle of type {@code (Object, Object)void} that calls the setter of a property,
+   * or writes the field directly when there is no setter.
+   *
+   * @param propertyName - the name of the property
+   * @return The handle, or null if the setter cannot be accessed through a method handle
+   */
+  public MethodHandle getSetterHandle(String propertyName) {
+    MethodHandle handle = setterHandles.get(propertyName);
+    if (handle == null) {
+      AccessibleObject member = setMembers.get(propertyName);
+      if (member == null) {
+        throw new ReflectionException("There is no setter for property named '" + propertyName + "' in '" + type + "'");
+      }
+      handle = unreflectSetter(member);
+      if (handle != null) {
+        setterHandles.put(propertyName, handle);
+      }
+    }
+    return handle;
+  }
+
+  private static MethodHandle unreflectSetter(AccessibleObject member) {
+    try {
+      return unreflect(member);
+    } catch (IllegalAccessException e) {
+      //和MethodInvoker一样，如果可以压制访问检查，设置可访问后再试一次
+      if (canControlMemberAccessible()) {
+        try {
+          member.setAccessible(true);
+          return unreflect(member);
+        } catch (IllegalAccessException | RuntimeException ignored) {
+          // e.g. InaccessibleObjectException on JDK 9+, or a final field
+        }
+      }
+      return null;
+    } catch (RuntimeException e) {
+      // a static setter does not fit (Object, Object)void
+      return null;
+    }
+  }
+
+  private static MethodHandle unreflect(AccessibleObject member) throws IllegalAccessException {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle handle = member instanceof Method ? lookup.unreflect((Method) member) : lookup.unreflectSetter((Field) member);
+    return handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+  }
+
   public Invoker getGetInvoker(String propertyName) {
     Invoker method = getMethods.get(propertyName);
     if (method == null) {
@@ -0,0 +1,46 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * Specifies which statements a batch executor may group with an earlier statement of the same SQL, so that
+ * interleaved statements (for instance inserts into a parent and a child table) do not start a new JDBC batch
+ * for every row. Groups are executed in the order of their first statement: a grouped row runs before the rows of
+ * the statements that first appeared after its own, even if they were queued before it.
+ * <p>
+ * Grouping therefore only keeps foreign keys satisfied when the rows of a statement reference rows of statements
+ * that first appeared before it, like parents inserted before their children. With P1, C1, Q1, C2 where C
+ * references Q, C2 runs before Q1 and violates the key; use {@link #NONE} for such sequences.
+ */
+public enum BatchGrouping {
+
+  /**
+   * Only consecutive statements with the same SQL share a batch.
+   */
+  NONE,
+
+  /**
+   * Inserts are grouped with the earlier inserts of the same SQL. Updates and deletes are not grouped and are
+   * barriers: a later insert is never grouped with an insert queued before them. Inserts between two barriers
+   * are reordered as described above.
+   */
+  PARTIAL,
+
+  /**
+   * All statements are grouped with the earlier statements of the same SQL.
+   */
+  FULL
+}
@@ -22,10 +22,13 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheTagIndex;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
@@ -38,6 +41,7 @@ import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetLayout;
 import org.apache.ibatis.executor.statement.RoutingStatementHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.io.VFS;
@@ -74,6 +78,10 @@ import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 
 /**
@@ -91,9 +99,11 @@ public class Configuration {
   protected boolean useGeneratedKeys;
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
+  protected boolean cacheSingleFlightEnabled;
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   protected boolean returnInstanceForEmptyRow;
+  protected boolean compiledRowMappingEnabled;
 
   protected String logPrefix;
   protected Class<? extends Log> logImpl;
@@ -103,9 +113,20 @@ public class Configuration {
   protected Set<String> lazyLoadTriggerMethods = new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString"));
   protected Integer defaultStatementTimeout;
   protected Integer defaultFetchSize;
+  protected int nestedQueryBatchSize = 1000;
+  protected ExecutorService nestedQueryExecutorService;
+  // whether the pool was created by setNestedQueryThreads(int), and must be shut down by the configuration
+  protected boolean nestedQueryThreadsOwned;
   protected ResultSetType defaultResultSetType;
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
+  protected BatchGrouping batchGrouping = BatchGrouping.NONE;
+  protected int batchFlushSize;
+  protected double batchFlushHeapRatio;
+  protected int batchInsertRewriteSize;
+  protected int batchInsertRewriteMaxParameters = 2000;
+  protected boolean batchParameterObjectsRetained = true;
+  protected int reuseStatementCacheSize = 256;
   protected AutoMappingUnknownColumnBehavior autoMappingUnknownColumnBehavior = AutoMappingUnknownColumnBehavior.NONE;
 
   protected Properties variables = new Properties();
@@ -125,6 +146,7 @@ public class Configuration {
    */
   protected Class<?> configurationFactory;
 
+  protected final SingleFlight cacheSingleFlight = new SingleFlight();
   protected final MapperRegistry mapperRegistry = new MapperRegistry(this);
   protected final InterceptorChain interceptorChain = new InterceptorChain();
   /**
@@ -160,6 +182,32 @@ public class Configuration {
    */
   protected final Map<String, String> cacheRefMap = new HashMap<>();
 
+  /*
+   * Tag indexes of the caches used by statements declaring cache tags, keyed by cache id.
+   */
+  protected final Map<String, CacheTagIndex> cacheTagIndexes = new HashMap<>();
+
+  /*
+   * Ids of the read/write caches, whose readers get copies of the cached objects.
+   */
+  protected final Set<String> readWriteCacheIds = new HashSet<>();
+
+  /*
+   * Column layouts of the result sets seen so far, holding the mapping plans derived from them.
+   * Bounded, the least recently used layout is dropped first.
+   */
+  protected final Map<ResultSetLayout, ResultSetLayout> resultSetLayouts = new LinkedHashMap<ResultSetLayout, ResultSetLayout>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<ResultSetLayout, ResultSetLayout> eldest) {
+      return size() > maxResultSetLayouts;
+    }
+  };
+  protected int maxResultSetLayouts = 1024;
+  // statements whose nested results were already reported as not streamed, bounded by the mapped statements
+  protected final Set<String> nestedResultStreamingWarnings = ConcurrentHashMap.newKeySet();
+
   public Configuration(Environment environment) {
     this();
     this.environment = environment;
@@ -178,6 +226,8 @@ public class Configuration {
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -257,6 +307,85 @@ public class Configuration {
     this.returnInstanceForEmptyRow = returnEmptyInstance;
   }
 
+  public boolean isCompiledRowMappingEnabled() {
+    return compiledRowMappingEnabled;
+  }
+
+  /**
+   * Whether simple result maps of plain beans are mapped by a row mapper compiled once per result set,
+   * which reads the columns by index and calls the setters through method handles instead of {@link MetaObject}.
+   * Objects created by a constructor with arguments are likewise created through a constructor resolved once,
+   * unless a custom {@link ObjectFactory} is configured.
+   */
+  public void setCompiledRowMappingEnabled(boolean compiledRowMappingEnabled) {
+    this.compiledRowMappingEnabled = compiledRowMappingEnabled;
+  }
+
+  public int getNestedQueryBatchSize() {
+    return nestedQueryBatchSize;
+  }
+
+  /**
+   * Maximum number of keys passed at once to the batch select of an association or collection
+   * ({@code batchSelect}), larger batches are split, as most databases limit the size of an {@code IN} list.
+   */
+  public void setNestedQueryBatchSize(int nestedQueryBatchSize) {
+    this.nestedQueryBatchSize = nestedQueryBatchSize;
+  }
+
+  public ExecutorService getNestedQueryExecutorService() {
+    return nestedQueryExecutorService;
+  }
+
+  /**
+   * Runs the eager nested selects of a row on the given pool when its result map has more than one of them,
+   * each with an executor of its own on a read-only connection of the environment's data source, and waits
+   * for all of them before the row is returned. These selects neither see the changes not committed by the
+   * session nor use its local cache. Null, the default, runs them one after the other within the session.
+   * <p>
+   * The nested selects of a select running on the pool run on the same thread, and a select the pool has not
+   * started when the row needs it is run by the session itself. Each select running on the pool holds a connection
+   * of its own, so the data source should allow as many connections as the sessions and the pool threads together.
+   * The pool is not shut down by the configuration.
+   */
+  public void setNestedQueryExecutorService(ExecutorService nestedQueryExecutorService) {
+    shutdownNestedQueryThreads();
+    this.nestedQueryExecutorService = nestedQueryExecutorService;
+  }
+
+  /**
+   * Shortcut for {@link #setNestedQueryExecutorService(ExecutorService)} with a fixed pool of daemon threads, shut
+   * down by {@link #shutdownNestedQueryThreads()} or when replaced.
+   *
+   * @param threads the number of threads, 0 to run nested selects within the session
+   */
+  public void setNestedQueryThreads(int threads) {
+    shutdownNestedQueryThreads();
+    if (threads <= 0) {
+      this.nestedQueryExecutorService = null;
+      return;
+    }
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.nestedQueryExecutorService = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-nested-query-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.nestedQueryThreadsOwned = true;
+  }
+
+  /**
+   * Shuts down the pool created by {@link #setNestedQueryThreads(int)}, if any, once the configuration is no longer
+   * used. Nested selects run within the sessions afterwards.
+   */
+  public void shutdownNestedQueryThreads() {
+    if (nestedQueryThreadsOwned) {
+      nestedQueryThreadsOwned = false;
+      nestedQueryExecutorService.shutdown();
+      nestedQueryExecutorService = null;
+    }
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -321,6 +450,95 @@ public class Configuration {
     this.autoMappingBehavior = autoMappingBehavior;
   }
 
+  public BatchGrouping getBatchGrouping() {
+    return batchGrouping;
+  }
+
+  public void setBatchGrouping(BatchGrouping batchGrouping) {
+    this.batchGrouping = batchGrouping;
+  }
+
+  public int getBatchFlushSize() {
+    return batchFlushSize;
+  }
+
+  /**
+   * Number of rows a statement of a batch executor queues before it is executed without waiting for the flush,
+   * together with the rows queued by the statements before it. 0, the default, queues all rows until the flush.
+   */
+  public void setBatchFlushSize(int batchFlushSize) {
+    this.batchFlushSize = batchFlushSize;
+  }
+
+  public double getBatchFlushHeapRatio() {
+    return batchFlushHeapRatio;
+  }
+
+  /**
+   * Fraction of the maximum heap above which a batch executor executes all the rows it has queued without
+   * waiting for the flush. The heap usage is checked every few hundred rows. 0, the default, disables the check.
+   */
+  public void setBatchFlushHeapRatio(double batchFlushHeapRatio) {
+    this.batchFlushHeapRatio = batchFlushHeapRatio;
+  }
+
+  public int getBatchInsertRewriteSize() {
+    return batchInsertRewriteSize;
+  }
+
+  /**
+   * Maximum number of rows a batch executor inserts with one {@code INSERT ... VALUES (...), (...), ...}
+   * statement, for prepared inserts ending with a single {@code VALUES} list and using no key generator or
+   * {@link org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator}. The rows are bound by the default parameter handler
+   * at an offset, so the statement is not rewritten when a plugin wraps the parameter handler. A batch result then
+   * reports 1 per row of a statement inserting all its rows, or {@link java.sql.Statement#SUCCESS_NO_INFO} if the
+   * driver does; any other update count fails the flush with a {@link org.apache.ibatis.executor.BatchExecutorException}.
+   * 0, the default, executes one batch entry per row.
+   */
+  public void setBatchInsertRewriteSize(int batchInsertRewriteSize) {
+    this.batchInsertRewriteSize = batchInsertRewriteSize;
+  }
+
+  public int getBatchInsertRewriteMaxParameters() {
+    return batchInsertRewriteMaxParameters;
+  }
+
+  /**
+   * Most parameters of a multi-row insert (see {@link #setBatchInsertRewriteSize(int)}), which takes fewer rows
+   * per statement if needed. The default, 2000, stays below the lowest limit of the common databases, the 2100
+   * parameters of SQL Server.
+   */
+  public void setBatchInsertRewriteMaxParameters(int batchInsertRewriteMaxParameters) {
+    this.batchInsertRewriteMaxParameters = batchInsertRewriteMaxParameters;
+  }
+
+  public int getReuseStatementCacheSize() {
+    return reuseStatementCacheSize;
+  }
+
+  /**
+   * Maximum number of statements a reuse executor keeps open until the flush, the least recently used ones are
+   * closed first. 0 keeps all of them. Statements of connections from a {@link org.apache.ibatis.datasource.pooled.PooledDataSource}
+   * with a statement cache are kept in that cache instead, across sessions.
+   */
+  public void setReuseStatementCacheSize(int reuseStatementCacheSize) {
+    this.reuseStatementCacheSize = reuseStatementCacheSize;
+  }
+
+  public boolean isBatchParameterObjectsRetained() {
+    return batchParameterObjectsRetained;
+  }
+
+  /**
+   * Whether the {@link org.apache.ibatis.executor.BatchResult}s of a batch executor keep the parameter objects of
+   * their rows until the flush. If false, the parameter objects are dropped once their rows have been executed
+   * and their generated keys, if any, assigned, or not kept at all for statements without a key generator, and
+   * {@link org.apache.ibatis.executor.BatchResult#getParameterObjects()} returns an empty list.
+   */
+  public void setBatchParameterObjectsRetained(boolean batchParameterObjectsRetained) {
+    this.batchParameterObjectsRetained = batchParameterObjectsRetained;
+  }
+
   /**
    * @since 3.4.0
    */
@@ -402,6 +620,36 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  public boolean isCacheSingleFlightEnabled() {
+    return cacheSingleFlightEnabled;
+  }
+
+  /**
+   * Whether concurrent sessions missing the second level cache for the same key share one query.
+   * With a read-only cache they share the same result objects, each in a list of its own, with a read/write
+   * cache each gets a copy. A session that wrote since its last commit or rollback neither shares its queries
+   * nor waits for others.
+   */
+  public void setCacheSingleFlightEnabled(boolean cacheSingleFlightEnabled) {
+    this.cacheSingleFlightEnabled = cacheSingleFlightEnabled;
+  }
+
+  public long getCacheSingleFlightTimeout() {
+    return cacheSingleFlight.getTimeout();
+  }
+
+  /**
+   * How long a session waits for the same query run by another session, in milliseconds, before running it
+   * itself. Defaults to 10 seconds.
+   */
+  public void setCacheSingleFlightTimeout(long cacheSingleFlightTimeout) {
+    cacheSingleFlight.setTimeout(cacheSingleFlightTimeout);
+  }
+
+  public SingleFlight getCacheSingleFlight() {
+    return cacheSingleFlight;
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -643,6 +891,75 @@ public class Configuration {
     caches.put(cache.getId(), cache);
   }
 
+  /**
+   * Records that a cache gives its readers copies of the cached objects.
+   */
+  public void addReadWriteCache(String cacheId) {
+    readWriteCacheIds.add(cacheId);
+  }
+
+  public boolean isReadWriteCache(String cacheId) {
+    return readWriteCacheIds.contains(cacheId);
+  }
+
+  /**
+   * Creates the tag index of a cache, if it does not exist yet.
+   */
+  public void addCacheTagIndex(String cacheId) {
+    cacheTagIndexes.computeIfAbsent(cacheId, k -> new CacheTagIndex());
+  }
+
+  /**
+   * @return the tag index of the cache, or null if no statement using it declares cache tags
+   */
+  public CacheTagIndex getCacheTagIndex(String cacheId) {
+    return cacheTagIndexes.get(cacheId);
+  }
+
+  /**
+   * Returns the shared instance of a result set layout, so that result sets with the same columns share the
+   * mapping plans derived from them.
+   *
+   * @param layout the layout of a result set
+   * @return the shared instance, or the given one the first time these columns are seen
+   */
+  public ResultSetLayout getResultSetLayout(ResultSetLayout layout) {
+    synchronized (resultSetLayouts) {
+      final ResultSetLayout shared = resultSetLayouts.putIfAbsent(layout, layout);
+      return shared == null ? layout : shared;
+    }
+  }
+
+  /**
+   * Records that the nested results of a statement were reported as not streamed.
+   *
+   * @return true the first time for a statement, so that it is reported once
+   */
+  public boolean addNestedResultStreamingWarning(String statementId) {
+    return nestedResultStreamingWarnings.add(statementId);
+  }
+
+  public int getMaxResultSetLayouts() {
+    return maxResultSetLayouts;
+  }
+
+  public void setMaxResultSetLayouts(int maxResultSetLayouts) {
+    synchronized (resultSetLayouts) {
+      this.maxResultSetLayouts = maxResultSetLayouts;
+      final Iterator<ResultSetLayout> iterator = resultSetLayouts.keySet().iterator();
+      while (resultSetLayouts.size() > maxResultSetLayouts && iterator.hasNext()) {
+        iterator.next();
+        iterator.remove();
+      }
+    }
+  }
+
+  public int getResultSetLayoutCount() {
+    synchronized (resultSetLayouts) {
+      return resultSetLayouts.size();
+    }
+  }
+
   public Collection<String> getCacheNames() {
     return caches.keySet();
   }
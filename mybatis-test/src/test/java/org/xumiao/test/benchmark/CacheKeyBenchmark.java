@@ -0,0 +1,95 @@
+package org.xumiao.test.benchmark;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a cache key the way {@code BaseExecutor.createCacheKey} does and looks it up in a cache holding 10k keys,
+ * as the local cache and the second level cache do on every select. The SQL text is built anew for each key, like
+ * a dynamic statement does, and is optionally replaced by its interned instance. With 1000 distinct SQL texts, a
+ * statement interns only the first 256 of them and most keys pay for the lookup without the benefit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CacheKeyBenchmark {
+
+    private static final int KEYS = 10000;
+
+    @Param({ "false", "true" })
+    public boolean internSql;
+
+    @Param({ "1", "3" })
+    public int lookups;
+
+    @Param({ "1", "1000" })
+    public int distinctSql;
+
+    private MappedStatement statement;
+    private final Map<CacheKey, Object> cache = new HashMap<>();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Configuration configuration = new Configuration();
+        statement = new MappedStatement.Builder(configuration, "org.example.BlogMapper.selectBlogsByAuthor",
+            new StaticSqlSource(configuration, "select 1"), SqlCommandType.SELECT).build();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put(createCacheKey(i), i);
+        }
+    }
+
+    @Benchmark
+    public Object createAndLookUp() {
+        next = (next + 1) % KEYS;
+        CacheKey key = createCacheKey(next);
+        Object value = null;
+        for (int i = 0; i < lookups; i++) {
+            value = cache.get(key);
+        }
+        return value;
+    }
+
+    private CacheKey createCacheKey(int id) {
+        String sql = new StringBuilder("select id, title, author_id, content, created_on from blog")
+            .append(" where author_id = ? and created_on > ? order by created_on desc limit ")
+            .append(id % distinctSql + 1).toString();
+        CacheKey key = new CacheKey();
+        key.update(statement.getId());
+        key.update(0);
+        key.update(Integer.MAX_VALUE);
+        key.update(internSql ? statement.internSql(sql) : sql);
+        key.update(id);
+        key.update("2019-01-01");
+        key.update("development");
+        return key;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CacheKeyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,164 @@
+package org.xumiao.test.benchmark;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects 1000 rows of 10 columns from an in-memory HSQLDB table onto beans, with a result map and with automatic
+ * mapping, through {@link org.apache.ibatis.reflection.MetaObject} and with compiled row mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CompiledRowMapperBenchmark {
+
+    private static final String MAPPER = "org/xumiao/test/benchmark/CompiledRowMapperBenchmark.xml";
+    private static final int ROWS = 1000;
+
+    @Param({ "false", "true" })
+    public boolean compiledRowMapping;
+
+    @Param({ "blog.selectMapped", "blog.selectAutoMapped" })
+    public String statement;
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Setup
+    public void setUp() throws Exception {
+        dataSource = new PooledDataSource("org.hsqldb.jdbc.JDBCDriver", "jdbc:hsqldb:mem:compiled", "sa", "");
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement ddl = connection.createStatement()) {
+                ddl.execute("drop table blog if exists");
+                ddl.execute("create table blog (id int primary key, author_id bigint, title varchar(100), content varchar(1000),"
+                    + " views int, rating double, published boolean, created_on timestamp, tags varchar(100), version bigint)");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("insert into blog values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < ROWS; i++) {
+                    insert.setInt(1, i);
+                    insert.setLong(2, i % 50);
+                    insert.setString(3, "title " + i);
+                    insert.setString(4, "content of blog " + i);
+                    insert.setInt(5, i * 7);
+                    insert.setDouble(6, i % 5 + 0.5);
+                    insert.setBoolean(7, i % 2 == 0);
+                    insert.setTimestamp(8, new Timestamp(1546300800000L + i * 60000L));
+                    // some null columns, the setters are not called for them
+                    insert.setString(9, i % 3 == 0 ? null : "tag" + i % 10);
+                    insert.setLong(10, 1);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+        configuration.setCompiledRowMappingEnabled(compiledRowMapping);
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+        sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public List<Blog> selectList() {
+        try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+            return sqlSession.selectList(statement);
+        }
+    }
+
+    public static class Blog {
+        private int id;
+        private long authorId;
+        private String title;
+        private String content;
+        private int views;
+        private double rating;
+        private boolean published;
+        private Timestamp createdOn;
+        private String tags;
+        private Long version;
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public void setAuthorId(long authorId) {
+            this.authorId = authorId;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public void setContent(String content) {
+            this.content = content;
+        }
+
+        public void setViews(int views) {
+            this.views = views;
+        }
+
+        public void setRating(double rating) {
+            this.rating = rating;
+        }
+
+        public void setPublished(boolean published) {
+            this.published = published;
+        }
+
+        public void setCreatedOn(Timestamp createdOn) {
+            this.createdOn = createdOn;
+        }
+
+        public void setTags(String tags) {
+            this.tags = tags;
+        }
+
+        public void setVersion(Long version) {
+            this.version = version;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CompiledRowMapperBenchmark.class.getSimpleName()).build()).run();
+    }
+}
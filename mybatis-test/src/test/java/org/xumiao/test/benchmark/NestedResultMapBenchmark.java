@@ -0,0 +1,109 @@
+package org.xumiao.test.benchmark;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the rows of a 3-level join (100 parents, 5 children each, 4 toys per child) from an in-memory HSQLDB table
+ * onto nested maps, which builds a row key per row and nesting level. Reported per row, run with {@code -prof gc}
+ * to see the bytes allocated per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NestedResultMapBenchmark {
+
+    private static final String MAPPER = "org/xumiao/test/resultset/NestedResultMapper.xml";
+    private static final int PARENTS = 100;
+    private static final int CHILDREN = 5;
+    private static final int TOYS = 4;
+    private static final int ROWS = PARENTS * CHILDREN * TOYS;
+
+    @Param({ "joined.selectParents", "joined.selectOrderedParents" })
+    public String statement;
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Setup
+    public void setUp() throws Exception {
+        dataSource = new PooledDataSource("org.hsqldb.jdbc.JDBCDriver", "jdbc:hsqldb:mem:nested", "sa", "");
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement ddl = connection.createStatement()) {
+                ddl.execute("drop table family if exists");
+                ddl.execute("create table family (p_id bigint, p_name varchar(20), c_id int, c_name varchar(20), t_id varchar(20))");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("insert into family values (?, ?, ?, ?, ?)")) {
+                for (int p = 0; p < PARENTS; p++) {
+                    for (int c = 0; c < CHILDREN; c++) {
+                        for (int t = 0; t < TOYS; t++) {
+                            insert.setLong(1, p);
+                            insert.setString(2, "parent" + p);
+                            insert.setInt(3, p * CHILDREN + c);
+                            insert.setString(4, "child" + c);
+                            insert.setString(5, "toy" + t);
+                            insert.addBatch();
+                        }
+                    }
+                }
+                insert.executeBatch();
+            }
+        }
+
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+        sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Object> selectList() {
+        try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+            return sqlSession.selectList(statement);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(NestedResultMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
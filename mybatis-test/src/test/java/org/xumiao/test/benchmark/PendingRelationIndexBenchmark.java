@@ -0,0 +1,125 @@
+package org.xumiao.test.benchmark;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls an HSQLDB procedure returning a result set of parents and one of their children (10 children per parent),
+ * linking every child row to its parent by the values of the {@code foreignColumn}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PendingRelationIndexBenchmark {
+
+    private static final String MAPPER = "org/xumiao/test/benchmark/PendingRelationIndexBenchmark.xml";
+    private static final int CHILDREN = 10;
+    private static final int BATCH = 10000;
+
+    /**
+     * The number of child rows.
+     */
+    @Param({ "100000", "1000000" })
+    public int rows;
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Setup
+    public void setUp() throws Exception {
+        dataSource = new PooledDataSource("org.hsqldb.jdbc.JDBCDriver", "jdbc:hsqldb:mem:relation", "sa", "");
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement ddl = connection.createStatement()) {
+                ddl.execute("drop procedure parents_and_children if exists");
+                ddl.execute("drop table child if exists");
+                ddl.execute("drop table parent if exists");
+                ddl.execute("create table parent (id int, name varchar(20))");
+                // a wider type than the parent id, the keys still match
+                ddl.execute("create table child (id int, parent_id bigint, name varchar(20))");
+                ddl.execute("create procedure parents_and_children() reads sql data dynamic result sets 2"
+                    + " begin atomic"
+                    + " declare parents cursor with return for select id, name from parent;"
+                    + " declare children cursor with return for select id, parent_id, name from child;"
+                    + " open parents; open children;"
+                    + " end");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("insert into parent values (?, ?)")) {
+                for (int i = 0; i < rows / CHILDREN; i++) {
+                    insert.setInt(1, i);
+                    insert.setString(2, "parent" + i);
+                    insert.addBatch();
+                    if (i % BATCH == BATCH - 1) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insert = connection.prepareStatement("insert into child values (?, ?, ?)")) {
+                for (int i = 0; i < rows; i++) {
+                    insert.setInt(1, i);
+                    insert.setLong(2, i % (rows / CHILDREN));
+                    insert.setString(3, "child" + i);
+                    insert.addBatch();
+                    if (i % BATCH == BATCH - 1) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+        }
+
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+        sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public List<Object> selectList() {
+        try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+            return sqlSession.selectList("relation.selectParents");
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PendingRelationIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
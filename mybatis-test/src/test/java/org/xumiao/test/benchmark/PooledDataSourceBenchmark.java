@@ -0,0 +1,83 @@
+package org.xumiao.test.benchmark;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkout and return of pooled connections by 16 threads, with the classic pool and the concurrent bag.
+ * <ul>
+ * <li>With as many connections as threads, every checkout finds an idle connection.</li>
+ * <li>With 4 connections, most checkouts wait for a connection handed off by a returning thread.</li>
+ * <li>With a maximum checkout time of 1ms, most checkouts claim an overdue connection instead.</li>
+ * </ul>
+ * The fake driver keeps the time spent outside of the pool negligible.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(16)
+public class PooledDataSourceBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean concurrentBag;
+
+    @Param({ "16", "4" })
+    public int maximumActiveConnections;
+
+    @Param({ "20000", "1" })
+    public int maximumCheckoutTime;
+
+    private PooledDataSource dataSource;
+
+    @Setup
+    public void setUp() {
+        dataSource = new PooledDataSource(FakeDatabase.getDriver(), new FakeDatabase().getUrl(), null, null);
+        dataSource.setPoolConcurrentBagEnabled(concurrentBag);
+        dataSource.setPoolMaximumActiveConnections(maximumActiveConnections);
+        dataSource.setPoolMaximumIdleConnections(maximumActiveConnections);
+        dataSource.setPoolMaximumCheckoutTime(maximumCheckoutTime);
+        dataSource.setPoolTimeToWait(20000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public void checkoutAndReturn(Blackhole blackhole) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            blackhole.consume(connection);
+            // some work with the connection, so that checkouts overlap
+            Blackhole.consumeCPU(500);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PooledDataSourceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
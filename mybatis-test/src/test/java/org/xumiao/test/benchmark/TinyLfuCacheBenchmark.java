@@ -0,0 +1,113 @@
+package org.xumiao.test.benchmark;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of a second level cache by 8 threads, putting the value on a miss, with the synchronized LRU cache and the
+ * TinyLFU cache. Keys follow a Zipf distribution over 10 times as many keys as the cache holds, like the statements
+ * of an application where a few queries are run most of the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+public class TinyLfuCacheBenchmark {
+
+    private static final int SIZE = 1024;
+    private static final int KEYS = 1 << 16;
+
+    @Param({ "LRU", "TINYLFU" })
+    public String eviction;
+
+    private Cache cache;
+    private Integer[] keys;
+
+    @Setup
+    public void setUp() {
+        if ("LRU".equals(eviction)) {
+            LruCache lru = new LruCache(new PerpetualCache("benchmark"));
+            lru.setSize(SIZE);
+            cache = new SynchronizedCache(lru);
+        } else {
+            TinyLfuCache tinyLfu = new TinyLfuCache(new PerpetualCache("benchmark"));
+            tinyLfu.setSize(SIZE);
+            cache = tinyLfu;
+        }
+        keys = zipf(KEYS, SIZE * 10, new Random(42));
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index = new Random().nextInt(KEYS);
+
+        Integer next(Integer[] keys) {
+            index = (index + 1) & (KEYS - 1);
+            return keys[index];
+        }
+    }
+
+    @Benchmark
+    public Object getOrPut(Cursor cursor) {
+        Integer key = cursor.next(keys);
+        Object value = cache.getObject(key);
+        if (value == null) {
+            cache.putObject(key, key);
+            value = key;
+        }
+        return value;
+    }
+
+    private static Integer[] zipf(int count, int range, Random random) {
+        double[] cumulative = new double[range];
+        double sum = 0;
+        for (int i = 0; i < range; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        Integer[] keys = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            double target = random.nextDouble() * sum;
+            int low = 0;
+            int high = range - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            keys[i] = low;
+        }
+        return keys;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TinyLfuCacheBenchmark.class.getSimpleName()).build()).run();
+    }
+}
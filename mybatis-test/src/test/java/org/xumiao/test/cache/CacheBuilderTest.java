@@ -0,0 +1,41 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class CacheBuilderTest {
+
+    @Test
+    public void doesNotSynchronizeWhenEveryDecoratorIsConcurrent() {
+        Cache cache = builder(TinyLfuCache.class).readWrite(true).expireAfterWrite(60000L).build();
+
+        assertTrue(cache instanceof LoggingCache);
+    }
+
+    @Test
+    public void synchronizesWhenAStandardDecoratorIsNotConcurrent() {
+        Cache cache = builder(TinyLfuCache.class).clearInterval(60000L).build();
+
+        assertTrue(cache instanceof SynchronizedCache);
+    }
+
+    @Test
+    public void synchronizesWhenAnEvictionDecoratorIsNotConcurrent() {
+        Cache cache = builder(LruCache.class).build();
+
+        assertTrue(cache instanceof SynchronizedCache);
+    }
+
+    private static CacheBuilder builder(Class<? extends Cache> eviction) {
+        return new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(eviction);
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CacheKeyTest {
+
+    @Test
+    public void equalsAKeyWithTheSameElements() {
+        CacheKey key = new CacheKey(new Object[] { "select", 1, null, new String("sql") });
+        CacheKey same = new CacheKey(new Object[] { "select", 1, null, new String("sql") });
+
+        assertEquals(key, same);
+        assertEquals(key.hashCode(), same.hashCode());
+    }
+
+    @Test
+    public void dependsOnTheOrderOfTheElements() {
+        assertNotEquals(new CacheKey(new Object[] { 1, 2 }), new CacheKey(new Object[] { 2, 1 }));
+        assertNotEquals(new CacheKey(new Object[] { 1 }), new CacheKey(new Object[] { 1, null }));
+    }
+
+    @Test
+    public void comparesArraysByContent() {
+        assertEquals(new CacheKey(new Object[] { new byte[] { 1, 2 } }), new CacheKey(new Object[] { new byte[] { 1, 2 } }));
+        assertNotEquals(new CacheKey(new Object[] { new byte[] { 1, 2 } }), new CacheKey(new Object[] { new byte[] { 2, 1 } }));
+    }
+
+    @Test
+    public void growsBeyondItsInitialCapacity() {
+        CacheKey key = new CacheKey();
+        CacheKey same = new CacheKey();
+        for (int i = 0; i < 100; i++) {
+            key.update(i);
+            same.update(i);
+        }
+
+        assertEquals(100, key.getUpdateCount());
+        assertEquals(key, same);
+    }
+
+    @Test
+    public void clonesIndependently() throws CloneNotSupportedException {
+        CacheKey key = new CacheKey(new Object[] { "select", 1 });
+        CacheKey clone = key.clone();
+
+        clone.update(2);
+
+        assertEquals(2, key.getUpdateCount());
+        assertNotEquals(key, clone);
+    }
+
+    @Test
+    public void equalsItsSerializedCopy() {
+        JavaCacheSerializer serializer = new JavaCacheSerializer();
+        CacheKey key = new CacheKey(new Object[] { "select", 1, null });
+
+        Object copy = serializer.deserialize(serializer.serialize(key));
+
+        assertNotSame(key, copy);
+        assertEquals(key, copy);
+        assertEquals(key.hashCode(), copy.hashCode());
+    }
+
+    @Test
+    public void internsTheSqlOfAStatement() {
+        MappedStatement statement = newStatement();
+        String sql = statement.internSql(new StringBuilder("select ").append(1).toString());
+
+        assertSame(sql, statement.internSql(new StringBuilder("select ").append(1).toString()));
+    }
+
+    @Test
+    public void stopsInterningAfter256SqlTexts() {
+        MappedStatement statement = newStatement();
+        for (int i = 0; i < 256; i++) {
+            statement.internSql("select " + i);
+        }
+
+        String sql = "select 256";
+        assertSame(sql, statement.internSql(sql));
+        assertNotSame(sql, statement.internSql(new String(sql)));
+        // the texts interned before stay interned
+        String first = statement.internSql("select 0");
+        assertSame(first, statement.internSql(new String("select 0")));
+    }
+
+    private static MappedStatement newStatement() {
+        Configuration configuration = new Configuration();
+        return new MappedStatement.Builder(configuration, "selectBlog", new StaticSqlSource(configuration, "select 1"),
+            SqlCommandType.SELECT).build();
+    }
+}
@@ -0,0 +1,95 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.CacheTagIndex;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheTagIndexTest {
+
+    @Test
+    public void invalidatesTheKeysOfATagAndUntaggedKeys() {
+        CacheTagIndex index = new CacheTagIndex();
+        index.register("blog", new String[] { "BLOG" });
+        index.register("author", new String[] { "AUTHOR" });
+        index.register("both", new String[] { "BLOG", "AUTHOR" });
+        index.register("any", null);
+
+        assertTrue(index.isAffected("both", Collections.singleton("BLOG")));
+        assertFalse(index.isAffected("author", Collections.singleton("BLOG")));
+
+        List<Object> keys = index.invalidate(Collections.singleton("BLOG"));
+
+        assertEquals(new HashSet<>(Arrays.asList("blog", "both", "any")), new HashSet<>(keys));
+        assertEquals(Collections.singletonList("author"), index.invalidate(Collections.singleton("AUTHOR")));
+    }
+
+    @Test
+    public void keepsKeysNotReachableAnymore() {
+        CacheTagIndex index = new CacheTagIndex();
+        for (int i = 0; i < 1000; i++) {
+            index.register(new StringBuilder("key").append(i), new String[] { "BLOG" });
+        }
+        System.gc();
+
+        assertEquals(1000, index.invalidate(Collections.singleton("BLOG")).size());
+    }
+
+    @Test
+    public void asksForAClearOnceItDroppedKeys() {
+        CacheTagIndex index = new CacheTagIndex(2);
+        index.register("a", new String[] { "BLOG" });
+        index.register("b", new String[] { "AUTHOR" });
+        index.register("c", new String[] { "AUTHOR" });
+
+        assertTrue(index.isAffected("b", Collections.singleton("BLOG")));
+        assertNull(index.invalidate(Collections.singleton("BLOG")));
+
+        index.clear();
+        index.register("c", new String[] { "AUTHOR" });
+        assertEquals(Collections.emptyList(), index.invalidate(Collections.singleton("BLOG")));
+    }
+
+    @Test
+    public void removesOnlyTheAffectedEntriesOnCommit() {
+        PerpetualCache cache = new PerpetualCache("test");
+        CacheTagIndex index = new CacheTagIndex();
+        TransactionalCache transactionalCache = new TransactionalCache(cache);
+        transactionalCache.putObject("blog", "b", index, new String[] { "BLOG" });
+        transactionalCache.putObject("author", "a", index, new String[] { "AUTHOR" });
+        transactionalCache.commit();
+
+        transactionalCache.invalidate(index, new String[] { "BLOG" });
+        assertNull(transactionalCache.getObject("blog"));
+        assertEquals("a", transactionalCache.getObject("author"));
+        transactionalCache.commit();
+
+        assertNull(cache.getObject("blog"));
+        assertEquals("a", cache.getObject("author"));
+    }
+
+    @Test
+    public void clearsTheCacheWhenTheIndexDroppedKeys() {
+        PerpetualCache cache = new PerpetualCache("test");
+        CacheTagIndex index = new CacheTagIndex(1);
+        TransactionalCache transactionalCache = new TransactionalCache(cache);
+        transactionalCache.putObject("blog", "b", index, new String[] { "BLOG" });
+        transactionalCache.putObject("author", "a", index, new String[] { "AUTHOR" });
+        transactionalCache.commit();
+
+        transactionalCache.invalidate(index, new String[] { "BLOG" });
+        transactionalCache.commit();
+
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,63 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.serializer.CompactCacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
+import org.junit.Test;
+
+import java.io.Serializable;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactCacheSerializerTest {
+
+    @Test
+    public void doesNotWriteTheFieldsOfANonSerializableSuperclass() {
+        Child child = new Child();
+        child.base = "changed";
+        child.child = "changed";
+
+        Child compact = copy(new CompactCacheSerializer(), child);
+        Child java = copy(new JavaCacheSerializer(), child);
+
+        assertEquals("initial", java.base);
+        assertEquals(java.base, compact.base);
+        assertEquals("changed", java.child);
+        assertEquals(java.child, compact.child);
+    }
+
+    @Test
+    public void writesTheFieldsOfSerializableSuperclasses() {
+        SerializableChild child = new SerializableChild();
+        child.parent = "changed";
+        child.child = "changed";
+
+        SerializableChild copy = copy(new CompactCacheSerializer(), child);
+
+        assertEquals("changed", copy.parent);
+        assertEquals("changed", copy.child);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(org.apache.ibatis.cache.serializer.CacheSerializer serializer, T value) {
+        return (T) serializer.deserialize(serializer.serialize(value));
+    }
+
+    public static class Base {
+        String base = "initial";
+    }
+
+    public static class Child extends Base implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String child = "initial";
+    }
+
+    public static class SerializableParent implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String parent = "initial";
+    }
+
+    public static class SerializableChild extends SerializableParent {
+        private static final long serialVersionUID = 1L;
+        String child = "initial";
+    }
+}
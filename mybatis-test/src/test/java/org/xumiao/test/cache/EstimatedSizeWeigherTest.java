@@ -0,0 +1,76 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.weigher.EstimatedSizeWeigher;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EstimatedSizeWeigherTest {
+    private final EstimatedSizeWeigher weigher = new EstimatedSizeWeigher();
+
+    @Test
+    public void extrapolatesTheRowsBeyondTheSample() {
+        int small = weigher.weigh(null, rows(16));
+        int large = weigher.weigh(null, rows(1600));
+
+        // 40 bytes for the list itself, 8 per slot
+        assertEquals(100 * (small - 40 - 16 * 8), large - 40 - 1600 * 8);
+    }
+
+    @Test
+    public void extrapolatesAtEveryNestingLevel() {
+        List<List<Row>> nested = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            nested.add(rows(100));
+        }
+
+        int inner = weigher.weigh(null, rows(100));
+        int outer = weigher.weigh(null, nested);
+
+        assertEquals(40 + 100 * 8 + 100 * inner, outer);
+    }
+
+    @Test
+    public void measuresTheObjectsReferencedByARow() {
+        Row row = new Row(1L, "x");
+        Row withLongName = new Row(1L, "a much longer name than x");
+
+        assertEquals(2 * 24, weigher.weigh(null, withLongName) - weigher.weigh(null, row));
+    }
+
+    @Test
+    public void stopsAtCircularReferences() {
+        Node first = new Node();
+        Node second = new Node();
+        first.next = second;
+        second.next = first;
+
+        assertTrue(weigher.weigh(null, first) > 0);
+    }
+
+    private static List<Row> rows(int count) {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Row((long) i, "name" + (i % 10)));
+        }
+        return rows;
+    }
+
+    public static class Row {
+        private final Long id;
+        private final String name;
+
+        Row(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    public static class Node {
+        private Node next;
+    }
+}
@@ -0,0 +1,119 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void expiresAnEntryAfterItWasWritten() throws InterruptedException {
+        ExpiringCache cache = new ExpiringCache(new PerpetualCache("test"));
+        cache.setExpireAfterWrite(100);
+        cache.putObject("key", "value");
+
+        assertEquals("value", cache.getObject("key"));
+        Thread.sleep(150);
+
+        assertNull(cache.getObject("key"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void refreshesTheTimeToLiveOnEachRead() throws InterruptedException {
+        ExpiringCache cache = new ExpiringCache(new PerpetualCache("test"));
+        cache.setExpireAfterAccess(200);
+        cache.putObject("key", "value");
+
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(100);
+            assertEquals("value", cache.getObject("key"));
+        }
+        Thread.sleep(300);
+
+        assertNull(cache.getObject("key"));
+    }
+
+    @Test
+    public void servesTheStaleValueWhileOneReaderReloadsIt() throws InterruptedException {
+        ExpiringCache cache = new ExpiringCache(new PerpetualCache("test"));
+        cache.setExpireAfterWrite(50);
+        cache.setStaleWhileRevalidate(10000);
+        cache.putObject("key", "old");
+        Thread.sleep(100);
+
+        assertNull(cache.getObject("key"));
+        assertEquals("old", cache.getObject("key"));
+        cache.putObject("key", "new");
+
+        assertEquals("new", cache.getObject("key"));
+    }
+
+    @Test
+    public void keepsAValueWrittenWhileAReaderRemovesTheExpiredOne() throws InterruptedException {
+        List<Thread> readers = new ArrayList<>();
+        ExpiringCache[] cache = new ExpiringCache[1];
+        cache[0] = new ExpiringCache(new PerpetualCache("test") {
+            @Override
+            public void putObject(Object key, Object value) {
+                super.putObject(key, value);
+                if ("new".equals(value)) {
+                    // a reader finds the expired entry right after the new value is stored
+                    Thread reader = new Thread(() -> cache[0].getObject(key));
+                    readers.add(reader);
+                    reader.start();
+                    try {
+                        reader.join(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        cache[0].setExpireAfterWrite(400);
+        cache[0].putObject("key", "old");
+        Thread.sleep(300);
+        // sweeps before the entry expires, so that the next write does not sweep
+        cache[0].putObject("other", "value");
+        Thread.sleep(150);
+
+        cache[0].putObject("key", "new");
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals("new", cache[0].getObject("key"));
+    }
+
+    @Test
+    public void expiresEntriesBelowTheOtherDecorators() throws InterruptedException {
+        Cache cache = new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(LruCache.class)
+            .size(2).readWrite(true).expireAfterWrite(100L).build();
+        List<String> value = new ArrayList<>();
+        value.add("row");
+        cache.putObject("a", value);
+        cache.putObject("b", value);
+        cache.putObject("c", value);
+
+        // evicted by the LRU cache before it expires
+        assertNull(cache.getObject("a"));
+        // copied by the serialized cache
+        assertEquals(value, cache.getObject("b"));
+        assertNotSame(value, cache.getObject("b"));
+        Thread.sleep(150);
+
+        assertNull(cache.getObject("b"));
+        assertNull(cache.getObject("c"));
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,86 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.junit.Test;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheTest {
+
+    @Test
+    public void keepsTheSlabsWithinTheMemoryBudget() {
+        OffHeapCache cache = new OffHeapCache("test");
+        cache.setMaxMemory(1000);
+        cache.initialize();
+
+        cache.putObject("small", repeat(100));
+        cache.putObject("large", repeat(600));
+
+        assertEquals(repeat(100), cache.getObject("small"));
+        assertNull(cache.getObject("large"));
+    }
+
+    @Test(expected = CacheException.class)
+    public void rejectsAMemoryBudgetTooSmallForTwoSlabs() {
+        OffHeapCache cache = new OffHeapCache("test");
+        cache.setMaxMemory(1);
+        cache.initialize();
+    }
+
+    @Test
+    public void removesAnEntryWithoutReadingItBack() {
+        OffHeapCache cache = new OffHeapCache("test");
+        cache.initialize();
+        cache.putObject("key", repeat(100));
+
+        assertNull(cache.removeObject("key"));
+        assertNull(cache.getObject("key"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void releasesTheDirectMemoryOnClear() throws InterruptedException {
+        OffHeapCache cache = new OffHeapCache("test");
+        cache.setMaxMemory(8 * 1024 * 1024);
+        cache.setSlabSize(1024 * 1024);
+        cache.initialize();
+        for (int i = 0; i < 8; i++) {
+            cache.putObject(i, repeat(1000 * 1000));
+        }
+        long full = directMemoryUsed();
+
+        cache.clear();
+
+        for (int i = 0; i < 100 && full - directMemoryUsed() < 8 * 1024 * 1024; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertTrue(full - directMemoryUsed() >= 8 * 1024 * 1024);
+        assertNull(cache.getObject(0));
+        cache.putObject(0, repeat(100));
+        assertEquals(repeat(100), cache.getObject(0));
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("no direct buffer pool");
+    }
+
+    private static String repeat(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append('x');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.weigher.RowCountWeigher;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    public void boundsTheNumberOfEntries() {
+        TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("test"));
+        cache.setSize(100);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.putObject(i, i);
+        }
+
+        assertEquals(100, cache.getSize());
+        assertEquals(100, cache.getTotalWeight());
+    }
+
+    @Test
+    public void keepsFrequentlyUsedEntriesDuringAScan() {
+        TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("test"));
+        cache.setSize(100);
+        for (int i = 0; i < 50; i++) {
+            cache.putObject("hot" + i, i);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.getObject("hot" + i);
+            }
+        }
+
+        // every key of the scan is used once, an LRU cache would keep none of the hot keys
+        for (int i = 0; i < 10000; i++) {
+            cache.putObject("scan" + i, i);
+        }
+
+        int hits = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.getObject("hot" + i) != null) {
+                hits++;
+            }
+        }
+        assertTrue("only " + hits + " hot keys left", hits >= 45);
+    }
+
+    @Test
+    public void boundsTheTotalWeight() {
+        TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("test"));
+        cache.setWeigher(new RowCountWeigher());
+        cache.setSize(100);
+
+        for (int i = 0; i < 100; i++) {
+            cache.putObject(i, rows(10));
+        }
+
+        assertEquals(10, cache.getSize());
+        assertEquals(100, cache.getTotalWeight());
+    }
+
+    @Test
+    public void updatesTheWeightOfAReplacedValue() {
+        TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("test"));
+        cache.setWeigher(new RowCountWeigher());
+        cache.setSize(100);
+        cache.putObject("a", rows(10));
+        cache.putObject("b", rows(10));
+
+        cache.putObject("a", rows(50));
+        assertEquals(60, cache.getTotalWeight());
+
+        cache.putObject("a", rows(200));
+        assertNull(cache.getObject("a"));
+        assertNotNull(cache.getObject("b"));
+        assertEquals(10, cache.getTotalWeight());
+    }
+
+    @Test
+    public void honorsTheWeigherOfTheCacheBuilder() {
+        Cache cache = new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(TinyLfuCache.class)
+            .size(10).weigher(new RowCountWeigher()).build();
+
+        cache.putObject("small", rows(5));
+        cache.putObject("large", rows(20));
+
+        assertNotNull(cache.getObject("small"));
+        assertNull(cache.getObject("large"));
+    }
+
+    @Test
+    public void staysBoundedUnderConcurrentUse() throws InterruptedException {
+        TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("test"));
+        cache.setSize(100);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20000; i++) {
+                    Integer key = random.nextInt(1000);
+                    if (cache.getObject(key) == null) {
+                        cache.putObject(key, key);
+                    }
+                    if (i % 100 == 0) {
+                        cache.removeObject(random.nextInt(1000));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(cache.getSize(), cache.getTotalWeight());
+        assertTrue(cache.getSize() <= 100);
+    }
+
+    private static List<Integer> rows(int count) {
+        return new ArrayList<>(Collections.nCopies(count, 0));
+    }
+}
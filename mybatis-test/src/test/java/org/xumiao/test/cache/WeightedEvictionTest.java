@@ -0,0 +1,103 @@
+package org.xumiao.test.cache;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.weigher.RowCountWeigher;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WeightedEvictionTest {
+
+    @Test
+    public void lruEvictsTheLeastRecentlyUsedEntriesUntilTheWeightFits() {
+        LruCache cache = new LruCache(new PerpetualCache("test"));
+        cache.setWeigher(new RowCountWeigher());
+        cache.setSize(10);
+        cache.putObject("a", rows(4));
+        cache.putObject("b", rows(4));
+        cache.getObject("a");
+
+        cache.putObject("c", rows(4));
+
+        assertNotNull(cache.getObject("a"));
+        assertNull(cache.getObject("b"));
+        assertNotNull(cache.getObject("c"));
+        assertEquals(8, cache.getTotalWeight());
+    }
+
+    @Test
+    public void fifoEvictsTheOldestEntriesUntilTheWeightFits() {
+        FifoCache cache = new FifoCache(new PerpetualCache("test"));
+        cache.setWeigher(new RowCountWeigher());
+        cache.setSize(10);
+        cache.putObject("a", rows(4));
+        cache.putObject("b", rows(4));
+        cache.getObject("a");
+
+        cache.putObject("c", rows(4));
+
+        assertNull(cache.getObject("a"));
+        assertNotNull(cache.getObject("b"));
+        assertNotNull(cache.getObject("c"));
+        assertEquals(8, cache.getTotalWeight());
+    }
+
+    @Test
+    public void evictsSeveralEntriesForAHeavyOne() {
+        LruCache cache = new LruCache(new PerpetualCache("test"));
+        cache.setWeigher(new RowCountWeigher());
+        cache.setSize(10);
+        for (int i = 0; i < 5; i++) {
+            cache.putObject(i, rows(2));
+        }
+
+        cache.putObject("heavy", rows(7));
+
+        assertEquals(2, cache.getSize());
+        assertEquals(9, cache.getTotalWeight());
+        assertNotNull(cache.getObject(4));
+    }
+
+    @Test
+    public void keepsTheTotalWeightOnReplaceRemoveAndClear() {
+        FifoCache cache = new FifoCache(new PerpetualCache("test"));
+        cache.setWeigher(new RowCountWeigher());
+        cache.setSize(100);
+        cache.putObject("a", rows(10));
+        cache.putObject("b", rows(20));
+
+        cache.putObject("a", rows(30));
+        assertEquals(50, cache.getTotalWeight());
+
+        cache.removeObject("b");
+        assertEquals(30, cache.getTotalWeight());
+
+        cache.clear();
+        assertEquals(0, cache.getTotalWeight());
+    }
+
+    @Test
+    public void countsEntriesWithoutAWeigher() {
+        LruCache cache = new LruCache(new PerpetualCache("test"));
+        cache.setSize(2);
+
+        cache.putObject("a", rows(50));
+        cache.putObject("b", rows(50));
+        cache.putObject("c", rows(50));
+
+        assertEquals(2, cache.getSize());
+        assertEquals(2, cache.getTotalWeight());
+    }
+
+    private static List<Integer> rows(int count) {
+        return new ArrayList<>(Collections.nCopies(count, 0));
+    }
+}
@@ -0,0 +1,155 @@
+package org.xumiao.test.datasource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentBagTest {
+    private final FakeDatabase database = new FakeDatabase();
+    private PooledDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        dataSource = new PooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null);
+        dataSource.setPoolConcurrentBagEnabled(true);
+        dataSource.setPoolTimeToWait(20000);
+    }
+
+    @After
+    public void close() {
+        dataSource.forceCloseAll();
+    }
+
+    @Test(timeout = 30000)
+    public void neverLendsAConnectionToTwoThreads() throws Exception {
+        dataSource.setPoolMaximumActiveConnections(4);
+        dataSource.setPoolMaximumIdleConnections(4);
+        Set<Connection> inUse = ConcurrentHashMap.newKeySet();
+        AtomicInteger sharedConnections = new AtomicInteger();
+
+        runConcurrently(16, () -> {
+            for (int i = 0; i < 500; i++) {
+                try (Connection connection = dataSource.getConnection()) {
+                    Connection realConnection = PooledDataSource.unwrapConnection(connection);
+                    if (!inUse.add(realConnection)) {
+                        sharedConnections.incrementAndGet();
+                    }
+                    Thread.yield();
+                    inUse.remove(realConnection);
+                }
+            }
+        });
+
+        assertEquals(0, sharedConnections.get());
+        assertTrue(database.getOpenConnections() <= 4);
+        assertEquals(16 * 500, dataSource.getPoolState().getRequestCount());
+        assertEquals(0, dataSource.getPoolState().getActiveConnectionCount());
+    }
+
+    @Test(timeout = 30000)
+    public void handsAReturnedConnectionToAWaitingThread() throws Exception {
+        dataSource.setPoolMaximumActiveConnections(1);
+        Connection connection = dataSource.getConnection();
+        Connection realConnection = PooledDataSource.unwrapConnection(connection);
+        AtomicReference<Connection> handedOff = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try (Connection waited = dataSource.getConnection()) {
+                handedOff.set(PooledDataSource.unwrapConnection(waited));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        long returned = System.currentTimeMillis();
+        connection.close();
+        waiter.join();
+
+        assertSame(realConnection, handedOff.get());
+        assertTrue(System.currentTimeMillis() - returned < 10000);
+        assertEquals(1, dataSource.getPoolState().getHadToWaitCount());
+        assertEquals(1, database.getOpenConnections());
+    }
+
+    @Test(timeout = 30000)
+    public void claimsOverdueConnectionsWhileOtherThreadsBorrow() throws Exception {
+        dataSource.setPoolMaximumActiveConnections(2);
+        dataSource.setPoolMaximumCheckoutTime(50);
+        List<Connection> forgotten = new ArrayList<>();
+        forgotten.add(dataSource.getConnection());
+        forgotten.add(dataSource.getConnection());
+        Thread.sleep(100);
+
+        runConcurrently(8, () -> {
+            for (int i = 0; i < 100; i++) {
+                try (Connection connection = dataSource.getConnection()) {
+                    connection.setAutoCommit(true);
+                }
+            }
+        });
+
+        assertTrue(dataSource.getPoolState().getClaimedOverdueConnectionCount() >= 2);
+        for (Connection connection : forgotten) {
+            try {
+                connection.createStatement();
+                fail("A claimed connection must not be usable by its former borrower");
+            } catch (SQLException e) {
+                // expected
+            }
+            connection.close();
+        }
+        assertTrue(database.getOpenConnections() <= 2);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+        }
+        assertEquals(0, dataSource.getPoolState().getActiveConnectionCount());
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void runConcurrently(int threads, Task task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,106 @@
+package org.xumiao.test.datasource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PoolHousekeeperTest {
+    private final FakeDatabase database = new FakeDatabase();
+
+    @Test
+    public void stopsTheHousekeeperWhenAllConnectionsAreClosed() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.getConnection().close();
+        assertEquals(1, countHousekeepers());
+
+        dataSource.forceCloseAll();
+
+        waitFor(() -> countHousekeepers() == 0);
+        assertEquals(0, countHousekeepers());
+        assertEquals(0, database.getOpenConnections());
+    }
+
+    @Test
+    public void letsAnUnusedDataSourceBeCollected() throws Exception {
+        WeakReference<PooledDataSource> reference = new WeakReference<>(newDataSource());
+        reference.get().getConnection().close();
+
+        waitFor(() -> {
+            System.gc();
+            return reference.get() == null && countHousekeepers() == 0;
+        });
+        assertNull(reference.get());
+        assertEquals(0, countHousekeepers());
+    }
+
+    @Test
+    public void opensTheMinimumIdleConnectionsBeforeTheFirstCheckout() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolMinimumIdleConnections(2);
+
+        waitFor(() -> dataSource.getPoolState().getIdleConnectionCount() == 2);
+        assertEquals(2, dataSource.getPoolState().getIdleConnectionCount());
+        assertEquals(2, database.getOpenConnections());
+        assertEquals(0, dataSource.getPoolState().getRequestCount());
+        dataSource.forceCloseAll();
+    }
+
+    @Test(timeout = 10000)
+    public void countsAConnectionBeingValidatedAsActive() throws Exception {
+        CountDownLatch pinging = new CountDownLatch(1);
+        database.query("select 1", new String[] { "ONE" }, parameters -> {
+            pinging.countDown();
+            sleep(300);
+            return Collections.singletonList(new Object[] { 1 });
+        });
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolMaximumActiveConnections(1);
+        dataSource.setPoolPingEnabled(true);
+        dataSource.setPoolPingQuery("select 1");
+        dataSource.setPoolPingConnectionsNotUsedFor(500);
+        dataSource.getConnection().close();
+
+        pinging.await();
+        try (Connection connection = dataSource.getConnection()) {
+            // the only connection the pool may open is the one being pinged
+            assertEquals(1, database.getOpenConnections());
+        }
+        dataSource.forceCloseAll();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PooledDataSource newDataSource() throws SQLException {
+        PooledDataSource dataSource = new PooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null);
+        dataSource.setPoolHousekeepingInterval(10);
+        return dataSource;
+    }
+
+    private static long countHousekeepers() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.isAlive() && "PooledDataSource-housekeeper".equals(thread.getName()))
+            .count();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+    }
+}
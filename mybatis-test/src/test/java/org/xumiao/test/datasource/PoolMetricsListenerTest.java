@@ -0,0 +1,81 @@
+package org.xumiao.test.datasource;
+
+import org.apache.ibatis.datasource.pooled.PoolMetricsListener;
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.StatementCache;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class PoolMetricsListenerTest {
+    private final FakeDatabase database = new FakeDatabase();
+
+    @Test
+    public void notifiesOutsideOfThePoolLock() throws Exception {
+        PooledDataSource dataSource = new PooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null);
+        PoolState state = dataSource.getPoolState();
+        List<String> events = new ArrayList<>();
+        dataSource.setPoolMetricsListener(new PoolMetricsListener() {
+            @Override
+            public void connectionRequested(long requestTime) {
+                events.add("requested " + Thread.holdsLock(state));
+            }
+
+            @Override
+            public void connectionReturned(long checkoutTime) {
+                events.add("returned " + Thread.holdsLock(state));
+            }
+        });
+
+        Connection connection = dataSource.getConnection();
+        connection.close();
+        dataSource.forceCloseAll();
+
+        assertEquals("[requested false, returned false]", events.toString());
+    }
+
+    @Test
+    public void notifiesStatementCacheEvictions() throws Exception {
+        PooledDataSource dataSource = new PooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null);
+        dataSource.setPoolStatementCacheSize(1);
+        AtomicInteger evictions = new AtomicInteger();
+        dataSource.setPoolMetricsListener(new PoolMetricsListener() {
+            @Override
+            public void statementCacheEvicted() {
+                evictions.incrementAndGet();
+            }
+        });
+
+        try (Connection connection = dataSource.getConnection()) {
+            StatementCache cache = PooledDataSource.getStatementCache(connection);
+            cache.put("update a", connection.prepareStatement("update a"));
+            cache.put("update b", connection.prepareStatement("update b"));
+        }
+        dataSource.forceCloseAll();
+
+        assertEquals(1, evictions.get());
+        assertEquals(1, dataSource.getPoolState().getStatementCacheEvictionCount());
+    }
+
+    @Test
+    public void addsTheCountersOfSubclasses() throws Exception {
+        PooledDataSource dataSource = new PooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null);
+        PoolState state = new PoolState(dataSource) {
+            {
+                requestCount = 2;
+                badConnectionCount = 1;
+            }
+        };
+
+        assertEquals(2, state.getRequestCount());
+        assertEquals(1, state.getBadConnectionCount());
+        assertEquals(0, state.getAverageRequestTime());
+    }
+}
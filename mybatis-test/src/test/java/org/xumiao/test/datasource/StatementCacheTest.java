@@ -0,0 +1,86 @@
+package org.xumiao.test.datasource;
+
+import org.apache.ibatis.datasource.pooled.StatementCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+    private Connection connection;
+
+    @Before
+    public void setUp() {
+        FakeDatabase database = new FakeDatabase();
+        database.query("select", new String[] { "ID" }, parameters -> Collections.singletonList(new Object[] { 1 }));
+        connection = database.getConnection();
+    }
+
+    @After
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedStatement() throws SQLException {
+        StatementCache cache = new StatementCache(2);
+        PreparedStatement first = connection.prepareStatement("update a");
+        PreparedStatement second = connection.prepareStatement("update b");
+        cache.put("a", first);
+        cache.put("b", second);
+        assertSame(first, cache.get("a"));
+
+        cache.put("c", connection.prepareStatement("update c"));
+
+        assertEquals(2, cache.size());
+        assertTrue(second.isClosed());
+        assertFalse(first.isClosed());
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void keepsStatementsWithAnOpenResultSet() throws SQLException {
+        StatementCache cache = new StatementCache(1);
+        PreparedStatement query = connection.prepareStatement("select id from a");
+        ResultSet resultSet = query.executeQuery();
+        cache.put("query", query);
+
+        PreparedStatement update = connection.prepareStatement("update b");
+        cache.put("update", update);
+        assertFalse(query.isClosed());
+        assertTrue(resultSet.next());
+        assertEquals(2, cache.size());
+
+        cache.put("other", connection.prepareStatement("update c"));
+        assertTrue(update.isClosed());
+        assertFalse(query.isClosed());
+
+        resultSet.close();
+        cache.put("last", connection.prepareStatement("update d"));
+        assertTrue(query.isClosed());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void dropsStatementsOfClosedConnections() throws SQLException {
+        StatementCache cache = new StatementCache(0);
+        cache.put("a", connection.prepareStatement("update a"));
+
+        connection.close();
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+}
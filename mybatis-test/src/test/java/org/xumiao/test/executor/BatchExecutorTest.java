@@ -0,0 +1,358 @@
+package org.xumiao.test.executor;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.BatchExecutorException;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.BatchGrouping;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchExecutorTest {
+    private static final String INSERT_PARENT = "insert into parent (id) values (?)";
+    private static final String INSERT_CHILD = "insert into child (id) values (?)";
+    private static final String UPDATE_PARENT = "update parent set name = 'x' where id = ?";
+
+    private FakeDatabase database;
+    private Configuration configuration;
+    private SqlSession sqlSession;
+
+    @Before
+    public void setUp() {
+        database = new FakeDatabase();
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        addStatement("insertParent", INSERT_PARENT, SqlCommandType.INSERT);
+        addStatement("insertChild", INSERT_CHILD, SqlCommandType.INSERT);
+        addStatement("updateParent", UPDATE_PARENT, SqlCommandType.UPDATE);
+    }
+
+    @After
+    public void close() {
+        if (sqlSession != null) {
+            sqlSession.close();
+        }
+    }
+
+    @Test
+    public void groupsAnInsertWithItsOwnStatementAfterInterleavedInserts() {
+        configuration.setBatchGrouping(BatchGrouping.PARTIAL);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertChild", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.insert("insertParent", 3);
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            INSERT_PARENT + " [[1], [2], [3]]",
+            INSERT_CHILD + " [[1]]"), database.getLog());
+        assertEquals(2, database.getPreparedStatements());
+    }
+
+    @Test
+    public void keepsTheOrderOfStatementsWithoutGrouping() {
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertChild", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.insert("insertParent", 3);
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            INSERT_PARENT + " [[1]]",
+            INSERT_CHILD + " [[1]]",
+            INSERT_PARENT + " [[2], [3]]"), database.getLog());
+    }
+
+    @Test
+    public void doesNotGroupInsertsAcrossAnUpdate() {
+        configuration.setBatchGrouping(BatchGrouping.PARTIAL);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.update("updateParent", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.insert("insertChild", 2);
+        sqlSession.insert("insertParent", 3);
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            INSERT_PARENT + " [[1]]",
+            UPDATE_PARENT + " [[1]]",
+            INSERT_PARENT + " [[2], [3]]",
+            INSERT_CHILD + " [[2]]"), database.getLog());
+    }
+
+    @Test
+    public void groupsUpdatesWithFullGrouping() {
+        configuration.setBatchGrouping(BatchGrouping.FULL);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.update("updateParent", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.update("updateParent", 2);
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            INSERT_PARENT + " [[1], [2]]",
+            UPDATE_PARENT + " [[1], [2]]"), database.getLog());
+    }
+
+    @Test
+    public void executesAGroupOnceItHasQueuedTheFlushSize() {
+        configuration.setBatchGrouping(BatchGrouping.PARTIAL);
+        configuration.setBatchFlushSize(2);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertChild", 1);
+        sqlSession.insert("insertParent", 2);
+        assertEquals(Collections.singletonList(INSERT_PARENT + " [[1], [2]]"), database.getLog());
+
+        sqlSession.insert("insertParent", 3);
+        sqlSession.insert("insertChild", 2);
+        assertEquals(Arrays.asList(
+            INSERT_PARENT + " [[1], [2]]",
+            INSERT_PARENT + " [[3]]",
+            INSERT_CHILD + " [[1], [2]]"), database.getLog());
+
+        List<BatchResult> results = sqlSession.flushStatements();
+        assertEquals(3, database.getLog().size());
+        assertEquals(2, results.size());
+        assertArrayEquals(new int[] { 1, 1, 1 }, results.get(0).getUpdateCounts());
+        assertEquals(Arrays.asList(1, 2, 3), results.get(0).getParameterObjects());
+    }
+
+    @Test
+    public void returnsNoParameterObjectsWhenTheyAreNotRetained() {
+        configuration.setBatchParameterObjectsRetained(false);
+        configuration.setBatchFlushSize(2);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.insert("insertParent", 3);
+        List<BatchResult> results = sqlSession.flushStatements();
+
+        assertEquals(1, results.size());
+        assertArrayEquals(new int[] { 1, 1, 1 }, results.get(0).getUpdateCounts());
+        assertTrue(results.get(0).getParameterObjects().isEmpty());
+        assertNull(results.get(0).getParameterObject());
+    }
+
+    @Test
+    public void throwsTheFailureOfAnEarlyExecutionFromTheUpdate() {
+        configuration.setBatchFlushSize(2);
+        database.failBatchesOf(INSERT_CHILD);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.insert("insertChild", 1);
+        try {
+            sqlSession.insert("insertChild", 2);
+            fail("the early execution did not fail");
+        } catch (PersistenceException e) {
+            BatchExecutorException cause = (BatchExecutorException) e.getCause();
+            assertEquals("insertChild", cause.getFailingStatementId());
+            assertEquals(1, cause.getSuccessfulBatchResults().size());
+            assertEquals("insertParent", cause.getSuccessfulBatchResults().get(0).getMappedStatement().getId());
+            assertTrue(cause.getMessage(), cause.getMessage().startsWith("insertChild (batch index #2) failed. 1 prior"));
+        }
+    }
+
+    @Test
+    public void throwsTheFailureOfABatchFromTheCommit() {
+        configuration.setBatchFlushSize(2);
+        database.failBatchesOf(INSERT_CHILD);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertParent", 2);
+        sqlSession.insert("insertParent", 3);
+        sqlSession.insert("insertChild", 1);
+        try {
+            sqlSession.commit();
+            fail("the commit did not fail");
+        } catch (PersistenceException e) {
+            BatchExecutorException cause = (BatchExecutorException) e.getCause();
+            assertEquals("insertChild", cause.getFailingStatementId());
+            assertEquals(INSERT_CHILD, cause.getFailingSqlStatement());
+            // the rows executed early are part of the same batch result
+            assertEquals(1, cause.getSuccessfulBatchResults().size());
+            assertArrayEquals(new int[] { 1, 1, 1 }, cause.getSuccessfulBatchResults().get(0).getUpdateCounts());
+        }
+        assertEquals(Arrays.asList(
+            INSERT_PARENT + " [[1], [2]]",
+            INSERT_PARENT + " [[3]]"), database.getLog());
+        assertEquals(database.getPreparedStatements(), database.getClosedStatements());
+    }
+
+    @Test
+    public void rewritesInsertsToMultiRowInserts() {
+        configuration.setBatchInsertRewriteSize(2);
+        openSession();
+
+        for (int i = 1; i <= 5; i++) {
+            sqlSession.insert("insertParent", i);
+        }
+        List<BatchResult> results = sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            "insert into parent (id) values (?), (?) [[1, 2], [3, 4]]",
+            INSERT_PARENT + " [[5]]"), database.getLog());
+        assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, results.get(0).getUpdateCounts());
+        assertEquals(database.getPreparedStatements(), database.getClosedStatements());
+    }
+
+    @Test
+    public void keepsUpdatesAsTheyAreWhenRewritingInserts() {
+        configuration.setBatchInsertRewriteSize(2);
+        openSession();
+
+        sqlSession.update("updateParent", 1);
+        sqlSession.update("updateParent", 2);
+        sqlSession.flushStatements();
+
+        assertEquals(Collections.singletonList(UPDATE_PARENT + " [[1], [2]]"), database.getLog());
+    }
+
+    @Test
+    public void insertsNoMoreParametersPerStatementThanConfigured() {
+        configuration.setBatchInsertRewriteSize(10);
+        configuration.setBatchInsertRewriteMaxParameters(3);
+        openSession();
+
+        for (int i = 1; i <= 5; i++) {
+            sqlSession.insert("insertParent", i);
+        }
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            "insert into parent (id) values (?), (?), (?) [[1, 2, 3]]",
+            "insert into parent (id) values (?), (?) [[4, 5]]"), database.getLog());
+    }
+
+    @Test
+    public void skipsBackslashEscapesWhenRewritingInserts() {
+        addStatement("insertEscaped", "insert into parent (id, name) values (?, 'a\\\\b')", SqlCommandType.INSERT);
+        addStatement("insertQuoted", "insert into parent (id, name) values (?, 'it\\'s')", SqlCommandType.INSERT);
+        configuration.setBatchInsertRewriteSize(2);
+        openSession();
+
+        sqlSession.insert("insertEscaped", 1);
+        sqlSession.insert("insertEscaped", 2);
+        // MySQL reads an escaped quote where standard SQL ends the string, so the insert is kept as it is
+        sqlSession.insert("insertQuoted", 1);
+        sqlSession.insert("insertQuoted", 2);
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            "insert into parent (id, name) values (?, 'a\\\\b'), (?, 'a\\\\b') [[1, 2]]",
+            "insert into parent (id, name) values (?, 'it\\'s') [[1], [2]]"), database.getLog());
+    }
+
+    @Test
+    public void failsTheFlushWhenAMultiRowInsertReportsAnotherUpdateCount() {
+        configuration.setBatchInsertRewriteSize(2);
+        database.reportBatchUpdateCount(1);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertParent", 2);
+        try {
+            sqlSession.flushStatements();
+            fail("the update count was accepted");
+        } catch (PersistenceException e) {
+            BatchExecutorException cause = (BatchExecutorException) e.getCause();
+            assertEquals("insertParent", cause.getFailingStatementId());
+            assertTrue(cause.getBatchUpdateException().getMessage(),
+                cause.getBatchUpdateException().getMessage().contains("reported an update count of 1"));
+        }
+        assertEquals(database.getPreparedStatements(), database.getClosedStatements());
+    }
+
+    @Test
+    public void reportsNoInfoForMultiRowInsertsWhenTheDriverDoes() {
+        configuration.setBatchInsertRewriteSize(2);
+        database.reportBatchUpdateCount(Statement.SUCCESS_NO_INFO);
+        openSession();
+
+        sqlSession.insert("insertParent", 1);
+        sqlSession.insert("insertParent", 2);
+        List<BatchResult> results = sqlSession.flushStatements();
+
+        assertArrayEquals(new int[] { Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO }, results.get(0).getUpdateCounts());
+    }
+
+    @Test
+    public void assignsTheGeneratedKeysOfMultiRowInserts() {
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "name", String.class).build());
+        configuration.addMappedStatement(new MappedStatement.Builder(configuration, "insertNamedParent",
+            new StaticSqlSource(configuration, "insert into parent (name) values (?)", parameterMappings), SqlCommandType.INSERT)
+            .keyGenerator(Jdbc3KeyGenerator.INSTANCE).keyProperty("id").build());
+        configuration.setBatchInsertRewriteSize(2);
+        configuration.setBatchFlushSize(3);
+        openSession();
+
+        List<Map<String, Object>> parents = new ArrayList<>();
+        for (String name : new String[] { "a", "b", "c", "d" }) {
+            Map<String, Object> parent = new HashMap<>();
+            parent.put("name", name);
+            parents.add(parent);
+            sqlSession.insert("insertNamedParent", parent);
+        }
+        sqlSession.flushStatements();
+
+        assertEquals(Arrays.asList(
+            "insert into parent (name) values (?), (?) [[a, b]]",
+            "insert into parent (name) values (?) [[c]]",
+            "insert into parent (name) values (?) [[d]]"), database.getLog());
+        // the keys of the two rows of the first statement, then of the rows left over
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), parents.stream().map(parent -> parent.get("id")).collect(Collectors.toList()));
+    }
+
+    private void openSession() {
+        sqlSession = new DefaultSqlSessionFactory(configuration).openSession(ExecutorType.BATCH);
+    }
+
+    private void addStatement(String id, String sql, SqlCommandType sqlCommandType) {
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "id", Integer.class).build());
+        configuration.addMappedStatement(new MappedStatement.Builder(configuration, id,
+            new StaticSqlSource(configuration, sql, parameterMappings), sqlCommandType).build());
+    }
+}
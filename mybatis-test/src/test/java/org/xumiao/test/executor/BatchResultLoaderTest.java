@@ -0,0 +1,167 @@
+package org.xumiao.test.executor;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
+import org.apache.ibatis.executor.loader.ResultLoader;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchResultLoaderTest {
+    private static final String MAPPER = "org/xumiao/test/resultset/NestedBatchSelectMapper.xml";
+    private static final String[] COLUMNS = { "ID", "FAMILY" };
+
+    private FakeDatabase database;
+    private Configuration configuration;
+    private Executor executor;
+    private BatchResultLoader batchResultLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new FakeDatabase()
+            .query("select id, family from child", COLUMNS, BatchResultLoaderTest::children);
+        DataSource dataSource = new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null);
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+        executor = new SimpleExecutor(configuration, new JdbcTransaction(dataSource, null, false));
+        batchResultLoader = new BatchResultLoader(configuration, executor,
+            configuration.getMappedStatement("batch.selectChildrenOfFamilies"), "family");
+    }
+
+    @After
+    public void close() {
+        executor.close(false);
+    }
+
+    @Test
+    public void loadsTheResultsOfAllRegisteredLoadersInOneQuery() throws SQLException {
+        List<ResultLoader> loaders = register(100, 200, 100, 0);
+
+        assertEquals("[1001, 1002]", load(loaders.get(0)));
+        assertEquals("[2001, 2002]", load(loaders.get(1)));
+        assertEquals("[1001, 1002]", load(loaders.get(2)));
+        assertEquals("[]", load(loaders.get(3)));
+        assertEquals(Arrays.asList("[100, 200, 0]"), childQueries());
+    }
+
+    @Test
+    public void splitsTheKeysIntoBatchesOfTheConfiguredSize() throws SQLException {
+        configuration.setNestedQueryBatchSize(2);
+        List<ResultLoader> loaders = register(100, 200, 300);
+
+        for (ResultLoader loader : loaders) {
+            load(loader);
+        }
+
+        assertEquals(Arrays.asList("[100, 200]", "[300]"), childQueries());
+    }
+
+    @Test
+    public void loadsEachObjectByItselfWithAStatementLocalCache() throws SQLException {
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        List<ResultLoader> loaders = register(100, 200, 300);
+
+        assertEquals("[1001, 1002]", load(loaders.get(0)));
+        assertEquals("[2001, 2002]", load(loaders.get(1)));
+        assertEquals("[3001, 3002]", load(loaders.get(2)));
+        // a batch would be cleared from the local cache right away
+        assertEquals(Arrays.asList("[100]", "[200]", "[300]"), childQueries());
+    }
+
+    @Test
+    public void loadsEachObjectByItselfAfterAnUpdate() throws SQLException {
+        List<ResultLoader> loaders = register(100, 200, 300);
+        assertEquals("[1001, 1002]", load(loaders.get(0)));
+
+        executor.update(configuration.getMappedStatement("batch.renameParents"), "renamed");
+
+        assertEquals("[2001, 2002]", load(loaders.get(1)));
+        assertEquals("[3001, 3002]", load(loaders.get(2)));
+        assertEquals(Arrays.asList("[100, 200, 300]", "[200]", "[300]"), childQueries());
+    }
+
+    @Test
+    public void batchesTheLoadersLeftWhenOneLoadsOnAnotherThread() throws Exception {
+        List<ResultLoader> loaders = register(100, 200, 300);
+        List<String> loaded = new ArrayList<>();
+        Thread thread = new Thread(() -> {
+            try {
+                loaded.add(load(loaders.get(0)));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(Arrays.asList("[1001, 1002]"), loaded);
+        assertEquals("[2001, 2002]", load(loaders.get(1)));
+        assertEquals("[3001, 3002]", load(loaders.get(2)));
+        // the other thread cannot use the executor of the session, so it queries on a connection of its own
+        assertEquals(Arrays.asList("[100]", "[200, 300]"), childQueries());
+        assertEquals(1, database.getOpenConnections());
+    }
+
+    private List<ResultLoader> register(Integer... families) {
+        MappedStatement nestedQuery = configuration.getMappedStatement("batch.selectChildren");
+        List<ResultLoader> loaders = new ArrayList<>();
+        for (Integer family : families) {
+            BoundSql boundSql = nestedQuery.getBoundSql(family);
+            CacheKey cacheKey = executor.createCacheKey(nestedQuery, family, RowBounds.DEFAULT, boundSql);
+            ResultLoader loader = new ResultLoader(configuration, executor, nestedQuery, family, List.class, cacheKey, boundSql);
+            batchResultLoader.addLoader(loader);
+            loaders.add(loader);
+        }
+        return loaders;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String load(ResultLoader loader) throws SQLException {
+        return ((List<Map<String, Object>>) loader.loadResult()).stream().map(child -> child.get("id"))
+            .collect(Collectors.toList()).toString();
+    }
+
+    private List<String> childQueries() {
+        return database.getLog().stream().filter(line -> line.contains("from child"))
+            .map(line -> line.substring(line.lastIndexOf('['))).collect(Collectors.toList());
+    }
+
+    private static List<Object[]> children(List<Object> families) {
+        List<Object[]> rows = new ArrayList<>();
+        for (Object family : families) {
+            int value = (Integer) family;
+            if (value != 0) {
+                rows.add(new Object[] { value * 10 + 1, family });
+                rows.add(new Object[] { value * 10 + 2, family });
+            }
+        }
+        return rows;
+    }
+}
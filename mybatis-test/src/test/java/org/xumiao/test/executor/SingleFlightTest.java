@@ -0,0 +1,113 @@
+package org.xumiao.test.executor;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.SingleFlight;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SingleFlightTest {
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final CacheKey key = new CacheKey(new Object[] { "select", 1 });
+    private final AtomicInteger queries = new AtomicInteger();
+
+    @Test(timeout = 10000)
+    public void givesFollowersACopyOfTheLeadersResult() throws Exception {
+        List<Object> result = new ArrayList<>(Arrays.asList("a", "b"));
+        List<Object> followerResult = runWithFollower(result, false);
+
+        assertEquals(result, followerResult);
+        assertNotSame(result, followerResult);
+        assertSame(result.get(0), followerResult.get(0));
+        assertEquals(1, queries.get());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test(timeout = 10000)
+    public void givesFollowersSerializedCopiesForAReadWriteCache() throws Exception {
+        List<Object> result = new ArrayList<>(Arrays.asList(new Date(0), new Date(1)));
+        List<Object> followerResult = runWithFollower(result, true);
+
+        assertEquals(result, followerResult);
+        assertNotSame(result.get(0), followerResult.get(0));
+        assertEquals(1, queries.get());
+    }
+
+    @Test(timeout = 10000)
+    public void letsFollowersQueryWhenTheResultCannotBeCopied() throws Exception {
+        List<Object> result = new ArrayList<>(Arrays.asList(new Object()));
+        List<Object> followerResult = runWithFollower(result, true);
+
+        assertEquals(Arrays.asList("follower"), followerResult);
+        assertEquals(2, queries.get());
+    }
+
+    @Test(timeout = 10000)
+    public void letsFollowersQueryWhenTheLeaderIsTooSlow() throws Exception {
+        singleFlight.setTimeout(50);
+        CountDownLatch followerDone = new CountDownLatch(1);
+        AtomicReference<List<Object>> followerResult = new AtomicReference<>();
+        Thread follower = follower(followerResult, false, followerDone);
+
+        singleFlight.execute(key, () -> {
+            queries.incrementAndGet();
+            follower.start();
+            while (followerDone.getCount() > 0) {
+                Thread.yield();
+            }
+            return new ArrayList<>(Arrays.asList("leader"));
+        });
+        follower.join();
+
+        assertEquals(Arrays.asList("follower"), followerResult.get());
+        assertEquals(2, queries.get());
+    }
+
+    /**
+     * Runs the query as leader, with a follower asking for the same key while it is in flight.
+     */
+    private List<Object> runWithFollower(List<Object> result, boolean copyResult) throws Exception {
+        AtomicReference<List<Object>> followerResult = new AtomicReference<>();
+        Thread follower = follower(followerResult, copyResult, new CountDownLatch(1));
+
+        List<Object> leaderResult = singleFlight.execute(key, () -> {
+            queries.incrementAndGet();
+            follower.start();
+            // the follower waits for this query once it found it in flight
+            while (follower.getState() != Thread.State.TIMED_WAITING) {
+                Thread.yield();
+            }
+            return result;
+        }, copyResult);
+        follower.join();
+
+        assertSame(result, leaderResult);
+        return followerResult.get();
+    }
+
+    private Thread follower(AtomicReference<List<Object>> followerResult, boolean copyResult, CountDownLatch done) {
+        return new Thread(() -> {
+            try {
+                followerResult.set(singleFlight.execute(key, () -> {
+                    queries.incrementAndGet();
+                    return new ArrayList<>(Arrays.asList("follower"));
+                }, copyResult));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+}
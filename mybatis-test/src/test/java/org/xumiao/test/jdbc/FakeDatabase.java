@@ -0,0 +1,525 @@
+package org.xumiao.test.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory stand-in for a JDBC driver. It records the statements it executes and answers queries from
+ * handlers registered by SQL prefix, so executor and result handling code can be tested without a database.
+ */
+public class FakeDatabase {
+
+    private static final Map<String, FakeDatabase> DATABASES = new ConcurrentHashMap<>();
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    static {
+        try {
+            DriverManager.registerDriver(new FakeDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String url = "jdbc:fake:" + IDS.incrementAndGet();
+    private final Map<String, Query> queries = new ConcurrentHashMap<>();
+    private final List<String> log = new CopyOnWriteArrayList<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger preparedStatements = new AtomicInteger();
+    private final AtomicInteger closedStatements = new AtomicInteger();
+    private final AtomicInteger columnReadsByLabel = new AtomicInteger();
+    private final AtomicLong nextKey = new AtomicLong(1);
+    private volatile String failingSql;
+    private volatile Integer batchUpdateCount;
+
+    public FakeDatabase() {
+        DATABASES.put(url, this);
+    }
+
+    public static String getDriver() {
+        return FakeDriver.class.getName();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Answers the queries starting with the given SQL, the handler gets the bound parameters in order.
+     */
+    public FakeDatabase query(String sqlPrefix, String[] columns, Function<List<Object>, List<Object[]>> rows) {
+        queries.put(sqlPrefix, new Query(new String[][] { columns }, parameters -> Collections.singletonList(rows.apply(parameters))));
+        return this;
+    }
+
+    /**
+     * Answers the queries starting with the given SQL with several result sets, like a stored procedure does.
+     */
+    public FakeDatabase queryResultSets(String sqlPrefix, String[][] columns, Function<List<Object>, List<List<Object[]>>> resultSets) {
+        queries.put(sqlPrefix, new Query(columns, resultSets));
+        return this;
+    }
+
+    /**
+     * Makes the batches of statements starting with the given SQL fail.
+     */
+    public void failBatchesOf(String sqlPrefix) {
+        this.failingSql = sqlPrefix;
+    }
+
+    /**
+     * Makes every batch entry report the given update count instead of the rows it inserts.
+     */
+    public void reportBatchUpdateCount(int updateCount) {
+        this.batchUpdateCount = updateCount;
+    }
+
+    public Connection getConnection() {
+        openConnections.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { Connection.class },
+            new FakeConnection());
+    }
+
+    /**
+     * The executed statements, one line per executed batch, update or query.
+     */
+    public List<String> getLog() {
+        return log;
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public int getPreparedStatements() {
+        return preparedStatements.get();
+    }
+
+    public int getClosedStatements() {
+        return closedStatements.get();
+    }
+
+    /**
+     * The number of column values read from result sets by column label rather than by column index.
+     */
+    public int getColumnReadsByLabel() {
+        return columnReadsByLabel.get();
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static final class Query {
+        final String[][] columns;
+        final Function<List<Object>, List<List<Object[]>>> resultSets;
+
+        Query(String[][] columns, Function<List<Object>, List<List<Object[]>>> resultSets) {
+            this.columns = columns;
+            this.resultSets = resultSets;
+        }
+    }
+
+    private final class FakeConnection implements InvocationHandler {
+        private volatile boolean closed;
+        private boolean autoCommit = true;
+        private boolean readOnly;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    if (closed) {
+                        throw new SQLException("Connection closed");
+                    }
+                    preparedStatements.incrementAndGet();
+                    return proxy(java.sql.PreparedStatement.class, new FakeStatement((Connection) proxy, (String) args[0]));
+                case "createStatement":
+                    if (closed) {
+                        throw new SQLException("Connection closed");
+                    }
+                    return proxy(Statement.class, new FakeStatement((Connection) proxy, null));
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        openConnections.decrementAndGet();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return readOnly;
+                case "setReadOnly":
+                    readOnly = (Boolean) args[0];
+                    return null;
+                case "getTransactionIsolation":
+                    return Connection.TRANSACTION_READ_COMMITTED;
+                case "getMetaData":
+                    return proxy(DatabaseMetaData.class, (metaData, metaDataMethod, metaDataArgs) ->
+                        "supportsMultipleResultSets".equals(metaDataMethod.getName()) ? Boolean.TRUE : defaultValue(metaDataMethod.getReturnType()));
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private final class FakeStatement implements InvocationHandler {
+        private final Connection connection;
+        private String sql;
+        private final Map<Integer, Object> parameters = new TreeMap<>();
+        private final List<List<Object>> batch = new ArrayList<>();
+        private ResultSet resultSet;
+        private final List<ResultSet> moreResultSets = new ArrayList<>();
+        private boolean noMoreResults;
+        private int generatedKeys;
+        private int queryTimeout;
+        private boolean closed;
+
+        FakeStatement(Connection connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                && !"setQueryTimeout".equals(name) && !"setFetchSize".equals(name)) {
+                parameters.put((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+                return null;
+            }
+            if (name.startsWith("execute") && args != null && args.length > 0 && args[0] instanceof String) {
+                // a plain statement gets its SQL on execution
+                sql = (String) args[0];
+            }
+            switch (name) {
+                case "addBatch":
+                    batch.add(new ArrayList<>(parameters.values()));
+                    parameters.clear();
+                    return null;
+                case "clearBatch":
+                    batch.clear();
+                    return null;
+                case "executeBatch":
+                    checkOpen();
+                    return executeBatch();
+                case "execute":
+                    checkOpen();
+                    return execute();
+                case "executeQuery":
+                    checkOpen();
+                    execute();
+                    return resultSet;
+                case "executeUpdate":
+                    checkOpen();
+                    log.add(sql + " " + parameters.values());
+                    generatedKeys = rowsPerEntry();
+                    return generatedKeys;
+                case "getResultSet":
+                    return resultSet;
+                case "getUpdateCount":
+                    return resultSet == null && !noMoreResults ? generatedKeys : -1;
+                case "getMoreResults":
+                    closeResultSet();
+                    resultSet = moreResultSets.isEmpty() ? null : moreResultSets.remove(0);
+                    noMoreResults = resultSet == null;
+                    return resultSet != null;
+                case "getGeneratedKeys":
+                    return generatedKeys();
+                case "getConnection":
+                    return connection;
+                case "getQueryTimeout":
+                    return queryTimeout;
+                case "setQueryTimeout":
+                    queryTimeout = (Integer) args[0];
+                    return null;
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        closedStatements.incrementAndGet();
+                        closeResultSet();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeStatement[" + sql + "]";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private void checkOpen() throws SQLException {
+            if (closed) {
+                throw new SQLException("Statement closed");
+            }
+        }
+
+        private int rowsPerEntry() {
+            return sql.split("\\)\\s*,\\s*\\(").length;
+        }
+
+        private int[] executeBatch() throws SQLException {
+            final int[] updateCounts = new int[batch.size()];
+            Arrays.fill(updateCounts, batchUpdateCount == null ? rowsPerEntry() : batchUpdateCount);
+            if (failingSql != null && sql.startsWith(failingSql)) {
+                batch.clear();
+                throw new BatchUpdateException("Batch failed: " + sql, new int[0]);
+            }
+            log.add(sql + " " + batch);
+            generatedKeys = batch.size() * rowsPerEntry();
+            batch.clear();
+            return updateCounts;
+        }
+
+        private boolean execute() throws SQLException {
+            closeResultSet();
+            moreResultSets.clear();
+            noMoreResults = false;
+            for (Map.Entry<String, Query> entry : queries.entrySet()) {
+                if (sql.startsWith(entry.getKey())) {
+                    final List<Object> values = new ArrayList<>(parameters.values());
+                    log.add(sql + " " + values);
+                    final Query query = entry.getValue();
+                    final List<List<Object[]>> resultSets = query.resultSets.apply(values);
+                    for (int i = 0; i < resultSets.size(); i++) {
+                        moreResultSets.add((ResultSet) proxy(ResultSet.class,
+                            new FakeResultSet(query.columns[i], resultSets.get(i), columnReadsByLabel)));
+                    }
+                    resultSet = moreResultSets.remove(0);
+                    return true;
+                }
+            }
+            log.add(sql + " " + parameters.values());
+            resultSet = null;
+            generatedKeys = rowsPerEntry();
+            return false;
+        }
+
+        private ResultSet generatedKeys() {
+            final List<Object[]> keys = new ArrayList<>();
+            for (int i = 0; i < generatedKeys; i++) {
+                keys.add(new Object[] { nextKey.getAndIncrement() });
+            }
+            return (ResultSet) proxy(ResultSet.class, new FakeResultSet(new String[] { "ID" }, keys, columnReadsByLabel));
+        }
+
+        private void closeResultSet() throws SQLException {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        }
+    }
+
+    private static final class FakeResultSet implements InvocationHandler {
+        private final String[] columns;
+        private final List<Object[]> rows;
+        private final AtomicInteger readsByLabel;
+        private int row = -1;
+        private boolean wasNull;
+        private boolean closed;
+
+        FakeResultSet(String[] columns, List<Object[]> rows, AtomicInteger readsByLabel) {
+            this.columns = columns;
+            this.rows = rows == null ? Collections.emptyList() : rows;
+            this.readsByLabel = readsByLabel;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            switch (name) {
+                case "next":
+                    if (closed) {
+                        throw new SQLException("ResultSet closed");
+                    }
+                    return ++row < rows.size();
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "wasNull":
+                    return wasNull;
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "findColumn":
+                    return columnIndex(args[0]);
+                case "getMetaData":
+                    return proxy(ResultSetMetaData.class, this::metaData);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeResultSet" + Arrays.toString(columns);
+                default:
+                    if (name.startsWith("get") && args != null && args.length == 1) {
+                        if (closed) {
+                            throw new SQLException("ResultSet closed");
+                        }
+                        if (args[0] instanceof String) {
+                            readsByLabel.incrementAndGet();
+                        }
+                        final Object value = rows.get(row)[columnIndex(args[0]) - 1];
+                        wasNull = value == null;
+                        return convert(value, method.getReturnType());
+                    }
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private int columnIndex(Object column) throws SQLException {
+            if (column instanceof Integer) {
+                return (Integer) column;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase((String) column)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("Column not found: " + column);
+        }
+
+        private Object metaData(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return columns.length;
+                case "getColumnLabel":
+                case "getColumnName":
+                    return columns[(Integer) args[0] - 1];
+                case "getColumnType":
+                    return jdbcType(columnClass((Integer) args[0]));
+                case "getColumnClassName":
+                    return columnClass((Integer) args[0]).getName();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private Class<?> columnClass(int column) {
+            for (Object[] values : rows) {
+                if (values[column - 1] != null) {
+                    return values[column - 1].getClass();
+                }
+            }
+            return String.class;
+        }
+
+        private static int jdbcType(Class<?> type) {
+            if (type == Integer.class) {
+                return Types.INTEGER;
+            } else if (type == Long.class) {
+                return Types.BIGINT;
+            }
+            return Types.VARCHAR;
+        }
+
+        private static Object convert(Object value, Class<?> type) {
+            if (value == null) {
+                return defaultValue(type);
+            } else if (type == int.class) {
+                return ((Number) value).intValue();
+            } else if (type == long.class) {
+                return ((Number) value).longValue();
+            } else if (type == String.class) {
+                return String.valueOf(value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Connects to the fake databases by URL.
+     */
+    public static class FakeDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            final FakeDatabase database = DATABASES.get(url);
+            return database == null ? null : database.getConnection();
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:fake:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.xumiao.test.resultset;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.io.InputStream;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledRowMapperTest {
+    private static final String MAPPER = "org/xumiao/test/resultset/CompiledRowMapper.xml";
+    private static final String[] COLUMNS = { "ID", "COUNT", "NAME", "SCORE", "EXTRA" };
+
+    private final List<Object[]> rows = Arrays.asList(
+        new Object[] { 1, 10L, "ann", 5L, 7L },
+        new Object[] { 2, null, null, null, null },
+        new Object[] { null, null, null, null, null });
+
+    @Test
+    public void mapsAResultMapLikeReflection() throws Exception {
+        List<Row> compiled = select("compiled.selectMappedRows", true, false);
+
+        assertEquals(select("compiled.selectMappedRows", false, false).toString(), compiled.toString());
+        // the custom type handler is read by column index, the unknown type handler resolves the type of EXTRA
+        assertEquals("[Row(1, 10, ANN, 5, 7), Row(2, -1, unset, -1, unset), null]", compiled.toString());
+        assertTrue(compiled.get(0).compiled);
+    }
+
+    @Test
+    public void autoMapsLikeReflection() throws Exception {
+        List<Row> compiled = select("compiled.selectAutoMappedRows", true, false);
+
+        assertEquals(select("compiled.selectAutoMappedRows", false, false).toString(), compiled.toString());
+        assertEquals("[Row(1, 10, ann, 5, 7), Row(2, -1, unset, -1, unset), null]", compiled.toString());
+        assertTrue(compiled.get(0).compiled);
+    }
+
+    @Test
+    public void callsSettersOnNullsLikeReflection() throws Exception {
+        List<Row> compiled = select("compiled.selectMappedRows", true, true);
+
+        assertEquals(select("compiled.selectMappedRows", false, true).toString(), compiled.toString());
+        // the primitive count keeps its value, the other properties are set to null
+        assertEquals("[Row(1, 10, ANN, 5, 7), Row(2, -1, null, null, null), null]", compiled.toString());
+    }
+
+    @Test
+    public void callsSettersOnNullsOfAutoMappedColumnsLikeReflection() throws Exception {
+        List<Row> compiled = select("compiled.selectAutoMappedRows", true, true);
+
+        assertEquals(select("compiled.selectAutoMappedRows", false, true).toString(), compiled.toString());
+        assertEquals("[Row(1, 10, ann, 5, 7), Row(2, -1, null, null, null), null]", compiled.toString());
+    }
+
+    @Test
+    public void mapsThroughReflectionWhenDisabled() throws Exception {
+        List<Row> rows = select("compiled.selectMappedRows", false, false);
+
+        assertFalse(rows.get(0).compiled);
+    }
+
+    @Test
+    public void createsObjectsThroughPrivateConstructors() throws Exception {
+        List<ImmutableRow> compiled = select("compiled.selectImmutableRows", true, false);
+
+        assertEquals(select("compiled.selectImmutableRows", false, false).toString(), compiled.toString());
+        assertEquals("[ImmutableRow(1, ann), ImmutableRow(2, null), null]", compiled.toString());
+        assertTrue(compiled.get(0).compiled);
+    }
+
+    @Test
+    public void letsErrorsOfTheConstructorThrough() throws Exception {
+        try {
+            select("compiled.selectFailingRows", true, false);
+            fail("the constructor did not fail");
+        } catch (FailingRowError e) {
+            assertEquals("row 1", e.getMessage());
+        }
+    }
+
+    private <T> List<T> select(String statement, boolean compiledRowMapping, boolean callSettersOnNulls) throws Exception {
+        FakeDatabase database = new FakeDatabase().query("select id", COLUMNS, parameters -> rows);
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        configuration.setCompiledRowMappingEnabled(compiledRowMapping);
+        configuration.setCallSettersOnNulls(callSettersOnNulls);
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            return sqlSession.selectList(statement);
+        }
+    }
+
+    public static class Row {
+        private int id = -1;
+        private long count = -1;
+        private String name = "unset";
+        private Integer score = -1;
+        private Object extra = "unset";
+        private boolean compiled;
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+            compiled = Arrays.stream(new Throwable().getStackTrace())
+                .anyMatch(element -> element.getClassName().endsWith(".CompiledRowMapper"));
+        }
+
+        public void setScore(Integer score) {
+            this.score = score;
+        }
+
+        public void setExtra(Object extra) {
+            this.extra = extra;
+        }
+
+        @Override
+        public String toString() {
+            return "Row(" + id + ", " + count + ", " + name + ", " + score + ", " + extra + ")";
+        }
+    }
+
+    public static class ImmutableRow {
+        private final int id;
+        private final String name;
+        private final boolean compiled;
+
+        private ImmutableRow(int id, String name) {
+            this.id = id;
+            this.name = name;
+            compiled = Arrays.stream(new Throwable().getStackTrace())
+                .anyMatch(element -> element.getClassName().endsWith(".CompiledConstructor"));
+        }
+
+        @Override
+        public String toString() {
+            return "ImmutableRow(" + id + ", " + name + ")";
+        }
+    }
+
+    public static class FailingRow {
+
+        public FailingRow(int id) {
+            throw new FailingRowError("row " + id);
+        }
+    }
+
+    public static class FailingRowError extends Error {
+
+        FailingRowError(String message) {
+            super(message);
+        }
+    }
+
+    public static class UpperCaseTypeHandler extends BaseTypeHandler<String> {
+
+        @Override
+        public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+            ps.setString(i, parameter);
+        }
+
+        @Override
+        public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+            return upperCase(rs.getString(columnName));
+        }
+
+        @Override
+        public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+            return upperCase(rs.getString(columnIndex));
+        }
+
+        @Override
+        public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+            return upperCase(cs.getString(columnIndex));
+        }
+
+        private static String upperCase(String value) {
+            return value == null ? null : value.toUpperCase();
+        }
+    }
+}
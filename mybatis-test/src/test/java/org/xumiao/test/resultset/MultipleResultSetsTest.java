@@ -0,0 +1,93 @@
+package org.xumiao.test.resultset;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultipleResultSetsTest {
+    private static final String MAPPER = "org/xumiao/test/resultset/MultipleResultSetsMapper.xml";
+
+    private List<Object[]> parents;
+    private List<Object[]> children;
+    private FakeDatabase database;
+    private Configuration configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new FakeDatabase()
+            .queryResultSets("select parents", new String[][] { { "ID" }, { "ID", "PARENT_ID" } },
+                parameters -> Arrays.asList(parents, children))
+            .queryResultSets("select composite", new String[][] { { "ID", "KIND" }, { "ID", "PARENT_ID", "PARENT_KIND" } },
+                parameters -> Arrays.asList(parents, children));
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+    }
+
+    @Test
+    public void linksTheRowsOfTheNextResultSetToTheirParents() {
+        parents = Arrays.asList(new Object[] { 1 }, new Object[] { 2 }, new Object[] { 3 });
+        // the foreign column is a BIGINT while the column of the parents is an INTEGER
+        children = Arrays.asList(new Object[] { 11, 1L }, new Object[] { 21, 2L }, new Object[] { 12, 1L });
+
+        assertEquals("[1=[11, 12], 2=[21], 3=[]]", describe(select("multiple.selectParents")));
+        assertEquals(0, database.getColumnReadsByLabel());
+    }
+
+    @Test
+    public void linksAChildToEveryParentWithItsKey() {
+        parents = Arrays.asList(new Object[] { 1 }, new Object[] { 2 }, new Object[] { 1 });
+        children = Arrays.asList(new Object[] { 11, 1 }, new Object[] { 21, 2 });
+
+        assertEquals("[1=[11], 2=[21], 1=[11]]", describe(select("multiple.selectParents")));
+    }
+
+    @Test
+    public void skipsChildrenWithoutAParent() {
+        parents = Arrays.asList(new Object[][] { { 1 } });
+        children = Arrays.asList(new Object[] { 11, 1 }, new Object[] { 91, 9 }, new Object[] { 92, null });
+
+        assertEquals("[1=[11]]", describe(select("multiple.selectParents")));
+    }
+
+    @Test
+    public void linksChildrenByCompositeKeys() {
+        parents = Arrays.asList(new Object[] { 1, "a" }, new Object[] { 1, "b" }, new Object[] { 2, null });
+        children = Arrays.asList(new Object[] { 11, 1, "a" }, new Object[] { 12, 1, "b" }, new Object[] { 13, 1, "c" },
+            new Object[] { 21, 2, null });
+
+        assertEquals("[1=[11], 1=[12], 2=[21]]", describe(select("multiple.selectCompositeParents")));
+        assertEquals(0, database.getColumnReadsByLabel());
+    }
+
+    private List<Map<String, Object>> select(String statement) {
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            return sqlSession.selectList(statement);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String describe(List<Map<String, Object>> parents) {
+        return parents.stream().map(parent -> parent.get("id") + "=" + (parent.get("children") == null ? "[]"
+            : ((List<Map<String, Object>>) parent.get("children")).stream().map(child -> child.get("id"))
+                .collect(Collectors.toList()))).collect(Collectors.toList()).toString();
+    }
+}
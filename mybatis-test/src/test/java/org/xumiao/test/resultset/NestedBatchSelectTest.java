@@ -0,0 +1,150 @@
+package org.xumiao.test.resultset;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NestedBatchSelectTest {
+    private static final String MAPPER = "org/xumiao/test/resultset/NestedBatchSelectMapper.xml";
+    private static final String[] COLUMNS = { "ID", "FAMILY" };
+
+    private List<Object[]> parents;
+    private Function<Object, Object> childFamily = family -> family;
+    private FakeDatabase database;
+    private Configuration configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new FakeDatabase()
+            .query("select id, family from parent", COLUMNS, parameters -> parents)
+            .query("select id, family from child where family =", COLUMNS, this::children)
+            .query("select id, family from child where family in", COLUMNS, this::children);
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+    }
+
+    @Test
+    public void loadsTheChildrenOfAllParentsInOneQuery() {
+        parents = Arrays.asList(new Object[] { 1, 100 }, new Object[] { 2, 200 }, new Object[] { 3, 300 });
+
+        assertEquals("{1=[1001, 1002], 2=[2001, 2002], 3=[3001, 3002]}", describe(selectParents()));
+        assertEquals(Arrays.asList("[100, 200, 300]"), childQueries());
+    }
+
+    @Test
+    public void loadsTheChildrenOfASingleParent() {
+        parents = Arrays.asList(new Object[][] { { 1, 100 } });
+
+        assertEquals("{1=[1001, 1002]}", describe(selectParents()));
+        assertEquals(Arrays.asList("[100]"), childQueries());
+    }
+
+    @Test
+    public void queriesTheKeyOfParentsSharingItOnce() {
+        parents = Arrays.asList(new Object[] { 1, 100 }, new Object[] { 2, 200 }, new Object[] { 3, 100 });
+
+        List<Map<String, Object>> result = selectParents();
+
+        assertEquals("{1=[1001, 1002], 2=[2001, 2002], 3=[1001, 1002]}", describe(result));
+        assertEquals(Arrays.asList("[100, 200]"), childQueries());
+        // every parent gets its own list
+        assertTrue(result.get(0).get("children") != result.get(2).get("children"));
+    }
+
+    @Test
+    public void matchesKeysOfDifferentNumberTypes() {
+        parents = Arrays.asList(new Object[] { 1, 100 }, new Object[] { 2, 200 });
+        // a NUMBER column of the child table read as a BigDecimal
+        childFamily = family -> new BigDecimal(family + ".00");
+
+        assertEquals("{1=[1001, 1002], 2=[2001, 2002]}", describe(selectParents()));
+    }
+
+    @Test
+    public void leavesAParentWithoutChildrenEmpty() {
+        parents = Arrays.asList(new Object[] { 1, 100 }, new Object[] { 2, 0 });
+
+        assertEquals("{1=[1001, 1002], 2=[]}", describe(selectParents()));
+    }
+
+    @Test
+    public void rejectsABatchSelectWithCompositeColumns() {
+        String mapper = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+            + "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n"
+            + "<mapper namespace=\"composite\">\n"
+            + "  <resultMap id=\"parentMap\" type=\"hashmap\">\n"
+            + "    <collection property=\"children\" column=\"{family=FAMILY,id=ID}\" javaType=\"list\"\n"
+            + "                select=\"batch.selectChildren\" batchSelect=\"batch.selectChildrenOfFamilies\" batchKey=\"family\"/>\n"
+            + "  </resultMap>\n"
+            + "</mapper>";
+
+        try {
+            new XMLMapperBuilder(new ByteArrayInputStream(mapper.getBytes(StandardCharsets.UTF_8)), configuration, "composite.xml",
+                configuration.getSqlFragments()).parse();
+            fail("a batch select with composite columns was accepted");
+        } catch (BuilderException e) {
+            assertTrue(String.valueOf(e.getCause()), String.valueOf(e.getCause()).contains("composite columns"));
+        }
+    }
+
+    private List<Object[]> children(List<Object> families) {
+        List<Object[]> rows = new ArrayList<>();
+        for (Object family : families) {
+            int value = ((Number) family).intValue();
+            if (value != 0) {
+                rows.add(new Object[] { value * 10 + 1, childFamily.apply(family) });
+                rows.add(new Object[] { value * 10 + 2, childFamily.apply(family) });
+            }
+        }
+        return rows;
+    }
+
+    private List<Map<String, Object>> selectParents() {
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            return sqlSession.selectList("batch.selectParents");
+        }
+    }
+
+    /**
+     * The parameters of the child queries run.
+     */
+    private List<String> childQueries() {
+        return database.getLog().stream().filter(line -> line.contains("from child"))
+            .map(line -> line.substring(line.lastIndexOf('['))).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String describe(List<Map<String, Object>> parents) {
+        return parents.stream().collect(Collectors.toMap(parent -> String.valueOf(parent.get("id")),
+            parent -> ((List<Map<String, Object>>) parent.get("children")).stream().map(child -> child.get("id"))
+                .collect(Collectors.toList()), (a, b) -> a, TreeMap::new)).toString();
+    }
+}
@@ -0,0 +1,188 @@
+package org.xumiao.test.resultset;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NestedResultMapTest {
+    private static final String MAPPER = "org/xumiao/test/resultset/NestedResultMapper.xml";
+    private static final String[] COLUMNS = { "P_ID", "P_NAME", "C_ID", "C_NAME", "T_ID" };
+
+    private List<Object[]> rows;
+    private Configuration configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeDatabase database = new FakeDatabase()
+            .query("select p_id", COLUMNS, parameters -> rows);
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+    }
+
+    @Test
+    public void groupsRowsByTheIdsOfEveryLevel() {
+        rows = Arrays.asList(
+            new Object[] { 1L, "ann", 10, "x", "t1" },
+            new Object[] { 1L, "ann", 10, "x", "t2" },
+            new Object[] { 2L, "bob", 10, "y", "t1" },
+            new Object[] { 1L, "ann", 11, "z", null },
+            new Object[] { 1L, "ann", 10, "x", "t3" });
+
+        List<Map<String, Object>> parents = selectList("joined.selectParents");
+
+        assertEquals("[ann[x[t1, t2, t3], z[]], bob[y[t1]]]", describe(parents));
+    }
+
+    @Test
+    public void streamsOrderedRowsThroughACursor() throws Exception {
+        rows = Arrays.asList(
+            new Object[] { 1L, "ann", 10, "x", "t1" },
+            new Object[] { 1L, "ann", 11, "z", "t2" },
+            new Object[] { 2L, "bob", 10, "y", "t1" },
+            new Object[] { 2L, "bob", 10, "y", "t2" });
+
+        List<Map<String, Object>> parents = new ArrayList<>();
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+             Cursor<Map<String, Object>> cursor = sqlSession.selectCursor("joined.selectOrderedParents")) {
+            cursor.forEach(parents::add);
+        }
+
+        assertEquals("[ann[x[t1], z[t2]], bob[y[t1, t2]]]", describe(parents));
+    }
+
+    @Test
+    public void warnsAboutAnOrderedStatementWithoutATopLevelOrderBy() {
+        rows = Collections.singletonList(new Object[] { 1L, "ann", 10, "x", "t1" });
+
+        selectList("joined.selectOrderedParents");
+        selectList("joined.selectFilteredOrderedParents");
+        selectList("joined.selectParentsOrderedInASubquery");
+        selectList("joined.selectParentsOrderedInAWindow");
+
+        // a statement is warned about once, adding it again tells whether it was
+        assertTrue(configuration.addNestedResultStreamingWarning("joined.selectOrderedParents"));
+        assertTrue(configuration.addNestedResultStreamingWarning("joined.selectFilteredOrderedParents"));
+        assertFalse(configuration.addNestedResultStreamingWarning("joined.selectParentsOrderedInASubquery"));
+        assertFalse(configuration.addNestedResultStreamingWarning("joined.selectParentsOrderedInAWindow"));
+    }
+
+    @Test
+    public void doesNotWarnAboutUnorderedNestedResultsCollectedIntoAListOrAMap() {
+        rows = Collections.singletonList(new Object[] { 1L, "ann", 10, "x", "t1" });
+
+        selectList("joined.selectParents");
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            assertEquals(1, sqlSession.selectMap("joined.selectParents", "id").size());
+        }
+
+        assertTrue(configuration.addNestedResultStreamingWarning("joined.selectParents"));
+    }
+
+    @Test
+    public void warnsAboutUnorderedNestedResultsStreamedThroughACursor() throws Exception {
+        rows = Collections.singletonList(new Object[] { 1L, "ann", 10, "x", "t1" });
+
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+             Cursor<Map<String, Object>> cursor = sqlSession.selectCursor("joined.selectParents")) {
+            cursor.forEach(parent -> { });
+        }
+
+        assertFalse(configuration.addNestedResultStreamingWarning("joined.selectParents"));
+    }
+
+    @Test
+    public void releasesTheParentsOfAnOrderedStatementWhileStreaming() throws Exception {
+        rows = family(20000);
+
+        assertTrue(releasesTheFirstParent("joined.selectOrderedParents"));
+        // without resultOrdered, every parent is kept until the result set is exhausted
+        assertFalse(releasesTheFirstParent("joined.selectParents"));
+    }
+
+    private boolean releasesTheFirstParent(String statement) throws Exception {
+        WeakReference<Object> first = null;
+        int count = 0;
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+             Cursor<Map<String, Object>> cursor = sqlSession.selectCursor(statement)) {
+            for (Map<String, Object> parent : cursor) {
+                if (first == null) {
+                    first = new WeakReference<>(parent);
+                }
+                if (++count == 5000) {
+                    for (int i = 0; i < 10 && first.get() != null; i++) {
+                        System.gc();
+                        Thread.sleep(10);
+                    }
+                    return first.get() == null;
+                }
+            }
+        }
+        throw new AssertionError("only " + count + " parents");
+    }
+
+    /**
+     * Parents with two rows each, generated as they are read so that the rows themselves are not retained.
+     */
+    private static List<Object[]> family(int parents) {
+        return new AbstractList<Object[]>() {
+            @Override
+            public Object[] get(int index) {
+                long id = index / 2;
+                return new Object[] { id, "parent" + id, index, "child" + index, "toy" + index };
+            }
+
+            @Override
+            public int size() {
+                return parents * 2;
+            }
+        };
+    }
+
+    private List<Map<String, Object>> selectList(String statement) {
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            return sqlSession.selectList(statement);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String describe(List<Map<String, Object>> parents) {
+        List<String> descriptions = new ArrayList<>();
+        for (Map<String, Object> parent : parents) {
+            List<String> children = new ArrayList<>();
+            for (Map<String, Object> child : (List<Map<String, Object>>) parent.get("children")) {
+                List<Object> toys = new ArrayList<>();
+                for (Map<String, Object> toy : (List<Map<String, Object>>) child.get("toys")) {
+                    toys.add(toy.get("id"));
+                }
+                children.add(child.get("name") + toys.toString());
+            }
+            descriptions.add(parent.get("name") + children.toString());
+        }
+        return descriptions.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package org.xumiao.test.resultset;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NestedSelectTest {
+    private static final String MAPPER = "org/xumiao/test/resultset/NestedSelectMapper.xml";
+
+    private final Set<String> queryThreads = ConcurrentHashMap.newKeySet();
+    private FakeDatabase database;
+    private Configuration configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new FakeDatabase()
+            .query("select id from parent", new String[] { "ID" }, parameters -> rows(1, 2, 3))
+            .query("select id from child", new String[] { "ID" }, parameters -> rows((Integer) parameters.get(0) * 10,
+                (Integer) parameters.get(0) * 10 + 1))
+            .query("select name from owner", new String[] { "NAME" }, parameters -> {
+                queryThreads.add(Thread.currentThread().getName());
+                return Collections.singletonList(new Object[] { "owner" + parameters.get(0) });
+            })
+            .query("select name from toy", new String[] { "NAME" }, parameters -> {
+                queryThreads.add(Thread.currentThread().getName());
+                return Collections.singletonList(new Object[] { "toy" + parameters.get(0) });
+            });
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        try (InputStream inputStream = Resources.getResourceAsStream(MAPPER)) {
+            new XMLMapperBuilder(inputStream, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+    }
+
+    @After
+    public void close() {
+        configuration.shutdownNestedQueryThreads();
+    }
+
+    @Test(timeout = 10000)
+    public void loadsNestedSelectsOnThePool() {
+        configuration.setNestedQueryThreads(2);
+
+        List<Map<String, Object>> parents = selectParents();
+
+        assertParents(parents);
+        assertTrue(queryThreads.stream().anyMatch(name -> name.startsWith("mybatis-nested-query-")));
+        assertEquals(0, database.getOpenConnections());
+    }
+
+    @Test(timeout = 10000)
+    public void loadsNestedSelectsOfAPooledSelectOnItsThread() {
+        // the children's nested selects would otherwise wait for the only thread, which waits for them
+        configuration.setNestedQueryThreads(1);
+
+        assertParents(selectParents());
+    }
+
+    @Test
+    public void loadsNestedSelectsWithinTheSessionWithoutPool() {
+        configuration.setNestedQueryThreads(2);
+        configuration.setNestedQueryThreads(0);
+
+        assertParents(selectParents());
+        assertNull(configuration.getNestedQueryExecutorService());
+        assertFalse(queryThreads.stream().anyMatch(name -> name.startsWith("mybatis-nested-query-")));
+    }
+
+    private List<Map<String, Object>> selectParents() {
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            return sqlSession.selectList("nested.selectParents");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertParents(List<Map<String, Object>> parents) {
+        assertEquals(3, parents.size());
+        for (Map<String, Object> parent : parents) {
+            final Integer id = (Integer) parent.get("id");
+            assertEquals("owner" + id, ((Map<String, Object>) parent.get("owner")).get("NAME"));
+            final List<Map<String, Object>> children = (List<Map<String, Object>>) parent.get("children");
+            assertEquals(Arrays.asList(id * 10, id * 10 + 1), Arrays.asList(children.get(0).get("id"), children.get(1).get("id")));
+            for (Map<String, Object> child : children) {
+                assertEquals("owner" + child.get("id"), ((Map<String, Object>) child.get("owner")).get("NAME"));
+                final List<Map<String, Object>> toys = (List<Map<String, Object>>) child.get("toys");
+                assertEquals("toy" + child.get("id"), toys.get(0).get("NAME"));
+            }
+        }
+    }
+
+    private static List<Object[]> rows(Integer... ids) {
+        final List<Object[]> rows = new ArrayList<>();
+        for (Integer id : ids) {
+            rows.add(new Object[] { id });
+        }
+        return rows;
+    }
+}
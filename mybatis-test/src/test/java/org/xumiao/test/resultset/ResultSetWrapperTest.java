@@ -0,0 +1,155 @@
+package org.xumiao.test.resultset;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.executor.resultset.ResultSetLayout;
+import org.apache.ibatis.executor.resultset.ResultSetWrapper;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ibatis.type.JdbcType;
+import org.junit.Test;
+import org.xumiao.test.jdbc.FakeDatabase;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResultSetWrapperTest {
+    private static final String COMPILED_MAPPER = "org/xumiao/test/resultset/CompiledRowMapper.xml";
+    private static final String NESTED_MAPPER = "org/xumiao/test/resultset/NestedResultMapper.xml";
+
+    @Test
+    public void findsColumnsIgnoringCaseAndPrefersTheFirstOfTheSameName() throws Exception {
+        FakeDatabase database = new FakeDatabase()
+            .query("select", new String[] { "id", "Name", "NAME" }, parameters -> Collections.emptyList());
+        Configuration configuration = newConfiguration(database);
+
+        try (Connection connection = database.getConnection();
+             ResultSet resultSet = connection.prepareStatement("select").executeQuery()) {
+            ResultSetWrapper rsw = new ResultSetWrapper(resultSet, configuration);
+
+            assertEquals(1, rsw.getColumnIndex("id"));
+            assertEquals(1, rsw.getColumnIndex("ID"));
+            assertEquals(2, rsw.getColumnIndex("name"));
+            assertEquals(2, rsw.getColumnIndex("nAmE"));
+            // looked up again once remembered
+            assertEquals(2, rsw.getColumnIndex("nAmE"));
+            assertEquals(0, rsw.getColumnIndex("missing"));
+        }
+    }
+
+    @Test
+    public void resolvesThePositionsOfThePropertyMappingColumns() throws Exception {
+        FakeDatabase database = new FakeDatabase()
+            .query("select", new String[] { "id", "NAME", "name", "SCORE", "P_ID", "P_NAME" }, parameters -> Collections.emptyList());
+        Configuration configuration = newConfiguration(database, COMPILED_MAPPER);
+        ResultMap resultMap = configuration.getResultMap("compiled.rowMap");
+
+        try (Connection connection = database.getConnection();
+             ResultSet resultSet = connection.prepareStatement("select").executeQuery()) {
+            ResultSetWrapper rsw = new ResultSetWrapper(resultSet, configuration);
+
+            // ID, COUNT, NAME, SCORE and EXTRA, the missing columns are 0
+            assertArrayEquals(new int[] { 1, 0, 2, 4, 0 }, rsw.getPropertyMappingColumnIndexes(resultMap, null));
+            assertArrayEquals(new int[] { 5, 0, 6, 0, 0 }, rsw.getPropertyMappingColumnIndexes(resultMap, "p_"));
+        }
+    }
+
+    @Test
+    public void mapsResultMapsWithoutReadingColumnsByLabel() throws Exception {
+        FakeDatabase database = new FakeDatabase()
+            .query("select id", new String[] { "extra", "score", "name", "count", "id" }, parameters -> Arrays.asList(
+                new Object[] { 7L, 5, "ann", 10L, 1 },
+                new Object[] { null, null, null, null, 2 }));
+        Configuration configuration = newConfiguration(database, COMPILED_MAPPER);
+
+        assertEquals("[Row(1, 10, ANN, 5, 7), Row(2, -1, unset, -1, unset)]", selectList(configuration, "compiled.selectMappedRows").toString());
+        assertEquals("[Row(1, 10, ann, 5, 7), Row(2, -1, unset, -1, unset)]", selectList(configuration, "compiled.selectAutoMappedRows").toString());
+        assertEquals(0, database.getColumnReadsByLabel());
+    }
+
+    @Test
+    public void autoMapsTheFirstOfColumnsWithTheSameName() throws Exception {
+        FakeDatabase database = new FakeDatabase()
+            .query("select id", new String[] { "ID", "NAME", "NAME" }, parameters -> Collections.singletonList(
+                new Object[] { 1, "first", "second" }));
+        Configuration configuration = newConfiguration(database, COMPILED_MAPPER);
+
+        assertEquals("[Row(1, -1, first, -1, unset)]", selectList(configuration, "compiled.selectAutoMappedRows").toString());
+        assertEquals("[Row(1, -1, FIRST, -1, unset)]", selectList(configuration, "compiled.selectMappedRows").toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void keysNestedRowsWithoutReadingColumnsByLabel() throws Exception {
+        FakeDatabase database = new FakeDatabase()
+            .query("select p_id", new String[] { "P_ID", "P_NAME", "C_ID", "C_NAME", "T_ID" }, parameters -> Arrays.asList(
+                new Object[] { 1L, "ann", 10, "x", "t1" },
+                new Object[] { 1L, "ann", 10, "x", "t2" },
+                new Object[] { 2L, "bob", 11, "y", null }));
+        Configuration configuration = newConfiguration(database, NESTED_MAPPER);
+
+        List<Map<String, Object>> parents = selectList(configuration, "joined.selectParents");
+
+        assertEquals(2, parents.size());
+        List<Map<String, Object>> children = (List<Map<String, Object>>) parents.get(0).get("children");
+        assertEquals(2, ((List<?>) children.get(0).get("toys")).size());
+        assertEquals(0, database.getColumnReadsByLabel());
+    }
+
+    @Test
+    public void sharesTheLayoutsOfTheMostRecentlyUsedColumns() {
+        Configuration configuration = new Configuration();
+        configuration.setMaxResultSetLayouts(2);
+        ResultSetLayout a = configuration.getResultSetLayout(layout("A"));
+        ResultSetLayout b = configuration.getResultSetLayout(layout("B"));
+
+        assertSame(a, configuration.getResultSetLayout(layout("A")));
+        // drops B, which was used less recently than A
+        ResultSetLayout c = configuration.getResultSetLayout(layout("C"));
+
+        assertEquals(2, configuration.getResultSetLayoutCount());
+        assertSame(a, configuration.getResultSetLayout(layout("A")));
+        assertSame(c, configuration.getResultSetLayout(layout("C")));
+        assertNotSame(b, configuration.getResultSetLayout(layout("B")));
+
+        configuration.setMaxResultSetLayouts(1);
+        assertEquals(1, configuration.getResultSetLayoutCount());
+    }
+
+    private static ResultSetLayout layout(String column) {
+        return new ResultSetLayout(Collections.singletonList(column), Collections.singletonList(String.class.getName()),
+            Collections.singletonList(JdbcType.VARCHAR));
+    }
+
+    private static Configuration newConfiguration(FakeDatabase database, String... mappers) throws Exception {
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(),
+            new UnpooledDataSource(FakeDatabase.getDriver(), database.getUrl(), null, null)));
+        for (String mapper : mappers) {
+            try (InputStream inputStream = Resources.getResourceAsStream(mapper)) {
+                new XMLMapperBuilder(inputStream, configuration, mapper, configuration.getSqlFragments()).parse();
+            }
+        }
+        return configuration;
+    }
+
+    private static <T> List<T> selectList(Configuration configuration, String statement) {
+        try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession()) {
+            return sqlSession.selectList(statement);
+        }
+    }
+}